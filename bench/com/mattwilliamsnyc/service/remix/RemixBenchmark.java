@@ -0,0 +1,671 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+import com.mattwilliamsnyc.service.remix.util.RemixUtil;
+import com.mattwilliamsnyc.service.remix.util.StringPool;
+import com.mattwilliamsnyc.service.remix.util.XMLHandler;
+
+/**
+ * Benchmarks of the client's response handling, run against generated documents (see
+ * {@link SampleDocuments}) without any network I/O.
+ * 
+ * Each benchmark compares the current implementation with what it replaced, reporting time per
+ * operation (median of several rounds, after warm-up), bytes allocated per operation and, where
+ * relevant, heap retained. Run from the project root with:
+ * 
+ * <pre>
+ * javac -d build $(find src bench -name '*.java')
+ * java -Xmx1g -cp build com.mattwilliamsnyc.service.remix.RemixBenchmark [benchmark ...]
+ * </pre>
+ * 
+ * Without arguments, every benchmark is run. Timings depend on the machine; compare the columns of
+ * a run rather than runs on different machines.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RemixBenchmark {
+    /**
+     * Benchmarks by name, in the order they are run
+     */
+    private static final Map<String,Benchmark> BENCHMARKS = new LinkedHashMap<String,Benchmark>();
+
+    static {
+        BENCHMARKS.put("setup", RemixBenchmark::setup);
+        BENCHMARKS.put("allocation", RemixBenchmark::allocation);
+        BENCHMARKS.put("formats", RemixBenchmark::formats);
+        BENCHMARKS.put("compact", RemixBenchmark::compact);
+        BENCHMARKS.put("entity", RemixBenchmark::entity);
+        BENCHMARKS.put("stringpool", RemixBenchmark::stringPool);
+    }
+
+    /**
+     * Number of measured rounds per operation
+     */
+    private static final int ROUNDS = 7;
+
+    /**
+     * Number of warm-up rounds per operation, run before the measured ones
+     */
+    private static final int WARMUP_ROUNDS = 10;
+
+    /**
+     * Minimum duration of a measured round, in nanoseconds
+     */
+    private static final long ROUND_NANOS = 100000000L;
+
+    /**
+     * Keeps the results of measured operations reachable, so that they are not optimized away
+     */
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        String[] names = 0 < args.length ? args : BENCHMARKS.keySet().toArray(new String[0]);
+        for(String name : names) {
+            if(!BENCHMARKS.containsKey(name)) {
+                System.err.println("Unknown benchmark " + name + "; available: " + BENCHMARKS.keySet());
+                System.exit(1);
+            }
+        }
+        for(String name : names) {
+            System.out.println("== " + name);
+            BENCHMARKS.get(name).run();
+            System.out.println();
+        }
+    }
+
+    /**
+     * Per-response parser setup [user-013]: a SAX reader looked up through XMLReaderFactory and a
+     * new handler for every response, as before, against the calling thread's reusable handler.
+     * 
+     * Setup alone is measured, then a complete parse of a one-product and a 100-product page.
+     */
+    @SuppressWarnings("deprecation")
+    private static void setup() throws Exception {
+        header("operation", "ns/op", "bytes/op");
+        measure("setup, new reader and handler", () -> {
+            XMLReader  reader  = XMLReaderFactory.createXMLReader();
+            XMLHandler handler = new XMLHandler();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            return reader;
+        });
+        measure("setup, thread's handler", () -> XMLHandler.current());
+
+        for(int products : new int[] {1, 100}) {
+            final byte[] xml = SampleDocuments.productsXml(products);
+            measure("parse " + products + " product(s), new reader and handler", () -> {
+                XMLReader  reader  = XMLReaderFactory.createXMLReader();
+                XMLHandler handler = new XMLHandler();
+                reader.setContentHandler(handler);
+                reader.setErrorHandler(handler);
+                reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+                return handler.getDocumentRoot();
+            });
+            measure("parse " + products + " product(s), thread's handler", () ->
+                XMLHandler.current().parse(new InputSource(new ByteArrayInputStream(xml)))
+            );
+        }
+    }
+
+    /**
+     * Allocation of the XML handler [user-014]: the previous handler, which built every value with
+     * <tt>toString().replace("\n","").trim()</tt> and a new StringBuffer per element, against the
+     * current one, with its reusable character buffer.
+     * 
+     * Both handlers are fed by the same reused SAX reader, so that only their own allocations differ.
+     */
+    private static void allocation() throws Exception {
+        final byte[]    xml      = SampleDocuments.productsXml(100);
+        final XMLReader reader   = RemixUtil.createXMLReader();
+        final XMLHandler current = new XMLHandler();
+        final BaselineHandler baseline = new BaselineHandler();
+
+        reader.setContentHandler(current);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+        int elements = count(current.getDocumentRoot());
+        System.out.println("100 products, " + xml.length + " bytes, " + elements + " elements");
+        header("handler", "ns/op", "bytes/op", "bytes/element");
+
+        Callable<Object> before = () -> {
+            reader.setContentHandler(baseline);
+            reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+            return baseline.getDocumentRoot();
+        };
+        Callable<Object> after = () -> {
+            reader.setContentHandler(current);
+            current.reset();
+            reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+            return current.getDocumentRoot();
+        };
+        allocationRow("previous (StringBuffer, Stack)", before, elements);
+        allocationRow("current (TextBuffer)", after, elements);
+    }
+
+    /**
+     * Measures the time and allocation of a parse, and prints them, with the allocation per element.
+     */
+    private static void allocationRow(String label, Callable<?> parse, int elements) throws Exception {
+        double nanos = nanosPerOperation(parse);
+        double bytes = bytesPerOperation(parse);
+        row(label, format(nanos), format(bytes), format(bytes / elements));
+    }
+
+    /**
+     * Counts the elements of a tree.
+     */
+    private static int count(Element element) {
+        int count = 1;
+        if(element.hasChildren()) {
+            for(Element child : element.getChildren()) {
+                count += count(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * XML against JSON [user-016]: size of the same page in each format, raw and gzipped, and the
+     * time to parse it into products through the client.
+     * 
+     * The products read from both documents are first checked to be identical, getter by getter.
+     */
+    private static void formats() throws Exception {
+        Remix xmlClient  = client(SampleDocuments.productsXml(100), ResponseFormat.XML, DocumentModel.TREE);
+        Remix jsonClient = client(SampleDocuments.productsJson(100), ResponseFormat.JSON, DocumentModel.TREE);
+        String xmlProducts  = describe(xmlClient.getProducts().list());
+        String jsonProducts = describe(jsonClient.getProducts().list());
+        if(!xmlProducts.equals(jsonProducts)) {
+            throw new IllegalStateException("XML and JSON documents parse into different products");
+        }
+        System.out.println("Products parsed from either format are identical");
+
+        header("page", "bytes", "gzip bytes", "ns/op", "bytes/op");
+        for(int products : new int[] {1, 10, 100}) {
+            for(ResponseFormat format : ResponseFormat.values()) {
+                byte[] document = ResponseFormat.XML == format
+                    ? SampleDocuments.productsXml(products)
+                    : SampleDocuments.productsJson(products);
+                final Remix client = client(document, format, DocumentModel.TREE);
+                Callable<Object> parse = () -> client.getProducts().list();
+                row(
+                    products + " product(s), " + format, format(document.length), format(gzip(document).length),
+                    format(nanosPerOperation(parse)), format(bytesPerOperation(parse))
+                );
+            }
+        }
+    }
+
+    /**
+     * Memory per product [user-018]: heap retained by cached pages of products in each document
+     * model, as parsed and once every getter of every product has been read.
+     */
+    private static void compact() throws Exception {
+        final int pages    = 20;
+        final int products = 100;
+        byte[]    xml      = SampleDocuments.productsXml(products);
+        System.out.println(pages + " pages of " + products + " products; XML: " + format(xml.length / products) + " bytes/product");
+        header("model", "bytes/product", "after reading", "estimated");
+        for(DocumentModel model : DocumentModel.values()) {
+            final Remix client = client(xml, ResponseFormat.XML, model);
+            final List<ProductsResponse> responses = new ArrayList<ProductsResponse>();
+            long parsed = retainedBytes(() -> {
+                for(int i = 0; i < pages; ++i) {
+                    ProductsResponse response = client.getProducts();
+                    response.list();
+                    responses.add(response);
+                }
+                return responses;
+            });
+            long read = parsed + retainedBytes(() -> {
+                for(ProductsResponse response : responses) {
+                    describe(response.list());
+                }
+                return responses;
+            });
+            long estimated = 0;
+            for(ProductsResponse response : responses) {
+                estimated += response.estimateSize();
+            }
+            row(
+                model.toString(), format((double) parsed / (pages * products)), format((double) read / (pages * products)),
+                format((double) estimated / (pages * products))
+            );
+            Reference.reachabilityFence(responses);
+        }
+    }
+
+    /**
+     * Entity storage [user-020]: heap retained by products and the cost of their getters, with
+     * fields in slots and numeric properties decoded once, against the previous entity, which kept
+     * every field in a HashMap and parsed numbers and booleans on every call.
+     * 
+     * Products are built from the same parsed elements, so only the entities themselves are measured.
+     */
+    private static void entity() throws Exception {
+        final byte[]        xml      = SampleDocuments.productsXml(100);
+        final int           copies   = 20;
+        final List<Element> elements = XMLHandler.current().parse(new InputSource(new ByteArrayInputStream(xml))).getChildren();
+        final int           products = elements.size();
+
+        final List<MapProduct> mapProducts = new ArrayList<MapProduct>();
+        long mapBytes = retainedBytes(() -> {
+            for(int i = 0; i < copies; ++i) {
+                for(Element element : elements) {
+                    mapProducts.add(new MapProduct(element));
+                }
+            }
+            return mapProducts;
+        });
+        final List<Product> slotProducts = new ArrayList<Product>();
+        long slotBytes = retainedBytes(() -> {
+            for(int i = 0; i < copies; ++i) {
+                for(Element element : elements) {
+                    slotProducts.add(new Product(element));
+                }
+            }
+            return slotProducts;
+        });
+
+        // Six getters per product: three strings, a float, an int and a boolean
+        final List<MapProduct> mapPage  = mapProducts.subList(0, products);
+        final List<Product>    slotPage = slotProducts.subList(0, products);
+        double mapNanos = nanosPerOperation(() -> {
+            double sum = 0;
+            for(MapProduct product : mapPage) {
+                sum += product.getSku().length() + product.getName().length() + product.getManufacturer().length()
+                     + product.getRegularPrice() + product.getCustomerReviewCount() + (product.isNew() ? 1 : 0);
+            }
+            return sum;
+        }) / (6 * products);
+        double slotNanos = nanosPerOperation(() -> {
+            double sum = 0;
+            for(Product product : slotPage) {
+                sum += product.getSku().length() + product.getName().length() + product.getManufacturer().length()
+                     + product.getRegularPrice() + product.getCustomerReviewCount() + (product.isNew() ? 1 : 0);
+            }
+            return sum;
+        }) / (6 * products);
+        double mapBuild = nanosPerOperation(() -> {
+            List<MapProduct> page = new ArrayList<MapProduct>(products);
+            for(Element element : elements) {
+                page.add(new MapProduct(element));
+            }
+            return page;
+        }) / products;
+        double slotBuild = nanosPerOperation(() -> {
+            List<Product> page = new ArrayList<Product>(products);
+            for(Element element : elements) {
+                page.add(new Product(element));
+            }
+            return page;
+        }) / products;
+
+        header("entity", "bytes/product", "ns/build", "ns/getter");
+        row("previous (HashMap, parsed per call)", format((double) mapBytes / mapProducts.size()), format(mapBuild), String.format(Locale.ROOT, "%.1f", mapNanos));
+        row("current (slots, decoded once)", format((double) slotBytes / slotProducts.size()), format(slotBuild), String.format(Locale.ROOT, "%.1f", slotNanos));
+    }
+
+    /**
+     * Heap saved by value deduplication [user-015]: heap retained by cached pages of products
+     * parsed without a string pool and with a client pool, in each format, once every getter of
+     * every product has been read (values of lazily decoded documents are pooled when read).
+     */
+    private static void stringPool() throws Exception {
+        final int pages = 20;
+        header("page", "no pool", "pool", "saved", "pool reports");
+        for(ResponseFormat format : ResponseFormat.values()) {
+            byte[] document = ResponseFormat.XML == format
+                ? SampleDocuments.productsXml(100)
+                : SampleDocuments.productsJson(100);
+            for(DocumentModel model : new DocumentModel[] {DocumentModel.TREE, DocumentModel.COMPACT}) {
+                if(ResponseFormat.JSON == format && DocumentModel.COMPACT == model) {
+                    // JSON documents are always parsed into trees
+                    continue;
+                }
+                StringPool pool      = new StringPool(4096, 64);
+                long       unpooled  = cachedPages(client(document, format, model, null), pages);
+                long       pooled    = cachedPages(client(document, format, model, pool), pages);
+                double     perProduct = pages * 100;
+                row(
+                    format + " " + model + ", bytes/product", format(unpooled / perProduct), format(pooled / perProduct),
+                    format((unpooled - pooled) / perProduct), format(pool.getSavedBytes() / perProduct)
+                );
+            }
+        }
+    }
+
+    /**
+     * Measures the heap retained by pages of products, once every getter has been read.
+     * 
+     * @param  client Client answering with a page of products
+     * @param  pages  Number of pages retained
+     * @return Bytes retained
+     */
+    private static long cachedPages(final Remix client, final int pages) throws Exception {
+        return retainedBytes(() -> {
+            List<ProductsResponse> responses = new ArrayList<ProductsResponse>();
+            for(int i = 0; i < pages; ++i) {
+                ProductsResponse response = client.getProducts();
+                describe(response.list());
+                responses.add(response);
+            }
+            return responses;
+        });
+    }
+
+    /**
+     * Creates a client whose every request is answered, in-process, with the same document.
+     * 
+     * @param  document      Response document
+     * @param  format        Format of the document
+     * @param  documentModel Representation into which the document is parsed
+     * @return Client
+     */
+    static Remix client(byte[] document, ResponseFormat format, DocumentModel documentModel) {
+        return client(document, format, documentModel, null);
+    }
+
+    /**
+     * Creates a client whose every request is answered, in-process, with the same document.
+     * 
+     * @param  document      Response document
+     * @param  format        Format of the document
+     * @param  documentModel Representation into which the document is parsed
+     * @param  stringPool    Pool deduplicating values; null for none
+     * @return Client
+     */
+    static Remix client(final byte[] document, ResponseFormat format, DocumentModel documentModel, StringPool stringPool) {
+        return Remix.builder("benchmark")
+            .transport(new InProcessTransport(request -> new TransportResponse(200, null, new ByteArrayInputStream(document))))
+            .format(format)
+            .documentModel(documentModel)
+            .stringPool(stringPool)
+            .build();
+    }
+
+    /**
+     * Describes entities through all their getters, recursively, so that entities read from
+     * different sources can be compared.
+     * 
+     * @param  value Entity, list or value
+     * @return Description
+     */
+    static String describe(Object value) throws Exception {
+        if(value instanceof List) {
+            List<String> items = new ArrayList<String>();
+            for(Object item : (List<?>) value) {
+                items.add(describe(item));
+            }
+            return items.toString();
+        }
+        if(!(value instanceof Entity)) {
+            return String.valueOf(value);
+        }
+        StringBuilder description = new StringBuilder(value.getClass().getSimpleName()).append('{');
+        Method[]      getters     = value.getClass().getDeclaredMethods();
+        Arrays.sort(getters, (a, b) -> a.getName().compareTo(b.getName()));
+        for(Method getter : getters) {
+            if(Modifier.isPublic(getter.getModifiers()) && 0 == getter.getParameterCount()
+                    && (getter.getName().startsWith("get") || getter.getName().startsWith("is"))) {
+                description.append(getter.getName()).append('=').append(describe(getter.invoke(value))).append(", ");
+            }
+        }
+        return description.append('}').toString();
+    }
+
+    /**
+     * Compresses a document as the API would.
+     */
+    private static byte[] gzip(byte[] document) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try(GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(document);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Measures the time and allocation of an operation, and prints them.
+     * 
+     * @param  label     Description of the operation
+     * @param  operation Operation to be measured
+     * @throws Exception Thrown if the operation failed
+     */
+    private static void measure(String label, Callable<?> operation) throws Exception {
+        row(label, format(nanosPerOperation(operation)), format(bytesPerOperation(operation)));
+    }
+
+    /**
+     * Measures the time taken by an operation.
+     * 
+     * The number of operations per round is doubled until a round lasts long enough, which also
+     * warms the operation up; the median of the measured rounds is returned.
+     * 
+     * @param  operation Operation to be measured
+     * @return Nanoseconds per operation
+     * @throws Exception Thrown if the operation failed
+     */
+    static double nanosPerOperation(Callable<?> operation) throws Exception {
+        int count = 1;
+        while(ROUND_NANOS > round(operation, count)) {
+            count <<= 1;
+        }
+        for(int i = 0; i < WARMUP_ROUNDS; ++i) {
+            round(operation, count);
+        }
+        double[] rounds = new double[ROUNDS];
+        for(int i = 0; i < ROUNDS; ++i) {
+            rounds[i] = (double) round(operation, count) / count;
+        }
+        Arrays.sort(rounds);
+        return rounds[ROUNDS / 2];
+    }
+
+    /**
+     * Runs an operation a number of times.
+     * 
+     * @return Elapsed nanoseconds
+     */
+    private static long round(Callable<?> operation, int count) throws Exception {
+        long started = System.nanoTime();
+        for(int i = 0; i < count; ++i) {
+            sink = operation.call();
+        }
+        return System.nanoTime() - started;
+    }
+
+    /**
+     * Measures the bytes allocated by an operation on the calling thread.
+     * 
+     * @param  operation Operation to be measured (already warmed up)
+     * @return Bytes allocated per operation
+     * @throws Exception Thrown if the operation failed
+     */
+    static double bytesPerOperation(Callable<?> operation) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int  count  = 1000;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < count; ++i) {
+            sink = operation.call();
+        }
+        return (double) (threads.getThreadAllocatedBytes(thread) - before) / count;
+    }
+
+    /**
+     * Measures the heap retained by the result of an operation.
+     * 
+     * @param  operation Operation building the object graph to be measured
+     * @return Bytes retained
+     * @throws Exception Thrown if the operation failed
+     */
+    static long retainedBytes(Callable<?> operation) throws Exception {
+        long   before = usedHeap();
+        Object kept   = operation.call();
+        long   after  = usedHeap();
+        Reference.reachabilityFence(kept);
+        return after - before;
+    }
+
+    /**
+     * Returns the heap in use once garbage has been collected.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long    used    = Long.MAX_VALUE;
+        for(int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Prints the header of a result table.
+     */
+    static void header(String... columns) {
+        row(columns);
+        char[] rule = new char[52 + 14 * (columns.length - 1)];
+        Arrays.fill(rule, '-');
+        System.out.println(new String(rule));
+    }
+
+    /**
+     * Prints a row of a result table.
+     */
+    static void row(String... cells) {
+        StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-52s", cells[0]));
+        for(int i = 1; i < cells.length; ++i) {
+            row.append(String.format(Locale.ROOT, "%14s", cells[i]));
+        }
+        System.out.println(row);
+    }
+
+    /**
+     * Formats a measurement with a thousands separator and no decimals.
+     */
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%,.0f", value);
+    }
+
+    /**
+     * The XML handler as it was before [user-014], for comparison.
+     */
+    private static class BaselineHandler extends DefaultHandler {
+        private Element documentRoot;
+        private StringBuffer buffer = new StringBuffer();
+        private Stack<Element> stack = new Stack<Element>();
+
+        Element getDocumentRoot() {
+            return documentRoot;
+        }
+
+        public void characters(char ch[], int start, int length) {
+            buffer.append(ch, start, length);
+        }
+
+        public void startElement(String uri, String localName, String qName, Attributes attribs) {
+            Element e = new Element(localName);
+            for(int i = 0; i < attribs.getLength(); ++i) {
+                e.setAttribute(attribs.getQName(i), attribs.getValue(i));
+            }
+            stack.push(e);
+        }
+
+        public void endElement(String uri, String name, String qName) {
+            Element current = stack.pop();
+            if(0 < buffer.length()) {
+                current.setValue(buffer.toString().replace("\n","").trim());
+                buffer = new StringBuffer();
+            }
+            if(stack.size() > 0) {
+                stack.peek().addChild(current);
+            } else {
+                documentRoot = current;
+            }
+        }
+    }
+
+    /**
+     * A product as it was stored before [user-020], for comparison: every field in a HashMap, and
+     * numbers and booleans parsed on every call.
+     */
+    private static class MapProduct {
+        private final Map<String,Object> fields = new HashMap<String,Object>();
+
+        MapProduct(Element root) {
+            for(Element child : root.getChildren()) {
+                fields.put(child.getName(), child.hasChildren() ? child : child.getValue());
+            }
+        }
+
+        String getSku() {
+            return (String) fields.get("sku");
+        }
+
+        String getName() {
+            return (String) fields.get("name");
+        }
+
+        String getManufacturer() {
+            return (String) fields.get("manufacturer");
+        }
+
+        float getRegularPrice() {
+            return Float.valueOf((String) fields.get("regularPrice"));
+        }
+
+        int getCustomerReviewCount() {
+            return Integer.valueOf((String) fields.get("customerReviewCount"));
+        }
+
+        boolean isNew() {
+            return Boolean.valueOf((String) fields.get("new"));
+        }
+    }
+
+    /**
+     * A benchmark, printing its results.
+     */
+    private interface Benchmark {
+        void run() throws Exception;
+    }
+}
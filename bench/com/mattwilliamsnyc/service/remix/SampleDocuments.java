@@ -0,0 +1,341 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates pages of products resembling Remix API responses, in both XML and JSON, for the
+ * benchmarks.
+ * 
+ * Every product carries some 70 fields: unique identifiers, URLs and descriptions, numeric and
+ * boolean properties, a category path, features and offers. Fields such as "manufacturer",
+ * "department" or "class" are drawn from small sets, as they are in the catalog. The XML is indented
+ * like the API's, and the JSON document describes exactly the same page, so that both parse into
+ * the same entities. Documents are generated from a fixed seed, and are the same on every run.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+class SampleDocuments {
+    private static final String[] TYPES         = {"HardGood", "Music", "Movie", "Software", "Game"};
+    private static final String[] MANUFACTURERS = {
+        "Sony", "Samsung", "LG", "Panasonic", "Toshiba", "Insignia", "Dynex", "Canon", "Nikon", "Apple"
+    };
+    private static final String[] DEPARTMENTS   = {
+        "VIDEO/COMPACT DISC", "COMPUTERS", "APPLIANCES", "ENTERTAINMENT", "DIGITAL IMAGING", "MOBILE", "AUDIO"
+    };
+    private static final String[] CLASSES       = {
+        "LCD TV", "PLASMA TV", "BLU-RAY PLAYER", "NOTEBOOK", "DESKTOP", "DIGITAL CAMERA", "CAMCORDER",
+        "HEADPHONES", "SPEAKERS", "RECEIVER", "MONITOR", "PRINTER", "ROUTER", "TABLET", "REFRIGERATOR"
+    };
+    private static final String[] COLORS        = {"Black", "Silver", "White", "Red", "Blue", "Gray", "Piano Black"};
+    private static final String[] FORMATS       = {"Blu-ray", "DVD", "CD", "Digital", "Vinyl"};
+    private static final String[] AVAILABILITY  = {
+        "Usually leaves our warehouse in 1 business day", "Not available", "Available for in-store pickup"
+    };
+    private static final String[] IMAGES        = {
+        "accessoriesImage", "alternateViewsImage", "angleImage", "backViewImage", "energyGuideImage",
+        "image", "largeFrontImage", "largeImage", "leftViewImage", "mediumImage", "remoteControlImage",
+        "rightViewImage", "thumbnailImage", "topViewImage"
+    };
+    private static final String[] WORDS         = {
+        "high", "definition", "display", "with", "wireless", "connectivity", "and", "built-in", "streaming",
+        "apps", "for", "crisp", "detail", "vivid", "color", "energy", "efficient", "design", "the", "remote"
+    };
+
+    private SampleDocuments() {
+    }
+
+    /**
+     * Generates a page of products in XML.
+     * 
+     * @param  products Number of products on the page
+     * @return UTF-8 XML document
+     */
+    static byte[] productsXml(int products) {
+        StringBuilder xml = new StringBuilder(products * 4096);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<products currentPage=\"1\" totalPages=\"1\" from=\"1\" to=\"").append(products)
+            .append("\" total=\"").append(products).append("\" queryTime=\"0.006\" totalTime=\"0.011\"")
+            .append(" canonicalUrl=\"/v1/products?format=xml\">\n");
+        for(List<Field> product : generate(products)) {
+            xml.append("  <product>\n");
+            for(Field field : product) {
+                field.appendXml(xml, "    ");
+            }
+            xml.append("  </product>\n");
+        }
+        xml.append("</products>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the same page of products in JSON.
+     * 
+     * @param  products Number of products on the page
+     * @return UTF-8 JSON document
+     */
+    static byte[] productsJson(int products) {
+        StringBuilder json = new StringBuilder(products * 4096);
+        json.append("{\"from\":1,\"to\":").append(products).append(",\"total\":").append(products)
+            .append(",\"currentPage\":1,\"totalPages\":1,\"queryTime\":\"0.006\",\"totalTime\":\"0.011\"")
+            .append(",\"canonicalUrl\":\"/v1/products?format=json\",\"products\":[");
+        boolean first = true;
+        for(List<Field> product : generate(products)) {
+            json.append(first ? "{" : ",{");
+            first = false;
+            for(int i = 0; i < product.size(); ++i) {
+                if(0 < i) {
+                    json.append(',');
+                }
+                product.get(i).appendJson(json);
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the fields of a page of products.
+     * 
+     * @param  products Number of products
+     * @return Fields of each product
+     */
+    private static List<List<Field>> generate(int products) {
+        Random          random = new Random(20090101L);
+        List<List<Field>> page = new ArrayList<List<Field>>(products);
+        for(int p = 0; p < products; ++p) {
+            List<Field> f    = new ArrayList<Field>();
+            int         sku  = 1000000 + random.nextInt(9000000);
+            String      name = MANUFACTURERS[random.nextInt(MANUFACTURERS.length)] + " " + sentence(random, 4)
+                + " - " + COLORS[random.nextInt(COLORS.length)];
+            float       price = 10 + random.nextInt(2000) + 0.99f;
+            String      url   = "http://www.bestbuy.com/site/olspage.jsp?skuId=" + sku + "&type=product&id=" + (1200000000000L + sku);
+
+            f.add(Field.number("sku", String.valueOf(sku)));
+            f.add(Field.text("productId", String.valueOf(1200000000000L + sku)));
+            f.add(Field.text("name", name));
+            f.add(Field.text("type", pick(random, TYPES)));
+            f.add(Field.text("startDate", "2009-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10)));
+            f.add(Field.bool("new", random.nextBoolean()));
+            f.add(Field.bool("active", true));
+            f.add(Field.text("activeUpdateDate", "2009-10-2" + random.nextInt(10) + "T09:12:44"));
+            f.add(Field.number("regularPrice", String.format(Locale.ROOT, "%.2f", price)));
+            f.add(Field.number("salePrice", String.format(Locale.ROOT, "%.2f", price - random.nextInt(10))));
+            f.add(Field.number("dollarSavings", String.format(Locale.ROOT, "%.2f", (float) random.nextInt(10))));
+            f.add(Field.text("priceUpdateDate", "2009-10-1" + random.nextInt(10) + "T18:01:21"));
+            f.add(Field.bool("onSale", random.nextBoolean()));
+            f.add(Field.number("customerReviewCount", String.valueOf(random.nextInt(500))));
+            f.add(Field.number("customerReviewAverage", String.format(Locale.ROOT, "%.1f", 1 + 4 * random.nextFloat())));
+            f.add(Field.bool("freeShipping", random.nextBoolean()));
+            f.add(Field.bool("inStoreAvailability", random.nextBoolean()));
+            f.add(Field.text("inStoreAvailabilityText", pick(random, AVAILABILITY)));
+            f.add(Field.text("inStoreAvailabilityUpdateDate", "2009-10-19T09:00:00"));
+            f.add(Field.bool("onlineAvailability", random.nextBoolean()));
+            f.add(Field.text("onlineAvailabilityText", pick(random, AVAILABILITY)));
+            f.add(Field.text("onlineAvailabilityUpdateDate", "2009-10-19T09:00:00"));
+            f.add(Field.text("itemUpdateDate", "2009-10-20T04:35:10"));
+            f.add(Field.text("releaseDate", "2009-0" + (1 + random.nextInt(9)) + "-0" + (1 + random.nextInt(9))));
+            f.add(Field.text("orderable", "Available"));
+            f.add(Field.bool("specialOrder", false));
+            f.add(Field.bool("printOnly", false));
+            f.add(Field.number("shippingCost", String.format(Locale.ROOT, "%.2f", (float) random.nextInt(30))));
+            f.add(Field.text("shippingWeight", String.format(Locale.ROOT, "%.1f", 1 + 50 * random.nextFloat())));
+            f.add(Field.text("weight", String.format(Locale.ROOT, "%.1f", 1 + 40 * random.nextFloat()) + " pounds"));
+            f.add(Field.text("height", String.format(Locale.ROOT, "%.1f", 1 + 30 * random.nextFloat()) + " inches"));
+            f.add(Field.text("width", String.format(Locale.ROOT, "%.1f", 1 + 50 * random.nextFloat()) + " inches"));
+            f.add(Field.text("depth", String.format(Locale.ROOT, "%.1f", 1 + 20 * random.nextFloat()) + " inches"));
+            f.add(Field.text("manufacturer", pick(random, MANUFACTURERS)));
+            f.add(Field.text("modelNumber", "M" + Integer.toHexString(random.nextInt()).toUpperCase()));
+            f.add(Field.text("upc", String.valueOf(100000000000L + random.nextInt(Integer.MAX_VALUE))));
+            f.add(Field.text("format", pick(random, FORMATS)));
+            f.add(Field.text("color", pick(random, COLORS)));
+            int department = random.nextInt(DEPARTMENTS.length);
+            int productClass = random.nextInt(CLASSES.length);
+            f.add(Field.text("department", DEPARTMENTS[department]));
+            f.add(Field.number("departmentId", String.valueOf(1 + department)));
+            f.add(Field.text("class", CLASSES[productClass]));
+            f.add(Field.number("classId", String.valueOf(100 + productClass)));
+            f.add(Field.text("subclass", CLASSES[productClass] + " " + (1 + random.nextInt(3))));
+            f.add(Field.number("subclassId", String.valueOf(1000 + 3 * productClass + random.nextInt(3))));
+            f.add(Field.text("warrantyLabor", pick(random, new String[] {"90 days", "1 year", "2 years"})));
+            f.add(Field.text("warrantyParts", pick(random, new String[] {"90 days", "1 year", "2 years"})));
+            f.add(Field.text("url", url + "&cmp=RMX"));
+            f.add(Field.text("buyUrl", url + "&cmp=RMX&ky=buy"));
+            f.add(Field.text("mobileUrl", "http://m.bestbuy.com/m/e/product/detail.jsp?skuId=" + sku));
+            f.add(Field.text("addToCartUrl", "http://www.bestbuy.com/site/olspage.jsp?id=pcmcat152200050035&type=category&qvsids=" + sku));
+            f.add(Field.text("affiliateUrl", url + "&affiliate=RMX"));
+            f.add(Field.text("affiliateAddToCartUrl", "http://www.bestbuy.com/site/olspage.jsp?type=category&affiliate=RMX&qvsids=" + sku));
+            f.add(Field.text("cjAffiliateUrl", "http://www.jdoqocy.com/click-1-2?url=" + url.replace("&", "%26")));
+            for(String image : IMAGES) {
+                f.add(Field.text(image, "http://images.bestbuy.com/BestBuy_US/images/products/" + sku / 10000 + "/" + sku + "_" + image + ".jpg"));
+            }
+            f.add(Field.text("shortDescription", sentence(random, 12)));
+            f.add(Field.text("description", sentence(random, 24)));
+            f.add(Field.text("longDescription", sentence(random, 40) + "\n" + sentence(random, 40)));
+
+            List<Field> categories = new ArrayList<Field>();
+            String[] path = {"Best Buy", DEPARTMENTS[department], CLASSES[productClass]};
+            for(int c = 0; c < path.length; ++c) {
+                List<Field> category = new ArrayList<Field>();
+                category.add(Field.text("id", "cat" + String.format(Locale.ROOT, "%05d", c * 1000 + (c == 1 ? department : productClass))));
+                category.add(Field.text("name", path[c]));
+                categories.add(Field.object("category", category));
+            }
+            f.add(Field.array("categoryPath", categories));
+
+            List<Field> features = new ArrayList<Field>();
+            for(int i = 0, n = 3 + random.nextInt(5); i < n; ++i) {
+                features.add(Field.text("feature", sentence(random, 10)));
+            }
+            f.add(Field.array("features", features));
+
+            List<Field> offers = new ArrayList<Field>();
+            if(random.nextBoolean()) {
+                List<Field> offer = new ArrayList<Field>();
+                offer.add(Field.text("startDate", "2009-10-18"));
+                offer.add(Field.text("endDate", "2009-10-24"));
+                offer.add(Field.text("id", "pcmprm" + random.nextInt(1000000)));
+                offer.add(Field.text("text", "Free shipping on this item"));
+                offer.add(Field.text("type", "deal_of_the_day"));
+                offers.add(Field.object("offer", offer));
+            }
+            f.add(Field.array("offers", offers));
+            page.add(f);
+        }
+        return page;
+    }
+
+    /**
+     * Picks one of a set of values.
+     */
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Strings random words together.
+     */
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for(int i = 0; i < words; ++i) {
+            if(0 < i) {
+                sentence.append(' ');
+            }
+            sentence.append(pick(random, WORDS));
+        }
+        return sentence.toString();
+    }
+
+    /**
+     * Named field of a generated product: a string, a literal (number or boolean), an object or an
+     * array of objects.
+     */
+    private static class Field {
+        final String      name;
+        final String      value;
+        final boolean     literal;
+        final List<Field> children;
+        final boolean     array;
+
+        private Field(String name, String value, boolean literal, List<Field> children, boolean array) {
+            this.name     = name;
+            this.value    = value;
+            this.literal  = literal;
+            this.children = children;
+            this.array    = array;
+        }
+
+        static Field text(String name, String value) {
+            return new Field(name, value, false, null, false);
+        }
+
+        static Field number(String name, String value) {
+            return new Field(name, value, true, null, false);
+        }
+
+        static Field bool(String name, boolean value) {
+            return new Field(name, String.valueOf(value), true, null, false);
+        }
+
+        static Field object(String name, List<Field> children) {
+            return new Field(name, null, false, children, false);
+        }
+
+        static Field array(String name, List<Field> items) {
+            return new Field(name, null, false, items, true);
+        }
+
+        void appendXml(StringBuilder xml, String indent) {
+            xml.append(indent).append('<').append(name).append('>');
+            if(null == children) {
+                xml.append(value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+            } else {
+                xml.append('\n');
+                for(Field child : children) {
+                    child.appendXml(xml, indent + "  ");
+                }
+                xml.append(indent);
+            }
+            xml.append("</").append(name).append(">\n");
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append('"').append(name).append("\":");
+            appendJsonValue(json);
+        }
+
+        /**
+         * Appends the value alone; array items that hold a single value are written as objects
+         * wrapping it, as the API writes features.
+         */
+        private void appendJsonValue(StringBuilder json) {
+            if(array) {
+                json.append('[');
+                for(int i = 0; i < children.size(); ++i) {
+                    if(0 < i) {
+                        json.append(',');
+                    }
+                    Field item = children.get(i);
+                    if(null == item.children) {
+                        json.append('{');
+                        item.appendJson(json);
+                        json.append('}');
+                    } else {
+                        item.appendJsonValue(json);
+                    }
+                }
+                json.append(']');
+            } else if(null != children) {
+                json.append('{');
+                for(int i = 0; i < children.size(); ++i) {
+                    if(0 < i) {
+                        json.append(',');
+                    }
+                    children.get(i).appendJson(json);
+                }
+                json.append('}');
+            } else if(literal) {
+                json.append(value);
+            } else {
+                json.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+/**
+ * Point-in-time snapshot of {@link ResponseCache} statistics.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long rejectionCount;
+    private final long loadCount;
+    private final long totalLoadTime;
+    private final long revalidationCount;
+    private final long refreshCount;
+    private final int  entryCount;
+    private final long estimatedBytes;
+
+    CacheStats(
+            long hitCount, long missCount, long evictionCount, long rejectionCount, long loadCount,
+            long totalLoadTime, long revalidationCount, long refreshCount, int entryCount, long estimatedBytes
+    ) {
+        this.hitCount          = hitCount;
+        this.missCount         = missCount;
+        this.evictionCount     = evictionCount;
+        this.rejectionCount    = rejectionCount;
+        this.loadCount         = loadCount;
+        this.totalLoadTime     = totalLoadTime;
+        this.revalidationCount = revalidationCount;
+        this.refreshCount      = refreshCount;
+        this.entryCount        = entryCount;
+        this.estimatedBytes    = estimatedBytes;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     * 
+     * @return Number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that had to go to the API.
+     * 
+     * @return Number of cache misses
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     * 
+     * @return Hit ratio between 0 and 1; 1 if no lookups were made
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return 0 == requests ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the size bound.
+     * 
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of loaded responses refused admission because they were requested less often
+     * than the entries they would have evicted.
+     * 
+     * @return Number of rejected responses
+     */
+    public long getRejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * Returns the number of responses loaded from the API into the cache.
+     * 
+     * @return Number of loads
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Returns the total time spent loading responses, in nanoseconds.
+     * 
+     * @return Total load time in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Returns the average time spent loading a response, in nanoseconds.
+     * 
+     * @return Average load time in nanoseconds; 0 if nothing was loaded
+     */
+    public double getAverageLoadPenalty() {
+        return 0 == loadCount ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    /**
+     * Returns the number of expired entries renewed by a "304 Not Modified" response.
+     * 
+     * @return Number of revalidations
+     */
+    public long getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    /**
+     * Returns the number of background refreshes started (stale-while-revalidate and refresh-ahead).
+     * 
+     * @return Number of background refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    /**
+     * Returns the number of entries held by the cache.
+     * 
+     * @return Number of cached entries
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the estimated heap retained by cached responses, in bytes.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public String toString() {
+        return "CacheStats[hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+             + ", rejections=" + rejectionCount + ", loads=" + loadCount + ", totalLoadTime=" + totalLoadTime + "ns, revalidations=" + revalidationCount
+             + ", refreshes=" + refreshCount + ", entries=" + entryCount
+             + ", estimatedBytes=" + estimatedBytes + "]";
+    }
+}
@@ -19,13 +19,18 @@ package com.mattwilliamsnyc.service.remix;
  * @version $Id$
  */
 public class Category extends Entity {
+    /**
+     * Fields of a category stored in slots
+     */
+    private static final FieldIndex FIELDS = new FieldIndex("id", "name");
+
     /**
      * Creates a new Category entity from a document representation.
      * 
      * @param element Root element of a Category representation
      */
     public Category(Element element) {
-        super(element);
+        super(element, FIELDS);
     }
 
     /**
@@ -12,8 +12,11 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Response to a Remix API call to a "collection" resource.
@@ -41,6 +44,48 @@ abstract class CollectionResponse extends Response {
         super(connection);
     }
 
+    /**
+     * Creates a new CollectionResponse from a status code, response headers and a response body stream.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @throws RemixException Error parsing HTTP response
+     */
+    public CollectionResponse(int responseCode, Map<String,List<String>> httpHeaders, InputStream body) throws RemixException {
+        super(responseCode, httpHeaders, body);
+    }
+
+    /**
+     * Creates a new CollectionResponse, parsing the response document into a given model.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @param  model        In-memory representation of the response document
+     * @throws RemixException Error parsing HTTP response
+     */
+    protected CollectionResponse(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, DocumentModel model
+    ) throws RemixException {
+        super(responseCode, httpHeaders, body, model);
+    }
+
+    /**
+     * Creates a new CollectionResponse, streaming the entities of the response document to a consumer.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @param  entities     Receives each entity element as soon as it has been read
+     * @throws RemixException Error parsing HTTP response
+     */
+    protected CollectionResponse(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, Consumer<Element> entities
+    ) throws RemixException {
+        super(responseCode, httpHeaders, body, entities);
+    }
+
     /**
      * Results page represented by the response document.
      * 
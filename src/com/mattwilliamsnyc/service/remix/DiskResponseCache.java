@@ -0,0 +1,540 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.mattwilliamsnyc.service.remix.util.ByteBufferInputStream;
+
+/**
+ * Persistent cache of raw API response bodies, stored one file per request URL.
+ * 
+ * Entries survive restarts, so a freshly started client can answer requests without going to the
+ * API. Entries are read through memory-mapped files and parsed into a new {@link Response} on
+ * demand. Bodies are stored exactly as received (including any compression), along with the
+ * headers needed to decode and revalidate them: an expired entry that carried an ETag or
+ * Last-Modified validator is revalidated with a conditional request, and a "304 Not Modified"
+ * answer renews it without downloading the body again.
+ * 
+ * With offline fallback enabled, expired entries are served when the API cannot be reached or
+ * answers with a server error.
+ * 
+ * The total size of the entry files is bounded (64 MiB by default): once a write takes it over the
+ * bound, the least recently written or renewed entries are deleted until it is back under 90% of the
+ * bound. Entries record their request URL without the API key.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class DiskResponseCache {
+    /**
+     * Identifies (and versions) the entry file format
+     */
+    private static final int MAGIC = 0x524D5801;
+
+    /**
+     * Offset of the time at which an entry was stored, following the magic number
+     */
+    private static final int STORED_AT_OFFSET = 4;
+
+    /**
+     * Suffix of entry files
+     */
+    private static final String SUFFIX = ".rmx";
+
+    /**
+     * Response headers persisted with each body
+     */
+    private static final String[] STORED_HEADERS = {
+        "Content-Encoding", "Content-Type", "ETag", "Last-Modified"
+    };
+
+    /**
+     * Default bound on the total size of the entry files, in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /**
+     * Matches the API key parameter of a request URL, which is never written to disk
+     */
+    private static final Pattern API_KEY = Pattern.compile("(?<=[?&])apiKey=[^&#]*(&|$)");
+
+    /**
+     * Matches a query string separator left dangling once the API key has been removed
+     */
+    private static final Pattern DANGLING_SEPARATOR = Pattern.compile("[?&]$");
+
+    /**
+     * Directory holding entry files
+     */
+    private final Path directory;
+
+    /**
+     * Time (in milliseconds) after which an entry is no longer fresh
+     */
+    private final long maxAge;
+
+    /**
+     * Whether expired entries are served when the API is unavailable
+     */
+    private volatile boolean offlineFallback;
+
+    /**
+     * Bound on the total size of the entry files, in bytes
+     */
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * Total size of the entry files, kept up to date by writes; -1 until the directory is first measured
+     */
+    private final AtomicLong totalBytes = new AtomicLong(-1);
+
+    private final AtomicLong hitCount      = new AtomicLong();
+    private final AtomicLong missCount     = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a disk cache in a directory, creating the directory if needed.
+     * 
+     * @param  directory Directory holding entry files
+     * @param  maxAge    Time after which an entry is no longer fresh
+     * @param  unit      Unit of the maximum age
+     * @throws RemixException Thrown if the directory cannot be created
+     */
+    public DiskResponseCache(Path directory, long maxAge, TimeUnit unit) throws RemixException {
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RemixException("Unable to create cache directory " + directory, e);
+        }
+        this.maxAge = unit.toMillis(maxAge);
+    }
+
+    /**
+     * Enables or disables serving expired entries when the API is unavailable.
+     * 
+     * @param  offlineFallback Whether to serve expired entries when the API is unavailable
+     * @return Provides a fluent interface.
+     */
+    public DiskResponseCache setOfflineFallback(boolean offlineFallback) {
+        this.offlineFallback = offlineFallback;
+        return this;
+    }
+
+    /**
+     * Bounds the total size of the entry files; the oldest entries are deleted once it is exceeded.
+     * 
+     * @param  maxBytes Maximum total size of the entry files, in bytes
+     * @return Provides a fluent interface.
+     */
+    public DiskResponseCache setMaxBytes(long maxBytes) {
+        if(0 >= maxBytes) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Indicates whether expired entries are served when the API is unavailable.
+     * 
+     * @return Whether offline fallback is enabled
+     */
+    public boolean isOfflineFallback() {
+        return offlineFallback;
+    }
+
+    /**
+     * Returns the number of requests answered with a fresh entry.
+     * 
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of requests for which no fresh entry was found.
+     * 
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an expired entry because the API was unavailable.
+     * 
+     * @return Number of offline fallbacks
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * Returns the number of entries deleted to stay within the size bound.
+     * 
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Deletes the entry for a request URL.
+     * 
+     * @param  key Normalized request URL
+     * @throws RemixException Thrown if the entry file cannot be deleted
+     */
+    public void invalidate(String key) throws RemixException {
+        try {
+            Files.deleteIfExists(pathFor(key));
+        } catch (IOException e) {
+            throw new RemixException("Unable to delete cache entry for " + key, e);
+        }
+    }
+
+    /**
+     * Reads the entry for a request URL, counting a hit if it is fresh and a miss otherwise.
+     * 
+     * Unreadable or corrupt entries are treated as absent.
+     * 
+     * @param  key Normalized request URL
+     * @return Stored entry, fresh or expired; null if there is none
+     */
+    Entry read(String key) {
+        Entry entry;
+        try (FileChannel channel = FileChannel.open(pathFor(key), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            entry = decode(key, buffer);
+        } catch (NoSuchFileException e) {
+            entry = null;
+        } catch (IOException e) {
+            entry = null;
+        } catch (RuntimeException e) {
+            // Truncated or foreign file
+            entry = null;
+        }
+        if(null != entry && entry.isFresh()) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Renews an entry confirmed unchanged by the API, restarting its maximum age.
+     * 
+     * The entry's timestamp is rewritten in place; failures are ignored, leaving the entry expired.
+     * 
+     * @param key   Normalized request URL
+     * @param entry Revalidated entry
+     */
+    void renew(String key, Entry entry) {
+        long now = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(pathFor(key), StandardOpenOption.WRITE)) {
+            ByteBuffer storedAt = ByteBuffer.allocate(8).putLong(0, now);
+            while(storedAt.hasRemaining()) {
+                channel.write(storedAt, STORED_AT_OFFSET + storedAt.position());
+            }
+            entry.storedAt = now;
+        } catch (IOException e) {
+            // Revalidated again next time
+        }
+    }
+
+    /**
+     * Records that an expired entry was served because the API was unavailable.
+     */
+    void recordFallback() {
+        fallbackCount.incrementAndGet();
+    }
+
+    /**
+     * Stores a raw response body, replacing any existing entry for its URL.
+     * 
+     * The entry is written to a temporary file and then moved into place, so readers never see a
+     * partially written entry. Failures are ignored; the cache is simply not updated. Entries larger
+     * than the size bound are not stored.
+     * 
+     * @param key        Normalized request URL
+     * @param statusCode HTTP status code of the response
+     * @param headers    Response headers
+     * @param body       Raw response body
+     */
+    void write(String key, int statusCode, Map<String,List<String>> headers, byte[] body) {
+        Map<String,String> stored = new LinkedHashMap<String,String>();
+        for(String name : STORED_HEADERS) {
+            List<String> values = headers.get(name);
+            if(null != values && !values.isEmpty() && null != values.get(0)) {
+                stored.put(name, values.get(0));
+            }
+        }
+
+        byte[] keyBytes = withoutApiKey(key).getBytes(StandardCharsets.UTF_8);
+        int    length   = 4 + 8 + 4 + 4 + keyBytes.length + 4 + 4 + body.length;
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        for(Map.Entry<String,String> header : stored.entrySet()) {
+            byte[] name  = header.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = header.getValue().getBytes(StandardCharsets.UTF_8);
+            encoded.add(name);
+            encoded.add(value);
+            length += 8 + name.length + value.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putLong(System.currentTimeMillis()).putInt(statusCode);
+        buffer.putInt(keyBytes.length).put(keyBytes);
+        buffer.putInt(stored.size());
+        for(byte[] field : encoded) {
+            buffer.putInt(field.length).put(field);
+        }
+        buffer.putInt(body.length).put(body);
+        buffer.flip();
+        if(length > maxBytes) {
+            return;
+        }
+
+        Path target = pathFor(key);
+        Path temp   = null;
+        try {
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            long replaced = Files.exists(target) ? Files.size(target) : 0;
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if(0 > totalBytes.get() || maxBytes < totalBytes.addAndGet(length - replaced)) {
+                prune();
+            }
+        } catch (IOException e) {
+            try {
+                if(null != temp) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Left for the next write to the directory to overwrite
+            }
+        }
+    }
+
+    /**
+     * Measures the entry files and, if they exceed the size bound, deletes the least recently written
+     * (or renewed) ones until they fill no more than 90% of it.
+     * 
+     * @throws IOException Thrown if the directory cannot be listed
+     */
+    private synchronized void prune() throws IOException {
+        List<Path>                          files      = new ArrayList<Path>();
+        final Map<Path,BasicFileAttributes> attributes = new LinkedHashMap<Path,BasicFileAttributes>();
+        long                                total      = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for(Path file : entries) {
+                try {
+                    BasicFileAttributes attribute = Files.readAttributes(file, BasicFileAttributes.class);
+                    attributes.put(file, attribute);
+                    files.add(file);
+                    total += attribute.size();
+                } catch (NoSuchFileException e) {
+                    // Deleted concurrently
+                }
+            }
+        }
+        long limit = maxBytes;
+        if(total > limit) {
+            files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+            long target = limit - limit / 10;
+            for(int i = 0; i < files.size() && total > target; ++i) {
+                Path file = files.get(i);
+                if(Files.deleteIfExists(file)) {
+                    total -= attributes.get(file).size();
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+        totalBytes.set(total);
+    }
+
+    /**
+     * Removes the API key from a request URL before it is written to disk.
+     * 
+     * @param  key Normalized request URL
+     * @return Request URL without its "apiKey" parameter
+     */
+    private static String withoutApiKey(String key) {
+        return DANGLING_SEPARATOR.matcher(API_KEY.matcher(key).replaceAll("")).replaceAll("");
+    }
+
+    /**
+     * Decodes an entry from its mapped file.
+     * 
+     * @param  key    Normalized request URL the entry is expected to hold (with its API key)
+     * @param  buffer Mapped entry file
+     * @return Decoded entry; null if the file holds another URL (hash collision) or another format
+     */
+    private Entry decode(String key, ByteBuffer buffer) {
+        if(MAGIC != buffer.getInt()) {
+            return null;
+        }
+        long   storedAt   = buffer.getLong();
+        int    statusCode = buffer.getInt();
+        String storedKey  = readString(buffer);
+        if(!withoutApiKey(key).equals(storedKey)) {
+            return null;
+        }
+        Map<String,List<String>> headers = new LinkedHashMap<String,List<String>>();
+        for(int count = buffer.getInt(); 0 < count; --count) {
+            String name = readString(buffer);
+            headers.put(name, Collections.singletonList(readString(buffer)));
+        }
+        int        length = buffer.getInt();
+        ByteBuffer body   = buffer.slice();
+        body.limit(length);
+        return new Entry(storedAt, statusCode, headers, body);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     * 
+     * @param  buffer Buffer positioned at the string
+     * @return Decoded string
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the entry file for a request URL.
+     * 
+     * @param  key Normalized request URL
+     * @return Path of the entry file
+     */
+    private Path pathFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for(byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required of every Java platform", e);
+        }
+    }
+
+    /**
+     * Response body and metadata read from disk.
+     */
+    class Entry {
+        /**
+         * Time (in milliseconds since the epoch) at which the entry was written or last renewed
+         */
+        private volatile long storedAt;
+
+        /**
+         * HTTP status code of the stored response
+         */
+        private final int statusCode;
+
+        /**
+         * Stored response headers
+         */
+        private final Map<String,List<String>> headers;
+
+        /**
+         * Mapped response body
+         */
+        private final ByteBuffer body;
+
+        Entry(long storedAt, int statusCode, Map<String,List<String>> headers, ByteBuffer body) {
+            this.storedAt   = storedAt;
+            this.statusCode = statusCode;
+            this.headers    = headers;
+            this.body       = body;
+        }
+
+        /**
+         * Indicates whether the entry is younger than the cache's maximum age.
+         */
+        boolean isFresh() {
+            return System.currentTimeMillis() - storedAt < maxAge;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        Map<String,List<String>> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Indicates whether the entry carried a validator with which it can be revalidated.
+         */
+        boolean isRevalidatable() {
+            return headers.containsKey("ETag") || headers.containsKey("Last-Modified");
+        }
+
+        /**
+         * Adds this entry's validators to a request.
+         * 
+         * @param  request Request for the stored resource
+         * @return Conditional request
+         */
+        TransportRequest conditional(TransportRequest request) {
+            if(headers.containsKey("ETag")) {
+                request = request.withHeader("If-None-Match", headers.get("ETag").get(0));
+            }
+            if(headers.containsKey("Last-Modified")) {
+                request = request.withHeader("If-Modified-Since", headers.get("Last-Modified").get(0));
+            }
+            return request;
+        }
+
+        /**
+         * Opens a new stream over the stored body.
+         */
+        InputStream openBody() {
+            return new ByteBufferInputStream(body.duplicate());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+/**
+ * In-memory representation into which response documents are parsed.
+ * 
+ * Every model is read through the same {@link Element} API, so entities behave identically; the
+ * models differ in parsing cost and in the heap a response retains.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public enum DocumentModel {
+    /**
+     * One {@link Element} object per element, built up front (the default)
+     */
+    TREE,
+
+    /**
+     * Parallel primitive arrays and a shared character buffer (see
+     * {@link com.mattwilliamsnyc.service.remix.util.CompactDocument}); values are turned into
+     * strings when read. Retains a fraction of the heap of {@link #TREE} for large responses.
+     */
+    COMPACT,
+
+    /**
+     * Raw document bytes plus a structural index (see
+     * {@link com.mattwilliamsnyc.service.remix.util.XMLIndex}); names, values and attributes are
+     * decoded on first access. Cheapest when only a few fields of wide entities are read.
+     */
+    LAZY
+}
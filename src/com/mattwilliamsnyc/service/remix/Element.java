@@ -126,6 +126,43 @@ public class Element {
         return value;
     }
 
+    /**
+     * Estimates the heap retained by this element and its descendants, in bytes.
+     * 
+     * The estimate assumes a 64-bit JVM with compressed references and compact (Latin-1) strings.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    public long estimateSize() {
+        long size = 32 + estimateSize(name);
+        if(value instanceof String) {
+            size += estimateSize((String) value);
+        }
+        if(null != attributes) {
+            size += 64 + 16 * attributes.size();
+            for(Map.Entry<String,String> attribute : attributes.entrySet()) {
+                size += 32 + estimateSize(attribute.getKey()) + estimateSize(attribute.getValue());
+            }
+        }
+        if(null != children) {
+            size += 40 + 4 * children.size();
+            for(Element child : children) {
+                size += child.estimateSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap retained by a string, in bytes.
+     * 
+     * @param  s String to be measured; may be null
+     * @return Estimated retained size in bytes
+     */
+    private static long estimateSize(String s) {
+        return null == s ? 0 : 40 + ((s.length() + 7) & ~7);
+    }
+
     /**
      * Indicates whether this element has any children.
      * 
@@ -15,23 +15,54 @@ package com.mattwilliamsnyc.service.remix;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.mattwilliamsnyc.service.remix.util.IndexedElement;
+
 /**
  * Generic entity consisting of uniquely named data fields.
  * 
+ * Fields named by the entity type's {@link FieldIndex} are stored in an array of slots; any other
+ * field is kept in a small overflow map, created when the first such field is set.
+ * 
  * @author  Matt Williams <matt@mattwilliamsnyc.com>
  * @version $Id$
  */
 public class Entity {
     /**
-     * Entity fields mapped as key/value pairs
+     * Fields not known to this entity's {@link FieldIndex}, mapped as key/value pairs; null if the
+     * entity has no such field
+     */
+    protected final Map<String, Object> fields;
+
+    /**
+     * Fields known to this entity type
+     */
+    private final FieldIndex schema;
+
+    /**
+     * Values of known fields, by slot; null if the entity has no known field
      */
-    protected Map<String, Object> fields;
+    private final Object[] values;
+
+    /**
+     * Indexed document element from which fields are decoded on access; null for entities built
+     * from a parsed document tree
+     */
+    private final IndexedElement indexed;
 
     /**
      * Creates a new entity.
      */
     public Entity() {
-        fields = new HashMap<String, Object>();
+        this(FieldIndex.EMPTY);
+    }
+
+    /**
+     * Creates a new entity storing the fields of a given index in slots.
+     * 
+     * @param schema Fields known to this entity type
+     */
+    protected Entity(FieldIndex schema) {
+        this((Element) null, schema);
     }
 
     /**
@@ -40,19 +71,54 @@ public class Entity {
      * Child elements must be uniquely named; duplicate elements should be wrapped in a 
      * uniquely named grouping element.
      * 
+     * Fields of an {@link IndexedElement} are not copied; each is decoded when it is first read.
+     * 
      * @param root Root element of the document tree containing entity fields
      */
     public Entity(Element root) {
-        this();
+        this(root, FieldIndex.EMPTY);
+    }
+
+    /**
+     * Creates a new entity from a document tree, storing the fields of a given index in slots.
+     * 
+     * Entities are not modified once created, and may therefore be shared read-only across threads.
+     * 
+     * @param root   Root element of the document tree containing entity fields
+     * @param schema Fields known to this entity type
+     * @see   #Entity(Element)
+     */
+    protected Entity(Element root, FieldIndex schema) {
+        this.schema = schema;
+        if(root instanceof IndexedElement) {
+            this.fields  = null;
+            this.values  = null;
+            this.indexed = (IndexedElement) root;
+            return;
+        }
+
+        Map<String, Object> fields = null;
+        Object[]            values = null;
         if(null != root && root.hasChildren()) {
             for(Element child : root.getChildren()) {
-                if(child.hasChildren()) {
-                    setField(child.getName(), child);
+                Object value = child.hasChildren() ? child : child.getValue();
+                int    slot  = schema.slot(child.getName());
+                if(0 <= slot) {
+                    if(null == values) {
+                        values = new Object[schema.size()];
+                    }
+                    values[slot] = value;
                 } else {
-                    setField(child.getName(), child.getValue());
+                    if(null == fields) {
+                        fields = new HashMap<String, Object>();
+                    }
+                    fields.put(child.getName(), value);
                 }
             }
         }
+        this.fields  = fields;
+        this.values  = values;
+        this.indexed = null;
     }
 
     /**
@@ -62,18 +128,26 @@ public class Entity {
      * @return Value of the requested entity field
      */
     public Object getField(String key) {
-        return fields.get(key);
+        int slot = schema.slot(key);
+        if(0 <= slot) {
+            return getField(slot);
+        }
+        if(null != indexed) {
+            return indexed.getField(key);
+        }
+        return null == fields ? null : fields.get(key);
     }
 
     /**
-     * Assigns a new field value to this Entity.
+     * Returns a known field by slot.
      * 
-     * @param  key   Field name identifier
-     * @param  value Data assigned to this field
-     * @return Provides a fluent interface.
+     * @param  slot Slot of the field in this entity's {@link FieldIndex}
+     * @return Value of the requested entity field
      */
-    protected Entity setField(String key, Object value) {
-        fields.put(key, value);
-        return this;
+    protected Object getField(int slot) {
+        if(null != indexed) {
+            return indexed.getField(schema.name(slot));
+        }
+        return null == values ? null : values[slot];
     }
 }
@@ -22,10 +22,15 @@ import java.util.List;
  * @version $Id$
  */
 public class ErrorDocument extends Entity {
+    /**
+     * Fields of an error document stored in slots
+     */
+    private static final FieldIndex FIELDS = new FieldIndex("status", "message", "examples");
+
     /**
      * HTTP status code associated with this error
      */
-    private int statusCode;
+    private final int statusCode;
 
     /**
      * Creates a new error document with a specified status code and document tree.
@@ -34,7 +39,8 @@ public class ErrorDocument extends Entity {
      * @param element    Document tree containing error data
      */
     public ErrorDocument(int statusCode, Element element) {
-        super(element);
+        super(element, FIELDS);
+        this.statusCode = statusCode;
     }
 
     /**
@@ -0,0 +1,127 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.util.Arrays;
+
+import com.mattwilliamsnyc.service.remix.util.ElementNames;
+
+/**
+ * Fixed set of field names known to an {@link Entity} type, each mapped to a slot number.
+ * 
+ * Entities store known fields in an array indexed by slot, rather than in a map; a field is found
+ * with a single probe of a small open-addressing table. Names are held as their canonical
+ * {@link ElementNames schema} instances, so that names read from a document, and the string
+ * literals used by getters, usually match by identity.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class FieldIndex {
+    /**
+     * Index of an entity type without known fields
+     */
+    public static final FieldIndex EMPTY = new FieldIndex();
+
+    /**
+     * Field names, by slot
+     */
+    private final String[] names;
+
+    /**
+     * Hash table of field names
+     */
+    private final String[] table;
+
+    /**
+     * Hash code of each name in {@link #table}, compared before the names themselves
+     */
+    private final int[] hashes;
+
+    /**
+     * Slot of each name in {@link #table}
+     */
+    private final int[] slots;
+
+    /**
+     * Hash table size minus one
+     */
+    private final int mask;
+
+    /**
+     * Creates an index assigning slots to field names in the given order.
+     * 
+     * @param names Field names; duplicates are ignored
+     */
+    public FieldIndex(String... names) {
+        int capacity = 4;
+        while(capacity < names.length * 4) {
+            capacity <<= 1;
+        }
+        this.table  = new String[capacity];
+        this.hashes = new int[capacity];
+        this.slots  = new int[capacity];
+        this.mask   = capacity - 1;
+        String[] slotted = new String[names.length];
+        int      count   = 0;
+        for(String name : names) {
+            name = ElementNames.canonical(name);
+            if(0 > slot(name)) {
+                int i = name.hashCode() & mask;
+                while(null != table[i]) {
+                    i = (i + 1) & mask;
+                }
+                table[i]  = name;
+                hashes[i] = name.hashCode();
+                slots[i]  = count;
+                slotted[count++] = name;
+            }
+        }
+        this.names = Arrays.copyOf(slotted, count);
+    }
+
+    /**
+     * Returns the slot of a field.
+     * 
+     * @param  name Field name
+     * @return Slot number; -1 if the field is not known to this index
+     */
+    public int slot(String name) {
+        int hash = name.hashCode();
+        for(int i = hash & mask; null != table[i]; i = (i + 1) & mask) {
+            if(hash == hashes[i] && (table[i] == name || table[i].equals(name))) {
+                return slots[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the field held in a slot.
+     * 
+     * @param  slot Slot number
+     * @return Field name
+     */
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Returns the number of slots.
+     * 
+     * @return Number of known fields
+     */
+    public int size() {
+        return names.length;
+    }
+}
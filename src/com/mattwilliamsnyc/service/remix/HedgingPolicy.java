@@ -0,0 +1,421 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import com.mattwilliamsnyc.service.remix.ResponseCache.Endpoint;
+
+/**
+ * Sends a second, identical call when an API call is slower than usual, keeping whichever answers
+ * first.
+ * 
+ * The latency of recent calls is tracked per {@link Endpoint}. A call still unanswered after a
+ * configured percentile of that latency (e.g. the 95th) is hedged: the same request is sent again,
+ * the first response to arrive is used, and the other call is cancelled. Hedging starts once enough
+ * calls have been observed to estimate the percentile.
+ * 
+ * Hedges cost API quota, so their number is capped globally: each call earns a fraction of a hedge
+ * (5% by default), and a slow call is not hedged when no hedge is left. Hedges also take a token from
+ * the client's {@link RateLimiter}, if any, without waiting for one.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class HedgingPolicy {
+    /**
+     * Number of recent latencies kept per endpoint
+     */
+    private static final int WINDOW = 512;
+
+    /**
+     * Number of latencies observed before an endpoint's calls are hedged
+     */
+    private static final int MIN_SAMPLES = 32;
+
+    /**
+     * Number of latencies observed between two estimates of the percentile
+     */
+    private static final int UPDATE_INTERVAL = 32;
+
+    /**
+     * Maximum number of unused hedges accumulated
+     */
+    private static final double MAX_BUDGET = 10;
+
+    /**
+     * Latency percentile (between 0 and 1) after which a call is hedged
+     */
+    private final double percentile;
+
+    /**
+     * Recent latencies, per endpoint
+     */
+    private final Map<Endpoint,Latencies> latencies = new EnumMap<Endpoint,Latencies>(Endpoint.class);
+
+    /**
+     * Minimum delay (in nanoseconds) before a call is hedged
+     */
+    private volatile long minDelay;
+
+    /**
+     * Fraction of a hedge earned by each call
+     */
+    private double hedgeRatio = 0.05;
+
+    /**
+     * Hedges currently available
+     */
+    private double budget = 1;
+
+    private final AtomicLong callCount       = new AtomicLong();
+    private final AtomicLong hedgeCount      = new AtomicLong();
+    private final AtomicLong hedgeWinCount   = new AtomicLong();
+    private final AtomicLong overBudgetCount = new AtomicLong();
+
+    /**
+     * Creates a policy hedging calls slower than a percentile of recent calls.
+     * 
+     * @param percentile Latency percentile (between 0 and 1, e.g. 0.95) after which a call is hedged
+     */
+    public HedgingPolicy(double percentile) {
+        if(!(0 < percentile && 1 > percentile)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        }
+        this.percentile = percentile;
+        for(Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new Latencies());
+        }
+    }
+
+    /**
+     * Caps the number of hedges at a fraction of the calls made.
+     * 
+     * @param  ratio Maximum number of hedges per call (e.g. 0.05 for at most one hedge every 20 calls)
+     * @return Provides a fluent interface.
+     */
+    public synchronized HedgingPolicy setMaxHedgeRatio(double ratio) {
+        if(0 > ratio) {
+            throw new IllegalArgumentException("Hedge ratio must not be negative");
+        }
+        this.hedgeRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the minimum delay before a call is hedged, however fast recent calls were.
+     * 
+     * @param  minDelay Minimum delay before a call is hedged
+     * @param  unit     Unit of the delay
+     * @return Provides a fluent interface.
+     */
+    public HedgingPolicy setMinDelay(long minDelay, TimeUnit unit) {
+        this.minDelay = unit.toNanos(minDelay);
+        return this;
+    }
+
+    /**
+     * Returns the delay after which a call to an endpoint is currently hedged.
+     * 
+     * @param  endpoint Endpoint
+     * @return Delay in nanoseconds; negative if too few calls have been observed to hedge
+     */
+    public long getDelay(Endpoint endpoint) {
+        long threshold = latencies.get(endpoint).threshold;
+        return 0 > threshold ? threshold : Math.max(minDelay, threshold);
+    }
+
+    /**
+     * Returns the number of calls made through this policy (hedges excluded).
+     * 
+     * @return Number of calls
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * Returns the number of hedges sent.
+     * 
+     * @return Number of hedges
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedges that answered before the call they hedged.
+     * 
+     * @return Number of winning hedges
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Returns the number of slow calls not hedged because the hedge budget (or the rate limiter) had
+     * no hedge left.
+     * 
+     * @return Number of hedges refused
+     */
+    public long getOverBudgetCount() {
+        return overBudgetCount.get();
+    }
+
+    /**
+     * Executes a request, hedging it if it is slow.
+     * 
+     * @param  transport Transport carrying the request
+     * @param  request   Request to be executed
+     * @param  endpoint  Endpoint the request is addressed to
+     * @param  permit    Takes a rate limiter token for a hedge without waiting; false if none is available
+     * @param  executor  Executor sending hedges
+     * @return Future first response
+     */
+    CompletableFuture<TransportResponse> execute(
+            final Transport transport, final TransportRequest request, final Endpoint endpoint,
+            final BooleanSupplier permit, Executor executor
+    ) {
+        callCount.incrementAndGet();
+        earn();
+        final Race race  = new Race(endpoint);
+        long       delay = getDelay(endpoint);
+        race.result.whenComplete((response, e) -> {
+            if(race.result.isCancelled()) {
+                race.cancelled();
+            }
+        });
+        race.send(transport, request, false);
+        if(0 <= delay && !race.result.isDone()) {
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor);
+            delayed.execute(() -> {
+                if(race.result.isDone()) {
+                    return;
+                }
+                if(!spend()) {
+                    overBudgetCount.incrementAndGet();
+                    return;
+                }
+                if(!permit.getAsBoolean()) {
+                    refund();
+                    overBudgetCount.incrementAndGet();
+                    return;
+                }
+                hedgeCount.incrementAndGet();
+                race.send(transport, request, true);
+            });
+        }
+        return race.result;
+    }
+
+    /**
+     * Executes a request on the calling thread's behalf, hedging it if it is slow, and waits for the
+     * first response.
+     * 
+     * @param  transport Transport carrying the request
+     * @param  request   Request to be executed
+     * @param  endpoint  Endpoint the request is addressed to
+     * @param  permit    Takes a rate limiter token for a hedge without waiting; false if none is available
+     * @param  executor  Executor sending hedges
+     * @return First response
+     * @throws IOException Thrown if every call failed, or the wait was interrupted
+     */
+    TransportResponse executeBlocking(
+            Transport transport, TransportRequest request, Endpoint endpoint, BooleanSupplier permit,
+            Executor executor
+    ) throws IOException {
+        CompletableFuture<TransportResponse> response = execute(transport, request, endpoint, permit, executor);
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Adds the fraction of a hedge earned by a call to the budget.
+     */
+    private synchronized void earn() {
+        budget = Math.min(MAX_BUDGET, budget + hedgeRatio);
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     * 
+     * @return Whether a hedge was available
+     */
+    private synchronized boolean spend() {
+        if(1 > budget) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * Returns an unused hedge to the budget.
+     */
+    private synchronized void refund() {
+        budget = Math.min(MAX_BUDGET, budget + 1);
+    }
+
+    /**
+     * Closes a response that lost the race, releasing its connection.
+     * 
+     * @param response Response to be discarded
+     */
+    private static void discard(TransportResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            // The response is not used; the connection is simply not reused
+        }
+    }
+
+    /**
+     * A call and its hedge racing for the first response.
+     */
+    private final class Race {
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+        final Endpoint      endpoint;
+        final long          start   = System.nanoTime();
+        final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Calls in flight (the original call, then its hedge)
+         */
+        final CompletableFuture<?>[] calls = new CompletableFuture<?>[2];
+
+        Race(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * Sends one of the racing calls.
+         * 
+         * @param transport Transport carrying the request
+         * @param request   Request to be executed
+         * @param hedge     Whether this is the hedge
+         */
+        void send(Transport transport, TransportRequest request, final boolean hedge) {
+            pending.incrementAndGet();
+            final CompletableFuture<TransportResponse> call = transport.executeAsync(request);
+            synchronized(this) {
+                calls[hedge ? 1 : 0] = call;
+            }
+            call.whenComplete((response, e) -> finish(hedge, response, e));
+            if(result.isCancelled()) {
+                call.cancel(true);
+            }
+        }
+
+        /**
+         * Cancels every call in flight once the race itself has been cancelled.
+         */
+        void cancelled() {
+            CompletableFuture<?>[] inFlight;
+            synchronized(this) {
+                inFlight = calls.clone();
+            }
+            for(CompletableFuture<?> call : inFlight) {
+                if(null != call) {
+                    call.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Settles the race when one of its calls completes.
+         * 
+         * @param hedge    Whether the completed call is the hedge
+         * @param response Response received; null if the call failed
+         * @param e        Failure of the call; null if a response was received
+         */
+        void finish(boolean hedge, TransportResponse response, Throwable e) {
+            if(null == e) {
+                if(!result.complete(response)) {
+                    discard(response);
+                    return;
+                }
+                if(hedge) {
+                    hedgeWinCount.incrementAndGet();
+                }
+                // The original call's latency, or a lower bound of it if the hedge won
+                latencies.get(endpoint).add(System.nanoTime() - start);
+                CompletableFuture<?> loser;
+                synchronized(this) {
+                    loser = calls[hedge ? 0 : 1];
+                }
+                if(null != loser) {
+                    loser.cancel(true);
+                }
+            } else if(0 == pending.decrementAndGet()) {
+                // Every call sent has failed; a hedge sent later joins a finished race and is discarded
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Recent latencies of an endpoint and their estimated percentile.
+     */
+    private final class Latencies {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+        private int sinceUpdate;
+
+        /**
+         * Estimated percentile, in nanoseconds; negative until enough latencies have been observed
+         */
+        volatile long threshold = -1;
+
+        /**
+         * Records a latency, re-estimating the percentile periodically.
+         * 
+         * @param latency Latency in nanoseconds
+         */
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next  = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+            if(UPDATE_INTERVAL <= ++sinceUpdate && MIN_SAMPLES <= count) {
+                sinceUpdate = 0;
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                threshold = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Default {@link Transport}, backed by a shared {@link HttpClient}.
+ * 
+ * Connections are kept alive and pooled per host between requests, and may optionally be
+ * multiplexed over HTTP/2. The number of concurrent requests (and hence open connections) per host
+ * may be capped; requests beyond the cap wait for a connection to be released.
+ * 
+ * The size of the connection pool and the time idle connections are kept are not settings of a
+ * transport: the JDK client reads them once per JVM, from the "jdk.httpclient.connectionPoolSize"
+ * and "jdk.httpclient.keepalive.timeout" (in seconds) system properties, when its first client is
+ * created. Applications that need to tune them set those properties at startup (e.g. with
+ * <code>-Djdk.httpclient.keepalive.timeout=30</code>).
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class HttpTransport implements Transport {
+    /**
+     * Underlying HTTP client
+     */
+    private final HttpClient client;
+
+    /**
+     * Maximum number of concurrent requests per host; 0 means unlimited
+     */
+    private final int maxConnectionsPerHost;
+
+    /**
+     * Timeout applied to each request; null means no timeout
+     */
+    private final Duration requestTimeout;
+
+    /**
+     * Connection permits, keyed by host authority
+     */
+    private final Map<String,HostPermits> permits = new ConcurrentHashMap<String,HostPermits>();
+
+    /**
+     * Creates a transport with default settings (HTTP/1.1, no per-host limit).
+     */
+    public HttpTransport() {
+        this(new Builder());
+    }
+
+    /**
+     * Creates a transport from a builder.
+     * 
+     * @param builder Transport settings
+     */
+    private HttpTransport(Builder builder) {
+        HttpClient.Builder client = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .version(builder.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        if(null != builder.connectTimeout) {
+            client.connectTimeout(builder.connectTimeout);
+        }
+        this.client                = client.build();
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.requestTimeout        = builder.requestTimeout;
+    }
+
+    /**
+     * Returns a builder for configuring a new transport.
+     * 
+     * @return Transport builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        final HostPermits hostPermits = permitsFor(request);
+        CompletableFuture<Void> permit = hostPermits.acquire();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            if(!permit.cancel(false)) {
+                // The permit was granted in the meantime; hand it back
+                hostPermits.release();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            hostPermits.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (IOException e) {
+            hostPermits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            hostPermits.release();
+            throw e;
+        }
+
+        return toTransportResponse(response, hostPermits);
+    }
+
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        final HttpRequest httpRequest;
+        try {
+            httpRequest = toHttpRequest(request);
+        } catch (IllegalArgumentException e) {
+            CompletableFuture<TransportResponse> failed = new CompletableFuture<TransportResponse>();
+            failed.completeExceptionally(new IOException("Invalid request: " + request, e));
+            return failed;
+        }
+        final HostPermits hostPermits = permitsFor(request);
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+        hostPermits.acquire().thenRun(() -> {
+            if(result.isDone()) {
+                // Cancelled while waiting for a connection
+                hostPermits.release();
+                return;
+            }
+            final CompletableFuture<HttpResponse<InputStream>> exchange =
+                client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+            result.whenComplete((response, e) -> {
+                if(result.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+            exchange.whenComplete((response, e) -> {
+                if(null != e) {
+                    hostPermits.release();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                TransportResponse streamed = toTransportResponse(response, hostPermits);
+                if(!result.complete(streamed)) {
+                    // Cancelled while waiting for the headers
+                    try {
+                        streamed.close();
+                    } catch (IOException closeFailure) {
+                        // The connection is simply not reused
+                    }
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Wraps a JDK HTTP response whose body is streamed; the connection stays checked out until the
+     * caller has closed the body.
+     * 
+     * @param  response    JDK HTTP response
+     * @param  hostPermits Connection permits of the response's host, released once the body is closed
+     * @return Transport response
+     */
+    private static TransportResponse toTransportResponse(
+            HttpResponse<InputStream> response, final HostPermits hostPermits
+    ) {
+        final AtomicBoolean released = new AtomicBoolean();
+        InputStream body = new FilterInputStream(response.body()) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if(released.compareAndSet(false, true)) {
+                        hostPermits.release();
+                    }
+                }
+            }
+        };
+        return new TransportResponse(response.statusCode(), response.headers().map(), body);
+    }
+
+    /**
+     * Converts a transport request into a JDK HTTP request.
+     * 
+     * @param  request Transport request
+     * @return Equivalent JDK HTTP request
+     */
+    private HttpRequest toHttpRequest(TransportRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri())
+            .method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        if(null != requestTimeout) {
+            builder.timeout(requestTimeout);
+        }
+        for(Map.Entry<String,String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the connection permits for the host targeted by a request.
+     * 
+     * @param  request Transport request
+     * @return Connection permits for the request's host
+     */
+    private HostPermits permitsFor(TransportRequest request) {
+        String host = request.getUri().getAuthority();
+        HostPermits hostPermits = permits.get(host);
+        if(null == hostPermits) {
+            permits.putIfAbsent(host, new HostPermits(maxConnectionsPerHost));
+            hostPermits = permits.get(host);
+        }
+        return hostPermits;
+    }
+
+    /**
+     * Non-blocking counting semaphore limiting concurrent requests to a single host.
+     */
+    private static class HostPermits {
+        /**
+         * Completed future handed out when permits are unlimited or immediately available
+         */
+        private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+        /**
+         * Permits currently available; unused when unlimited
+         */
+        private int available;
+
+        /**
+         * Whether permits are unlimited
+         */
+        private final boolean unlimited;
+
+        /**
+         * Requests waiting for a permit, in arrival order
+         */
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<CompletableFuture<Void>>();
+
+        HostPermits(int limit) {
+            this.available = limit;
+            this.unlimited = 0 >= limit;
+        }
+
+        /**
+         * Returns a future that completes once a permit has been granted.
+         */
+        CompletableFuture<Void> acquire() {
+            if(unlimited) {
+                return GRANTED;
+            }
+            synchronized(this) {
+                if(0 < available) {
+                    --available;
+                    return GRANTED;
+                }
+                CompletableFuture<Void> waiter = new CompletableFuture<Void>();
+                waiters.add(waiter);
+                return waiter;
+            }
+        }
+
+        /**
+         * Returns a permit, handing it straight to the longest-waiting request if there is one.
+         * 
+         * Waiters that gave up (their future was cancelled) are skipped.
+         */
+        void release() {
+            if(unlimited) {
+                return;
+            }
+            CompletableFuture<Void> next;
+            do {
+                synchronized(this) {
+                    next = waiters.poll();
+                    if(null == next) {
+                        ++available;
+                        return;
+                    }
+                }
+            } while(!next.complete(null));
+        }
+    }
+
+    /**
+     * Settings for a new {@link HttpTransport}.
+     */
+    public static class Builder {
+        private int maxConnectionsPerHost;
+        private Duration connectTimeout;
+        private Duration requestTimeout;
+        private boolean http2;
+
+        /**
+         * Caps the number of concurrent requests (and open HTTP/1.1 connections) per host (0 = unlimited).
+         * 
+         * @param  maxConnectionsPerHost Maximum concurrent requests per host
+         * @return Provides a fluent interface.
+         */
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets the timeout for establishing a new connection.
+         * 
+         * @param  connectTimeout Connect timeout
+         * @return Provides a fluent interface.
+         */
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the timeout for receiving a response to each request.
+         * 
+         * @param  requestTimeout Request timeout
+         * @return Provides a fluent interface.
+         */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * Enables HTTP/2, multiplexing concurrent requests over a single connection where the server supports it.
+         * 
+         * @param  http2 Whether to prefer HTTP/2
+         * @return Provides a fluent interface.
+         */
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * Creates a transport with these settings.
+         * 
+         * @return New transport
+         */
+        public HttpTransport build() {
+            return new HttpTransport(this);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Transport} that answers requests in-process, without any network I/O.
+ * 
+ * Responses are produced by a {@link Handler}, which makes this transport suitable for tests and
+ * for benchmarking the client independently of network latency.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class InProcessTransport implements Transport {
+    /**
+     * Produces responses to requests
+     */
+    private final Handler handler;
+
+    /**
+     * Executor on which asynchronous requests are handled; null to handle them on the calling thread
+     */
+    private final Executor executor;
+
+    /**
+     * Number of requests handled by this transport
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Creates a transport that handles every request on the calling thread.
+     * 
+     * @param handler Produces responses to requests
+     */
+    public InProcessTransport(Handler handler) {
+        this(handler, null);
+    }
+
+    /**
+     * Creates a transport that handles asynchronous requests on an executor.
+     * 
+     * @param handler  Produces responses to requests
+     * @param executor Executor on which asynchronous requests are handled
+     */
+    public InProcessTransport(Handler handler, Executor executor) {
+        this.handler  = handler;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of requests handled by this transport.
+     * 
+     * @return Number of requests handled
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        requestCount.incrementAndGet();
+        return handler.handle(request);
+    }
+
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        final CompletableFuture<TransportResponse> future = new CompletableFuture<TransportResponse>();
+        Runnable task = () -> {
+            if(future.isDone()) {
+                // Cancelled before the handler ran
+                return;
+            }
+            try {
+                TransportResponse response = execute(request);
+                if(!future.complete(response)) {
+                    response.close();
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if(null == executor) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return future;
+    }
+
+    /**
+     * Produces in-process responses to transport requests.
+     */
+    public interface Handler {
+        /**
+         * Produces a response to a request.
+         * 
+         * @param  request Request to be answered
+         * @return Response to the request
+         * @throws IOException Thrown to simulate a transport failure
+         */
+        TransportResponse handle(TransportRequest request) throws IOException;
+    }
+}
@@ -19,13 +19,18 @@ package com.mattwilliamsnyc.service.remix;
  * @version $Id$
  */
 public class Offer extends Entity {
+    /**
+     * Fields of an offer stored in slots
+     */
+    private static final FieldIndex FIELDS = new FieldIndex("id", "text", "url");
+
     /**
      * Creates a new Offer entity from a document representation.
      * 
      * @param element Root element of an Offer representation
      */
     public Offer(Element element) {
-        super(element);
+        super(element, FIELDS);
     }
 
     /**
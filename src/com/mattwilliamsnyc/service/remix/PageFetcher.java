@@ -0,0 +1,240 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Retrieves every page of a collection result set.
+ * 
+ * The first page is fetched to learn the number of pages; the remaining pages are then fetched
+ * concurrently, with at most a given number of calls in flight. Pages that failed transiently
+ * (transport failures, timeouts, throttling and server errors) are retried by the given
+ * {@link RetryPolicy}, unless the loader's calls are already retried by the client's own policy; the
+ * entities of all pages are merged in page order.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+class PageFetcher<R extends CollectionResponse, E> {
+    /**
+     * Default number of pages fetched concurrently
+     */
+    static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Retries pages of clients without a {@link RetryPolicy} of their own: 3 attempts per page, with
+     * jittered backoff starting at 100 milliseconds, within a retry budget shared by those clients
+     */
+    static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy(3, 100, 1000, TimeUnit.MILLISECONDS);
+
+    /**
+     * Places the call for one page, given its query string parameters
+     */
+    private final Function<Map<String,String>,CompletableFuture<R>> loader;
+
+    /**
+     * Extracts the entities of a page
+     */
+    private final Function<R,List<E>> entities;
+
+    /**
+     * Query string parameters sent with every page call
+     */
+    private final Map<String,String> params;
+
+    /**
+     * Maximum number of pages fetched concurrently
+     */
+    private final int parallelism;
+
+    /**
+     * Retries failed pages; null if pages are not retried here
+     */
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Executor continuing the fetch once a page arrives
+     */
+    private final Executor executor;
+
+    /**
+     * Merged entities of all pages
+     */
+    private final CompletableFuture<List<E>> result = new CompletableFuture<List<E>>();
+
+    /**
+     * Next page to be fetched
+     */
+    private final AtomicInteger nextPage = new AtomicInteger(2);
+
+    /**
+     * Number of workers still fetching pages
+     */
+    private final AtomicInteger workers = new AtomicInteger();
+
+    /**
+     * Entities of each page, indexed by page number - 1
+     */
+    private volatile AtomicReferenceArray<List<E>> pages;
+
+    /**
+     * Creates a fetcher for one result set.
+     * 
+     * @param loader      Places the call for one page, given its query string parameters
+     * @param entities    Extracts the entities of a page
+     * @param params      Query string parameters sent with every page call; may be null
+     * @param parallelism Maximum number of pages fetched concurrently
+     * @param retryPolicy Retries failed pages; null if the loader already retries its calls
+     * @param executor    Executor continuing the fetch once a page arrives
+     */
+    PageFetcher(
+            Function<Map<String,String>,CompletableFuture<R>> loader, Function<R,List<E>> entities,
+            Map<String,String> params, int parallelism, RetryPolicy retryPolicy, Executor executor
+    ) {
+        if(0 >= parallelism) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.loader      = loader;
+        this.entities    = entities;
+        this.params      = null == params ? new HashMap<String,String>() : new HashMap<String,String>(params);
+        this.parallelism = parallelism;
+        this.retryPolicy = retryPolicy;
+        this.executor    = executor;
+    }
+
+    /**
+     * Fetches the whole result set.
+     * 
+     * Failures complete the returned future exceptionally with a {@link RemixException} cause; pages
+     * not yet requested at that point are not fetched.
+     * 
+     * @return Future entities of all pages, in page order
+     */
+    CompletableFuture<List<E>> fetch() {
+        fetchPage(1, 1).whenComplete((first, e) -> {
+            if(null != e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            int totalPages = Math.max(first.totalPages(), 1);
+            pages = new AtomicReferenceArray<List<E>>(totalPages);
+            pages.set(0, entities.apply(first));
+            int count = Math.min(parallelism, totalPages - 1);
+            if(0 == count) {
+                finish();
+                return;
+            }
+            workers.set(count);
+            for(int i = 0; i < count; ++i) {
+                next();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fetches the next page not yet claimed by another worker, then continues with the one after.
+     */
+    private void next() {
+        final int page = nextPage.getAndIncrement();
+        if(page > pages.length() || result.isDone()) {
+            if(0 == workers.decrementAndGet()) {
+                finish();
+            }
+            return;
+        }
+        fetchPage(page, 1).whenCompleteAsync((response, e) -> {
+            if(null != e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            pages.set(page - 1, entities.apply(response));
+            next();
+        }, executor);
+    }
+
+    /**
+     * Completes the result with the entities of all pages, in page order.
+     */
+    private void finish() {
+        int size = 0;
+        for(int i = 0; i < pages.length(); ++i) {
+            size += pages.get(i).size();
+        }
+        List<E> merged = new ArrayList<E>(size);
+        for(int i = 0; i < pages.length(); ++i) {
+            merged.addAll(pages.get(i));
+        }
+        result.complete(merged);
+    }
+
+    /**
+     * Fetches one page, retrying transient failures according to the retry policy, if any.
+     * 
+     * @param  page    Page number
+     * @param  attempt Number of this attempt, starting at 1
+     * @return Future page
+     */
+    private CompletableFuture<R> fetchPage(final int page, final int attempt) {
+        Map<String,String> query = new HashMap<String,String>(params);
+        query.put("page", String.valueOf(page));
+        if(null != retryPolicy && 1 == attempt) {
+            retryPolicy.called();
+        }
+        return loader.apply(query).handle((response, e) -> {
+            if(null == e && !response.isError()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            long delay = null == retryPolicy || result.isDone()
+                ? -1 : retryPolicy.retryDelay(attempt, null == e ? response : null, e);
+            if(0 <= delay) {
+                Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor);
+                return CompletableFuture.supplyAsync(() -> fetchPage(page, attempt + 1), delayed)
+                    .thenCompose(retry -> retry);
+            }
+            return CompletableFuture.<R>failedFuture(failure(page, attempt, response, e));
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Describes the failure of a page.
+     * 
+     * @param  page     Page number
+     * @param  attempts Number of attempts made
+     * @param  response Error response; null if the call failed
+     * @param  e        Failure of the call; null if an error response was returned
+     * @return Exception describing the failure
+     */
+    private static RemixException failure(int page, int attempts, Response response, Throwable e) {
+        String message = "Page " + page + " failed after " + attempts + (1 == attempts ? " attempt" : " attempts");
+        Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+        if(null == cause) {
+            ErrorDocument error = response.getError();
+            return new RemixException(message + ": " + error.getStatus() + " - " + error.getMessage(), response);
+        }
+        return cause instanceof Exception
+            ? new RemixException(message, (Exception) cause)
+            : new RemixException(message + ": " + cause);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Iterates over the entities of every page of a collection result set, one page at a time.
+ * 
+ * The next page is requested as soon as the current one is taken, so that it is usually ready by the
+ * time the current page has been consumed; no more than two pages are held at any time. Nothing
+ * beyond the next page is requested if the consumer stops early, and closing the iterator abandons
+ * that request too.
+ * 
+ * A page that cannot be retrieved ends the iteration with a {@link CompletionException} whose cause
+ * is the {@link RemixException}.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+class PageIterator<R extends CollectionResponse, E> implements Iterator<E>, Closeable {
+    /**
+     * Places the call for one page, given its query string parameters
+     */
+    private final Function<Map<String,String>,CompletableFuture<R>> loader;
+
+    /**
+     * Extracts the entities of a page
+     */
+    private final Function<R,List<E>> entities;
+
+    /**
+     * Query string parameters sent with every page call
+     */
+    private final Map<String,String> params;
+
+    /**
+     * Entities of the page being consumed
+     */
+    private Iterator<E> current;
+
+    /**
+     * Page being prefetched; null once the last page has been taken or the iterator is closed
+     */
+    private CompletableFuture<R> next;
+
+    /**
+     * Number of the page being prefetched
+     */
+    private int nextPage = 1;
+
+    /**
+     * Creates an iterator, requesting the first page immediately.
+     * 
+     * @param loader   Places the call for one page, given its query string parameters
+     * @param entities Extracts the entities of a page
+     * @param params   Query string parameters sent with every page call; may be null
+     */
+    PageIterator(
+            Function<Map<String,String>,CompletableFuture<R>> loader, Function<R,List<E>> entities,
+            Map<String,String> params
+    ) {
+        this.loader   = loader;
+        this.entities = entities;
+        this.params   = null == params ? new HashMap<String,String>() : new HashMap<String,String>(params);
+        this.next     = request(nextPage);
+    }
+
+    public synchronized boolean hasNext() {
+        while(null == current || !current.hasNext()) {
+            if(null == next) {
+                return false;
+            }
+            R page = take();
+            current = entities.apply(page).iterator();
+        }
+        return true;
+    }
+
+    public synchronized E next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops the iteration, abandoning the prefetched page.
+     */
+    public synchronized void close() {
+        if(null != next) {
+            next.cancel(false);
+            next = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Waits for the prefetched page and requests the one after it, if any.
+     * 
+     * @return Page taken
+     */
+    private R take() {
+        R page;
+        try {
+            page = Remix.await(next);
+        } catch (RemixException e) {
+            next = null;
+            throw new CompletionException(e);
+        }
+        if(page.isError()) {
+            next = null;
+            ErrorDocument error = page.getError();
+            throw new CompletionException(new RemixException(
+                "Page " + nextPage + " failed: " + error.getStatus() + " - " + error.getMessage(), page
+            ));
+        }
+        next = nextPage < page.totalPages() ? request(++nextPage) : null;
+        return page;
+    }
+
+    /**
+     * Requests a page.
+     * 
+     * @param  page Page number
+     * @return Future page
+     */
+    private CompletableFuture<R> request(int page) {
+        Map<String,String> query = new HashMap<String,String>(params);
+        query.put("page", String.valueOf(page));
+        return loader.apply(query);
+    }
+}
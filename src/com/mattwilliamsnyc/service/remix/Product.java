@@ -13,6 +13,7 @@
 package com.mattwilliamsnyc.service.remix;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -21,24 +22,201 @@ import java.util.List;
  * Note that not all fields are populated on every response.
  * Be sure to check for null values, especially for lists, or complex child elements.
  * 
+ * Products may be shared read-only across threads (e.g. in a cache): derived lists such as
+ * {@link #getCategoryPath()} are built once, on first access, and are unmodifiable.
+ * 
  * @author  Matt Williams <matt@mattwilliamsnyc.com>
  * @version $Id$
  */
 public class Product extends Entity {
+    /**
+     * Fields of a product stored in slots
+     */
+    private static final FieldIndex FIELDS = new FieldIndex(
+        "accessoriesImage", "active", "activeUpdateDate", "addToCartUrl", "affiliateAddToCartUrl",
+        "affiliateUrl", "alternateViewsImage", "angleImage", "backViewImage", "buyUrl", "categoryPath",
+        "cjAffiliateUrl", "class", "classId", "color", "customerReviewAverage", "customerReviewCount",
+        "department", "departmentId", "depth", "description", "details", "dollarSavings", "energyGuideImage",
+        "features", "format", "freeShipping", "height", "image", "inStoreAvailability",
+        "inStoreAvailabilityText", "inStoreAvailabilityUpdateDate", "itemUpdateDate", "largeFrontImage",
+        "largeImage", "leftViewImage", "longDescription", "manufacturer", "mediumImage", "modelNumber", "name",
+        "navigability", "new", "offers", "onlineAvailability", "onlineAvailabilityText",
+        "onlineAvailabilityUpdateDate", "orderable", "priceUpdateDate", "printOnly", "productId",
+        "regularPrice", "related", "releaseDate", "remoteControlImage", "rightViewImage", "salePrice",
+        "shippingCost", "shippingWeight", "shortDescription", "sku", "specialOrder", "startDate", "subclass",
+        "subclassId", "thumbnailImage", "topViewImage", "type", "upc", "url", "warrantyLabor", "warrantyParts",
+        "weight", "width"
+    );
+
+    /**
+     * Bits of the numeric and boolean properties, in {@link #present} and {@link #flags}
+     */
+    private static final int
+        REGULAR_PRICE           = 1,
+        SALE_PRICE              = 1 << 1,
+        CUSTOMER_REVIEW_COUNT   = 1 << 2,
+        CUSTOMER_REVIEW_AVERAGE = 1 << 3,
+        SHIPPING_COST           = 1 << 4,
+        CLASS_ID                = 1 << 5,
+        SUBCLASS_ID             = 1 << 6,
+        DEPARTMENT_ID           = 1 << 7,
+        DOLLAR_SAVINGS          = 1 << 8,
+        WEIGHT                  = 1 << 9,
+        SHIPPING_WEIGHT         = 1 << 10,
+        NEW                     = 1 << 11,
+        ACTIVE                  = 1 << 12,
+        FREE_SHIPPING           = 1 << 13,
+        IN_STORE_AVAILABILITY   = 1 << 14,
+        ONLINE_AVAILABILITY     = 1 << 15,
+        PRINT_ONLY              = 1 << 16,
+        SPECIAL_ORDER           = 1 << 17;
+
+    /**
+     * Which numeric and boolean properties were present and well-formed
+     */
+    private final int present;
+
+    /**
+     * Which boolean properties are true
+     */
+    private final int flags;
+
+    /**
+     * Numeric properties, decoded once when the product is created
+     */
+    private final float
+        regularPrice, salePrice, customerReviewAverage, shippingCost, dollarSavings, weight, shippingWeight;
+
+    /**
+     * Integer properties, decoded once when the product is created
+     */
+    private final int customerReviewCount, classId, subclassId, departmentId;
+
+    /**
+     * Category path, built on first access
+     */
+    private volatile List<Category> categoryPath;
+
+    /**
+     * Details, built on first access
+     */
+    private volatile List<String> details;
+
+    /**
+     * Features, built on first access
+     */
+    private volatile List<String> features;
+
+    /**
+     * Offers, built on first access
+     */
+    private volatile List<Offer> offers;
+
+    /**
+     * Related items, built on first access
+     */
+    private volatile List<RelatedItem> related;
+
     /**
      * Creates a new Product containing no data.
      */
     public Product() {
-        super();
+        this((Element) null);
     }
 
     /**
      * Creates a new Product from an document representation.
      * 
+     * Numeric and boolean properties are decoded here, once, so that their getters neither parse
+     * nor box; a missing or malformed value reads as 0 (or false).
+     * 
      * @param element Root element of a product representation
      */
     public Product(Element element) {
-        super(element);
+        super(element, FIELDS);
+        // Presence and value bits, collected while decoding and assigned once
+        int[] bits = new int[2];
+        regularPrice          = decodeFloat("regularPrice", REGULAR_PRICE, bits);
+        salePrice             = decodeFloat("salePrice", SALE_PRICE, bits);
+        customerReviewCount   = decodeInt("customerReviewCount", CUSTOMER_REVIEW_COUNT, bits);
+        customerReviewAverage = decodeFloat("customerReviewAverage", CUSTOMER_REVIEW_AVERAGE, bits);
+        shippingCost          = decodeFloat("shippingCost", SHIPPING_COST, bits);
+        classId               = decodeInt("classId", CLASS_ID, bits);
+        subclassId            = decodeInt("subclassId", SUBCLASS_ID, bits);
+        departmentId          = decodeInt("departmentId", DEPARTMENT_ID, bits);
+        dollarSavings         = decodeFloat("dollarSavings", DOLLAR_SAVINGS, bits);
+        weight                = decodeFloat("weight", WEIGHT, bits);
+        shippingWeight        = decodeFloat("shippingWeight", SHIPPING_WEIGHT, bits);
+        decodeBoolean("new", NEW, bits);
+        decodeBoolean("active", ACTIVE, bits);
+        decodeBoolean("freeShipping", FREE_SHIPPING, bits);
+        decodeBoolean("inStoreAvailability", IN_STORE_AVAILABILITY, bits);
+        decodeBoolean("onlineAvailability", ONLINE_AVAILABILITY, bits);
+        decodeBoolean("printOnly", PRINT_ONLY, bits);
+        decodeBoolean("specialOrder", SPECIAL_ORDER, bits);
+        present = bits[0];
+        flags   = bits[1];
+    }
+
+    /**
+     * Decodes a floating point property, recording whether it is present.
+     * 
+     * @param  field Name of the property
+     * @param  bit   Presence bit of the property
+     * @param  bits  Presence bits (first) and boolean values (second) collected so far
+     * @return Decoded value; 0 if absent or malformed
+     */
+    private float decodeFloat(String field, int bit, int[] bits) {
+        Object value = getField(field);
+        if(value instanceof String) {
+            try {
+                float decoded = Float.parseFloat((String) value);
+                bits[0] |= bit;
+                return decoded;
+            } catch(NumberFormatException e) {
+                // Treated as absent
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Decodes an integer property, recording whether it is present.
+     * 
+     * @param  field Name of the property
+     * @param  bit   Presence bit of the property
+     * @param  bits  Presence bits (first) and boolean values (second) collected so far
+     * @return Decoded value; 0 if absent or malformed
+     */
+    private int decodeInt(String field, int bit, int[] bits) {
+        Object value = getField(field);
+        if(value instanceof String) {
+            try {
+                int decoded = Integer.parseInt((String) value);
+                bits[0] |= bit;
+                return decoded;
+            } catch(NumberFormatException e) {
+                // Treated as absent
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Decodes a boolean property ("true", in any case, is true), recording whether it is present.
+     * 
+     * @param field Name of the property
+     * @param bit   Presence and value bit of the property
+     * @param bits  Presence bits (first) and boolean values (second) collected so far
+     */
+    private void decodeBoolean(String field, int bit, int[] bits) {
+        Object value = getField(field);
+        if(value instanceof String) {
+            bits[0] |= bit;
+            if(Boolean.parseBoolean((String) value)) {
+                bits[1] |= bit;
+            }
+        }
     }
 
     /**
@@ -92,7 +270,7 @@ public class Product extends Entity {
      * @return Is this product new?
      */
     public boolean isNew() {
-        return Boolean.valueOf((String) getField("new"));
+        return 0 != (flags & NEW);
     }
 
     /**
@@ -101,7 +279,7 @@ public class Product extends Entity {
      * @return Is this product active?
      */
     public boolean isActive() {
-        return Boolean.valueOf((String) getField("active"));
+        return 0 != (flags & ACTIVE);
     }
 
     /**
@@ -116,21 +294,37 @@ public class Product extends Entity {
     /**
      * Returns the "regular price" property associated with this product.
      * 
-     * @return Regular price of this product
+     * @return Regular price of this product; 0 if absent or malformed
      */
     public float getRegularPrice() {
-        String regularPrice = (String) getField("regularPrice");
-        return null == regularPrice ? null : Float.valueOf(regularPrice);
+        return regularPrice;
+    }
+
+    /**
+     * Indicates whether this product carries a well-formed "regular price" property.
+     * 
+     * @return Whether {@link #getRegularPrice()} holds an actual value
+     */
+    public boolean hasRegularPrice() {
+        return 0 != (present & REGULAR_PRICE);
     }
 
     /**
      * Returns the "sale price" property associated with this product.
      * 
-     * @return Current sale price for this product
+     * @return Current sale price for this product; 0 if absent or malformed
      */
     public float getSalePrice() {
-        String salePrice = (String) getField("salePrice");
-        return null == salePrice ? null : Float.valueOf(salePrice);
+        return salePrice;
+    }
+
+    /**
+     * Indicates whether this product carries a well-formed "sale price" property.
+     * 
+     * @return Whether {@link #getSalePrice()} holds an actual value
+     */
+    public boolean hasSalePrice() {
+        return 0 != (present & SALE_PRICE);
     }
 
     /**
@@ -208,38 +402,57 @@ public class Product extends Entity {
     /**
      * Returns a list of {@link Category categories} that this product belongs to.
      * 
-     * @return List of categories that this product belongs to
+     * @return List of categories that this product belongs to (unmodifiable)
      */
     public List<Category> getCategoryPath() {
-        Object categoryPath = getField("categoryPath");
-        List<Category> categories = new ArrayList<Category>();
-        if(null != categoryPath && categoryPath instanceof Element && ((Element) categoryPath).hasChildren()) {
+        List<Category> categories = categoryPath;
+        if(null == categories) {
             categories = new ArrayList<Category>();
-            for(Element child : ((Element) categoryPath).getChildren()) {
-                categories.add(new Category(child));
+            Object field = getField("categoryPath");
+            if(field instanceof Element && ((Element) field).hasChildren()) {
+                for(Element child : ((Element) field).getChildren()) {
+                    categories.add(new Category(child));
+                }
             }
-        }       
+            categoryPath = categories = Collections.unmodifiableList(categories);
+        }
         return categories;
     }
 
     /**
      * Returns the "customer review count" property associated with this product.
      * 
-     * @return Number of customer reviews associated with this product 
+     * @return Number of customer reviews associated with this product; 0 if absent or malformed
      */
     public int getCustomerReviewCount() {
-        String customerReviewCount = (String) getField("customerReviewCount");
-        return Integer.valueOf(customerReviewCount);
+        return customerReviewCount;
+    }
+
+    /**
+     * Indicates whether this product carries a well-formed "customer review count" property.
+     * 
+     * @return Whether {@link #getCustomerReviewCount()} holds an actual value
+     */
+    public boolean hasCustomerReviewCount() {
+        return 0 != (present & CUSTOMER_REVIEW_COUNT);
     }
 
     /**
      * Returns the "customer review average" property associated with this product.
      * 
-     * @return Average customer review rating for this product
+     * @return Average customer review rating for this product; 0 if absent or malformed
      */
     public float getCustomerReviewAverage() {
-        String customerReviewAverage = (String) getField("customerReviewAverage");
-        return Float.valueOf(customerReviewAverage);
+        return customerReviewAverage;
+    }
+
+    /**
+     * Indicates whether this product carries a well-formed "customer review average" property.
+     * 
+     * @return Whether {@link #getCustomerReviewAverage()} holds an actual value
+     */
+    public boolean hasCustomerReviewAverage() {
+        return 0 != (present & CUSTOMER_REVIEW_AVERAGE);
     }
 
     /**
@@ -257,8 +470,7 @@ public class Product extends Entity {
      * @return Does this product qualify for free shipping?
      */
     public boolean hasFreeShipping() {
-        String freeShipping = (String) getField("freeShipping");
-        return Boolean.valueOf(freeShipping);
+        return 0 != (flags & FREE_SHIPPING);
     }
 
     /**
@@ -267,8 +479,7 @@ public class Product extends Entity {
      * @return Is this product generally available in Best Buy stores?
      */
     public boolean hasInStoreAvailability() {
-        String inStoreAvailability = (String) getField("inStoreAvailability");
-        return Boolean.valueOf(inStoreAvailability);
+        return 0 != (flags & IN_STORE_AVAILABILITY);
     }
 
     /**
@@ -304,8 +515,7 @@ public class Product extends Entity {
      * @return Is this product available online through bestbuy.com?
      */
     public boolean getOnlineAvailability() {
-        String onlineAvailability = (String) getField("onlineAvailability");
-        return Boolean.valueOf(onlineAvailability);
+        return 0 != (flags & ONLINE_AVAILABILITY);
     }
 
     /**
@@ -332,8 +542,7 @@ public class Product extends Entity {
      * @return Is this product print only?
      */
     public boolean isPrintOnly() {
-        String printOnly = (String) getField("printOnly");
-        return Boolean.valueOf(printOnly);
+        return 0 != (flags & PRINT_ONLY);
     }
 
     /**
@@ -348,10 +557,10 @@ public class Product extends Entity {
     /**
      * Returns the "shipping cost" property associated with this product.
      * 
-     * @return Shipping cost for this product
+     * @return Shipping cost for this product; 0 if absent or malformed
      */
     public float getShippingCost() {
-        return Float.valueOf((String) getField("shippingCost"));
+        return shippingCost;
     }
 
     /**
@@ -360,7 +569,7 @@ public class Product extends Entity {
      * @return Is this product a special order?
      */
     public boolean isSpecialOrder() {
-        return Boolean.valueOf((String) getField("specialOrder"));
+        return 0 != (flags & SPECIAL_ORDER);
     }
 
     /**
@@ -384,10 +593,10 @@ public class Product extends Entity {
     /**
      * Returns the "" property associated with this product.
      * 
-     * @return Class ID for this product
+     * @return Class ID for this product; 0 if absent or malformed
      */
     public int getProductClassId() {
-        return Integer.valueOf((String) getField("classId"));
+        return classId;
     }
 
     /**
@@ -402,10 +611,10 @@ public class Product extends Entity {
     /**
      * Returns the "subclass ID" property associated with this product.
      * 
-     * @return Subclass ID of this product
+     * @return Subclass ID of this product; 0 if absent or malformed
      */
     public int getSubclassId() {
-        return Integer.valueOf((String) getField("subclassId"));
+        return subclassId;
     }
 
     /**
@@ -420,10 +629,10 @@ public class Product extends Entity {
     /**
      * Returns the "department ID" property associated with this product.
      * 
-     * @return ID of this product's department
+     * @return ID of this product's department; 0 if absent or malformed
      */
     public int getDepartmentId() {
-        return Integer.valueOf((String) getField("departmentId"));
+        return departmentId;
     }
 
     /**
@@ -600,10 +809,10 @@ public class Product extends Entity {
     /**
      * Returns the "dollar savings" property associated with this product.
      * 
-     * @return Dollar savings associated with this product
+     * @return Dollar savings associated with this product; 0 if absent or malformed
      */
     public float getDollarSavings() {
-        return Float.valueOf((String) getField("dollarSavings"));
+        return dollarSavings;
     }
 
     /**
@@ -636,19 +845,19 @@ public class Product extends Entity {
     /**
      * Returns the "weight" property associated with this product.
      * 
-     * @return Weight of this product
+     * @return Weight of this product; 0 if absent or malformed
      */
     public float getWeight() {
-        return Float.valueOf((String) getField("weight"));
+        return weight;
     }
 
     /**
      * Returns the "shipping weight" property associated with this product.
      * 
-     * @return Shipping weight of this product
+     * @return Shipping weight of this product; 0 if absent or malformed
      */
     public float getShippingWeight() {
-        return Float.valueOf((String) getField("shippingWeight"));
+        return shippingWeight;
     }
 
     /**
@@ -690,15 +899,12 @@ public class Product extends Entity {
     /**
      * Returns the "details" property associated with this product.
      * 
-     * @return Details associated with this product
+     * @return Details associated with this product (unmodifiable)
      */
     public List<String> getDetails() {
-        List<String> details = new ArrayList<String>();
-        Object field = getField("details");
-        if(field instanceof Element && ((Element) field).hasChildren()) {
-            for(Element example : ((Element) field).getChildren()) {
-                details.add((String) example.getValue());
-            }
+        List<String> details = this.details;
+        if(null == details) {
+            this.details = details = values("details");
         }
         return details;
     }
@@ -706,15 +912,12 @@ public class Product extends Entity {
     /**
      * Returns the "features" property associated with this product.
      * 
-     * @return Features associated with this product
+     * @return Features associated with this product (unmodifiable)
      */
     public List<String> getFeatures() {
-        List<String> features = new ArrayList<String>();
-        Object field = getField("features");
-        if(field instanceof Element && ((Element) field).hasChildren()) {
-            for(Element example : ((Element) field).getChildren()) {
-                features.add((String) example.getValue());
-            }
+        List<String> features = this.features;
+        if(null == features) {
+            this.features = features = values("features");
         }
         return features;
     }
@@ -722,32 +925,57 @@ public class Product extends Entity {
     /**
      * Returns the "offers" property associated with this product.
      * 
-     * @return Offers associated with this product
+     * @return Offers associated with this product (unmodifiable)
      */
     public List<Offer> getOffers() {
-        Object field = getField("offers");
-        List<Offer> offers = new ArrayList<Offer>();
-        if(null != field && field instanceof Element && ((Element) field).hasChildren()) {
-            for(Element child : ((Element) field).getChildren()) {
-                offers.add(new Offer(child));
+        List<Offer> offers = this.offers;
+        if(null == offers) {
+            offers = new ArrayList<Offer>();
+            Object field = getField("offers");
+            if(field instanceof Element && ((Element) field).hasChildren()) {
+                for(Element child : ((Element) field).getChildren()) {
+                    offers.add(new Offer(child));
+                }
             }
-        }       
+            this.offers = offers = Collections.unmodifiableList(offers);
+        }
         return offers;
     }
 
     /**
      * Returns the "related items" property associated with this product.
      * 
-     * @return Items related to this product
+     * @return Items related to this product (unmodifiable)
      */
     public List<RelatedItem> getRelated() {
-        Object field = getField("related");
-        List<RelatedItem> items = new ArrayList<RelatedItem>();
-        if(null != field && field instanceof Element && ((Element) field).hasChildren()) {
-            for(Element child : ((Element) field).getChildren()) {
-                items.add(new RelatedItem(child));
+        List<RelatedItem> items = related;
+        if(null == items) {
+            items = new ArrayList<RelatedItem>();
+            Object field = getField("related");
+            if(field instanceof Element && ((Element) field).hasChildren()) {
+                for(Element child : ((Element) field).getChildren()) {
+                    items.add(new RelatedItem(child));
+                }
             }
+            related = items = Collections.unmodifiableList(items);
         }
         return items;
     }
+
+    /**
+     * Collects the values of the children of a grouping field (e.g. "features").
+     * 
+     * @param  name Name of the grouping field
+     * @return Unmodifiable list of values
+     */
+    private List<String> values(String name) {
+        List<String> values = new ArrayList<String>();
+        Object field = getField(name);
+        if(field instanceof Element && ((Element) field).hasChildren()) {
+            for(Element child : ((Element) field).getChildren()) {
+                values.add((String) child.getValue());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
 }
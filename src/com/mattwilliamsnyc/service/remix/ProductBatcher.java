@@ -0,0 +1,308 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.mattwilliamsnyc.service.remix.util.RemixUtil;
+
+/**
+ * Collects concurrent single-product lookups into batched "products" collection calls.
+ * 
+ * Lookups arriving within a short window are combined into one <tt>products(sku in(...))</tt>
+ * request; each caller's future completes with its own {@link Product}, or with null if the SKU was
+ * not found. A batch is sent early once it reaches the API's page size or the URL length budget.
+ * 
+ * <pre>
+ * ProductBatcher batcher = new ProductBatcher(remix, 5, TimeUnit.MILLISECONDS);
+ * batcher.getProduct("8982988").thenAccept(product -&gt; ...);
+ * </pre>
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class ProductBatcher implements Closeable {
+    /**
+     * Largest page size accepted by the Remix API
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Default upper bound on the length of a batched request URL
+     */
+    public static final int MAX_URL_LENGTH = 2000;
+
+    /**
+     * Characters reserved for the query string (page size, API key and caller parameters)
+     */
+    private static final int QUERY_STRING_RESERVE = 256;
+
+    /**
+     * Filter prefix, as it appears in the request URL (the space is escaped as %20)
+     */
+    private static final String FILTER_PREFIX = "sku in(";
+
+    /**
+     * Client used to place batched calls
+     */
+    private final Remix remix;
+
+    /**
+     * Time (in nanoseconds) a batch stays open after its first lookup arrives
+     */
+    private final long windowNanos;
+
+    /**
+     * Maximum number of SKUs per batch
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Maximum length of the SKU list within the filter
+     */
+    private final int maxFilterLength;
+
+    /**
+     * Query string parameters sent with every batched call (e.g. "show")
+     */
+    private final Map<String,String> params;
+
+    /**
+     * Fires batch windows
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Lookups waiting in the open batch, keyed by SKU
+     */
+    private Map<String,CompletableFuture<Product>> pending = new LinkedHashMap<String,CompletableFuture<Product>>();
+
+    /**
+     * Length of the SKU list of the open batch
+     */
+    private int pendingLength;
+
+    /**
+     * Timer that will flush the open batch
+     */
+    private ScheduledFuture<?> timer;
+
+    /**
+     * Creates a batcher with a given window and the API's maximum page size.
+     * 
+     * @param remix  Client used to place batched calls
+     * @param window Time a batch stays open after its first lookup arrives
+     * @param unit   Unit of the window
+     */
+    public ProductBatcher(Remix remix, long window, TimeUnit unit) {
+        this(remix, window, unit, MAX_PAGE_SIZE, MAX_URL_LENGTH, null);
+    }
+
+    /**
+     * Creates a batcher.
+     * 
+     * @param remix        Client used to place batched calls
+     * @param window       Time a batch stays open after its first lookup arrives
+     * @param unit         Unit of the window
+     * @param maxBatchSize Maximum number of SKUs per batch (capped at {@link #MAX_PAGE_SIZE})
+     * @param maxUrlLength Maximum length of a batched request URL
+     * @param params       Query string parameters sent with every batched call; may be null
+     */
+    public ProductBatcher(
+            Remix remix, long window, TimeUnit unit, int maxBatchSize, int maxUrlLength, Map<String,String> params
+    ) {
+        if(0 >= maxBatchSize) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.remix           = remix;
+        this.windowNanos     = unit.toNanos(window);
+        this.maxBatchSize    = Math.min(maxBatchSize, MAX_PAGE_SIZE);
+        this.maxFilterLength = maxUrlLength - QUERY_STRING_RESERVE
+                             - (Remix.ENTRY_POINT + Remix.PATH_PRODUCTS + "(" + FILTER_PREFIX + "))").length() - 2;
+        if(0 >= maxFilterLength) {
+            throw new IllegalArgumentException("URL length budget too small for a batched request");
+        }
+        this.params = null == params
+            ? Collections.<String,String>emptyMap()
+            : Collections.unmodifiableMap(new HashMap<String,String>(params));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remix-product-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Looks up a product by SKU as part of the next batch.
+     * 
+     * Lookups for the same SKU within a batch share a single result. SKUs that cannot be expressed in
+     * a filter (anything other than digits) are looked up individually.
+     * 
+     * @param  sku SKU # of the product being retrieved
+     * @return Future product; completes with null if no product has this SKU
+     */
+    public CompletableFuture<Product> getProduct(String sku) {
+        if(null == sku || 0 == sku.length() || !isNumeric(sku)) {
+            return remix.getProductAsync(sku).thenApply(response -> response.product());
+        }
+
+        Map<String,CompletableFuture<Product>> full = null;
+        CompletableFuture<Product> future;
+        synchronized(this) {
+            future = pending.get(sku);
+            if(null != future) {
+                return future;
+            }
+            if(pendingLength + sku.length() + 1 > maxFilterLength) {
+                full = takeBatch();
+            }
+            future = new CompletableFuture<Product>();
+            pending.put(sku, future);
+            pendingLength += sku.length() + 1;
+            if(pending.size() >= maxBatchSize) {
+                Map<String,CompletableFuture<Product>> batch = takeBatch();
+                if(null == full) {
+                    full = batch;
+                } else {
+                    send(batch);
+                }
+            } else if(null == timer) {
+                timer = scheduler.schedule(() -> flush(), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if(null != full) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Looks up a product by SKU as part of the next batch.
+     * 
+     * @param  sku SKU # of the product being retrieved
+     * @return Future product; completes with null if no product has this SKU
+     */
+    public CompletableFuture<Product> getProduct(int sku) {
+        return getProduct(String.valueOf(sku));
+    }
+
+    /**
+     * Sends the open batch immediately.
+     */
+    public void flush() {
+        Map<String,CompletableFuture<Product>> batch;
+        synchronized(this) {
+            batch = takeBatch();
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends the open batch and stops the batch timer.
+     */
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    /**
+     * Detaches the open batch; must be called while holding this batcher's lock.
+     * 
+     * @return Lookups of the open batch
+     */
+    private Map<String,CompletableFuture<Product>> takeBatch() {
+        Map<String,CompletableFuture<Product>> batch = pending;
+        pending       = new LinkedHashMap<String,CompletableFuture<Product>>();
+        pendingLength = 0;
+        if(null != timer) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return batch;
+    }
+
+    /**
+     * Places one "products" call for a batch and completes each lookup from its result.
+     * 
+     * @param batch Lookups keyed by SKU
+     */
+    private void send(final Map<String,CompletableFuture<Product>> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        StringBuilder skus = new StringBuilder();
+        for(String sku : batch.keySet()) {
+            if(0 < skus.length()) {
+                skus.append(',');
+            }
+            skus.append(sku);
+        }
+        List<String> filters = new ArrayList<String>();
+        filters.add(FILTER_PREFIX + skus + ")");
+
+        Map<String,String> query = new HashMap<String,String>(params);
+        query.put("pageSize", String.valueOf(batch.size()));
+
+        remix.getProductsAsync(filters, query).whenComplete((response, e) -> {
+            Throwable failure = e;
+            if(null == failure && response.isError()) {
+                ErrorDocument error = response.getError();
+                failure = new RemixException(
+                    "Batched lookup of " + RemixUtil.buildFilterString(filters) + " failed: " +
+                    error.getStatus() + " - " + error.getMessage(), response
+                );
+            }
+            if(null != failure) {
+                for(CompletableFuture<Product> future : batch.values()) {
+                    future.completeExceptionally(failure);
+                }
+                return;
+            }
+            for(Product product : response.list()) {
+                CompletableFuture<Product> future = batch.get(product.getSku());
+                if(null != future) {
+                    future.complete(product);
+                }
+            }
+            for(CompletableFuture<Product> future : batch.values()) {
+                future.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Indicates whether a SKU consists solely of digits and can therefore be listed in a filter.
+     * 
+     * @param  sku SKU # to be checked
+     * @return Whether the SKU is numeric
+     */
+    private static boolean isNumeric(String sku) {
+        for(int i = 0; i < sku.length(); ++i) {
+            if(!Character.isDigit(sku.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
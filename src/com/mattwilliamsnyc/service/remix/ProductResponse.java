@@ -12,7 +12,10 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Wraps a response to an API request for a single product.
@@ -36,6 +39,33 @@ public class ProductResponse extends Response {
         super(connection);
     }
 
+    /**
+     * Creates a new ProductResponse from a status code, response headers and a response body stream.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @throws RemixException Error parsing HTTP response
+     */
+    public ProductResponse(int responseCode, Map<String,List<String>> httpHeaders, InputStream body) throws RemixException {
+        super(responseCode, httpHeaders, body);
+    }
+
+    /**
+     * Creates a new ProductResponse, parsing the response document into a given model.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @param  model        In-memory representation of the response document
+     * @throws RemixException Error parsing HTTP response
+     */
+    public ProductResponse(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, DocumentModel model
+    ) throws RemixException {
+        super(responseCode, httpHeaders, body, model);
+    }
+
     /**
      * Retrieves a {@link Product} representation parsed from this response.
      * 
@@ -12,9 +12,12 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Response to a Remix API call to the "products" collection resource.
@@ -38,6 +41,51 @@ public class ProductsResponse extends CollectionResponse {
         super(connection);
     }
 
+    /**
+     * Creates a new ProductsResponse from a status code, response headers and a response body stream.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @throws RemixException Error parsing HTTP response
+     */
+    public ProductsResponse(int responseCode, Map<String,List<String>> httpHeaders, InputStream body) throws RemixException {
+        super(responseCode, httpHeaders, body);
+    }
+
+    /**
+     * Creates a new ProductsResponse, parsing the response document into a given model.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @param  model        In-memory representation of the response document
+     * @throws RemixException Error parsing HTTP response
+     */
+    public ProductsResponse(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, DocumentModel model
+    ) throws RemixException {
+        super(responseCode, httpHeaders, body, model);
+    }
+
+    /**
+     * Creates a new ProductsResponse, handing each product to a consumer as soon as it has been read.
+     * 
+     * Products are not retained: {@link #list()} is empty and only the paging attributes (e.g.
+     * {@link #totalPages()}) are available, keeping memory use constant regardless of the page size.
+     * 
+     * @param  responseCode HTTP status code returned with this response
+     * @param  httpHeaders  HTTP headers returned with this response
+     * @param  body         Stream from which the response document is read
+     * @param  consumer     Receives each {@link Product product} of the response document, in document order
+     * @throws RemixException Error parsing HTTP response
+     */
+    public ProductsResponse(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, final Consumer<? super Product> consumer
+    ) throws RemixException {
+        super(responseCode, httpHeaders, body, element -> consumer.accept(new Product(element)));
+    }
+
     /**
      * Returns a list of {@link Product products} returned with this response.
      * 
@@ -0,0 +1,444 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mattwilliamsnyc.service.remix.ResponseCache.Endpoint;
+
+/**
+ * Client-side rate limiter holding API calls back before they leave the process.
+ * 
+ * Each API key has a token bucket that refills at a configured rate up to a burst size, shared by
+ * all its calls since the API limits each key across endpoints; each API key and {@link Endpoint}
+ * pair has a bucket of its own as well, so that a throttled endpoint slows down independently. A call
+ * takes a token from both buckets. A call that finds either bucket empty waits (without holding a
+ * thread, for asynchronous calls) until its tokens have accrued; a call that would wait longer than
+ * the maximum wait, or that would exceed the maximum number of waiting calls, is rejected with a
+ * {@link RemixException} of type {@link RemixException.Type#OTHER} instead of being sent, and is not
+ * retried.
+ * 
+ * The rate adapts to the API's answers: a throttling response (see {@link Response#isThrottled()})
+ * halves the rate of the API key's and the endpoint's buckets and drains their burst, and honors a
+ * "Retry-After" header by holding calls back for the time requested; each successful response then
+ * raises the rates additively, back up to the configured rate.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RateLimiter {
+    /**
+     * Factor applied to a bucket's rate when a throttling response is seen
+     */
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * Fraction of the configured rate restored by each successful response
+     */
+    private static final double INCREASE_FRACTION = 0.05;
+
+    /**
+     * Lowest rate (as a fraction of the configured rate) to which a bucket is slowed down
+     */
+    private static final double MIN_RATE_FRACTION = 0.05;
+
+    /**
+     * Configured number of calls per second for each bucket
+     */
+    private final double permitsPerSecond;
+
+    /**
+     * Number of calls a full bucket lets through at once
+     */
+    private final int burst;
+
+    /**
+     * Token buckets, keyed by API key and endpoint (or by API key alone for the key's aggregate bucket)
+     */
+    private final ConcurrentMap<String,Bucket> buckets = new ConcurrentHashMap<String,Bucket>();
+
+    /**
+     * Maximum number of calls waiting for a token at once
+     */
+    private volatile int maxQueueDepth = Integer.MAX_VALUE;
+
+    /**
+     * Maximum time (in nanoseconds) a call may wait for a token
+     */
+    private volatile long maxWait = Long.MAX_VALUE;
+
+    /**
+     * Number of calls currently waiting for a token
+     */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong acquiredCount  = new AtomicLong();
+    private final AtomicLong delayedCount   = new AtomicLong();
+    private final AtomicLong rejectedCount  = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong totalWaitTime  = new AtomicLong();
+    private final AtomicLong maxWaitTime    = new AtomicLong();
+
+    /**
+     * Creates a rate limiter whose buckets let a number of calls per second through, with bursts of
+     * up to one second's worth of calls.
+     * 
+     * @param permitsPerSecond Number of calls per second allowed for each API key and endpoint
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, Math.max(1, (int) Math.ceil(permitsPerSecond)));
+    }
+
+    /**
+     * Creates a rate limiter whose buckets let a number of calls per second through, with bursts of
+     * up to a given number of calls.
+     * 
+     * @param permitsPerSecond Number of calls per second allowed for each API key and endpoint
+     * @param burst            Number of calls a full bucket lets through at once
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if(!(0 < permitsPerSecond) || Double.isInfinite(permitsPerSecond)) {
+            throw new IllegalArgumentException("Rate must be a positive number of calls per second");
+        }
+        if(1 > burst) {
+            throw new IllegalArgumentException("Burst must allow at least one call");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst            = burst;
+    }
+
+    /**
+     * Bounds the number of calls waiting for a token; further calls are rejected. Unbounded by default.
+     * 
+     * @param  maxQueueDepth Maximum number of waiting calls; 0 rejects every call that would wait
+     * @return Provides a fluent interface.
+     */
+    public RateLimiter setMaxQueueDepth(int maxQueueDepth) {
+        if(0 > maxQueueDepth) {
+            throw new IllegalArgumentException("Maximum queue depth must not be negative");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        return this;
+    }
+
+    /**
+     * Bounds the time a call may wait for a token; calls that would wait longer are rejected.
+     * Unbounded by default.
+     * 
+     * @param  maxWait Maximum time a call may wait
+     * @param  unit    Unit of the maximum wait
+     * @return Provides a fluent interface.
+     */
+    public RateLimiter setMaxWait(long maxWait, TimeUnit unit) {
+        this.maxWait = unit.toNanos(maxWait);
+        return this;
+    }
+
+    /**
+     * Returns the configured number of calls per second for each API key and endpoint.
+     * 
+     * @return Configured rate
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Returns the current (possibly slowed down) rate of an API key, across all endpoints.
+     * 
+     * @param  apiKey API key
+     * @return Current number of calls per second
+     */
+    public double getRate(String apiKey) {
+        return getRate(apiKey, null);
+    }
+
+    /**
+     * Returns the current (possibly slowed down) rate of an API key and endpoint.
+     * 
+     * @param  apiKey   API key
+     * @param  endpoint Endpoint; null for the API key's aggregate rate
+     * @return Current number of calls per second
+     */
+    public double getRate(String apiKey, Endpoint endpoint) {
+        Bucket bucket = buckets.get(key(apiKey, endpoint));
+        if(null == bucket) {
+            return permitsPerSecond;
+        }
+        synchronized(bucket) {
+            return bucket.rate;
+        }
+    }
+
+    /**
+     * Returns the number of calls currently waiting for a token.
+     * 
+     * @return Queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns a snapshot of this rate limiter's statistics.
+     * 
+     * @return Rate limiter statistics
+     */
+    public RateLimiterStats getStats() {
+        return new RateLimiterStats(
+            acquiredCount.get(), delayedCount.get(), rejectedCount.get(), throttledCount.get(),
+            totalWaitTime.get(), maxWaitTime.get(), queueDepth.get()
+        );
+    }
+
+    /**
+     * Waits on the calling thread until a call may be sent.
+     * 
+     * @param  apiKey   API key the call is made with
+     * @param  endpoint Endpoint the call is addressed to
+     * @throws RemixException Thrown if the call is rejected, or the wait is interrupted
+     */
+    void acquire(String apiKey, Endpoint endpoint) throws RemixException {
+        long wait = reserve(apiKey, endpoint);
+        if(0 == wait) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemixException("Interrupted while waiting for the rate limiter", e);
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a future completing, on an executor, once a call may be sent; no thread is held while
+     * the call waits.
+     * 
+     * @param  apiKey   API key the call is made with
+     * @param  endpoint Endpoint the call is addressed to
+     * @param  executor Executor completing the future after a wait
+     * @return Future completing when the call may be sent, or failing with a {@link RemixException}
+     *         if the call is rejected
+     */
+    CompletableFuture<Void> acquireAsync(String apiKey, Endpoint endpoint, Executor executor) {
+        long wait;
+        try {
+            wait = reserve(apiKey, endpoint);
+        } catch (RemixException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if(0 == wait) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(
+            queueDepth::decrementAndGet, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, executor)
+        );
+    }
+
+    /**
+     * Takes a token only if one is available at once.
+     * 
+     * @param  apiKey   API key the call is made with
+     * @param  endpoint Endpoint the call is addressed to
+     * @return Whether a token was taken; if not, the call must not be sent
+     */
+    boolean tryAcquire(String apiKey, Endpoint endpoint) {
+        Bucket aggregate = bucket(apiKey, null);
+        Bucket bucket    = bucket(apiKey, endpoint);
+        synchronized(aggregate) {
+            synchronized(bucket) {
+                long now = System.nanoTime();
+                if(0 < Math.max(aggregate.waitTime(now), bucket.waitTime(now))) {
+                    return false;
+                }
+                aggregate.take();
+                bucket.take();
+            }
+        }
+        acquiredCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adapts the rate of an API key and endpoint to a response received from the API.
+     * 
+     * @param apiKey   API key the call was made with
+     * @param endpoint Endpoint the call was addressed to
+     * @param response Response received
+     */
+    void record(String apiKey, Endpoint endpoint, Response response) {
+        Bucket aggregate = bucket(apiKey, null);
+        Bucket bucket    = bucket(apiKey, endpoint);
+        if(response.isThrottled()) {
+            throttledCount.incrementAndGet();
+            long now        = System.nanoTime();
+            long retryAfter = response.retryAfter();
+            aggregate.throttled(now, retryAfter);
+            bucket.throttled(now, retryAfter);
+        } else if(!response.isError()) {
+            aggregate.succeeded();
+            bucket.succeeded();
+        }
+    }
+
+    /**
+     * Takes a token from the API key's and the endpoint's buckets, possibly ahead of time.
+     * 
+     * @param  apiKey   API key the call is made with
+     * @param  endpoint Endpoint the call is addressed to
+     * @return Time (in nanoseconds) the call must wait before it is sent; if positive, the call has
+     *         been counted as waiting
+     * @throws RemixException Thrown if the call is rejected
+     */
+    private long reserve(String apiKey, Endpoint endpoint) throws RemixException {
+        Bucket aggregate = bucket(apiKey, null);
+        Bucket bucket    = bucket(apiKey, endpoint);
+        long   wait;
+        // Aggregate buckets are always locked before endpoint buckets
+        synchronized(aggregate) {
+            synchronized(bucket) {
+                long now = System.nanoTime();
+                wait = Math.max(aggregate.waitTime(now), bucket.waitTime(now));
+                if(0 < wait) {
+                    boolean tooLong = wait > maxWait;
+                    if(tooLong || queueDepth.incrementAndGet() > maxQueueDepth) {
+                        if(!tooLong) {
+                            queueDepth.decrementAndGet();
+                        }
+                        rejectedCount.incrementAndGet();
+                        throw new RemixException(
+                            RemixException.Type.OTHER,
+                            "Rate limit exceeded for " + endpoint + ": call rejected before it was sent"
+                        );
+                    }
+                }
+                aggregate.take();
+                bucket.take();
+            }
+        }
+        acquiredCount.incrementAndGet();
+        if(0 < wait) {
+            delayedCount.incrementAndGet();
+            totalWaitTime.addAndGet(wait);
+            maxWaitTime.accumulateAndGet(wait, Math::max);
+        }
+        return wait;
+    }
+
+    /**
+     * Returns the bucket of an API key and endpoint, creating it if needed.
+     * 
+     * @param  apiKey   API key
+     * @param  endpoint Endpoint; null for the API key's aggregate bucket
+     * @return Token bucket
+     */
+    private Bucket bucket(String apiKey, Endpoint endpoint) {
+        String key    = key(apiKey, endpoint);
+        Bucket bucket = buckets.get(key);
+        return null == bucket ? buckets.computeIfAbsent(key, k -> new Bucket(System.nanoTime())) : bucket;
+    }
+
+    /**
+     * Returns the key of the bucket of an API key and endpoint.
+     * 
+     * @param  apiKey   API key
+     * @param  endpoint Endpoint; null for the API key's aggregate bucket
+     * @return Bucket key
+     */
+    private static String key(String apiKey, Endpoint endpoint) {
+        return (null == endpoint ? "*" : endpoint.name()) + ':' + apiKey;
+    }
+
+    /**
+     * Token bucket of an API key and endpoint; guarded by its own monitor.
+     */
+    private final class Bucket {
+        /**
+         * Current number of calls per second
+         */
+        double rate = permitsPerSecond;
+
+        /**
+         * Available tokens; negative while calls are waiting for tokens taken ahead of time
+         */
+        double tokens = burst;
+
+        /**
+         * Time (from {@link System#nanoTime()}) at which tokens were last added
+         */
+        long refilled;
+
+        /**
+         * Time before which the last throttling response has already been accounted for
+         */
+        long decreasedUntil;
+
+        Bucket(long now) {
+            refilled = now;
+        }
+
+        /**
+         * Adds the tokens accrued since the last refill, and returns the time a call taking the next
+         * token must wait.
+         * 
+         * @param  now Current time
+         * @return Wait in nanoseconds
+         */
+        long waitTime(long now) {
+            if(now > refilled) {
+                tokens   = Math.min(burst, tokens + (now - refilled) * rate / 1e9);
+                refilled = now;
+            }
+            return 1 <= tokens ? 0 : (long) Math.ceil((1 - tokens) * 1e9 / rate);
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+
+        /**
+         * Slows the bucket down after a throttling response; responses to calls sent before the last
+         * slow-down took effect do not slow it down again.
+         * 
+         * @param now        Current time
+         * @param retryAfter Delay requested by the API, in nanoseconds
+         */
+        synchronized void throttled(long now, long retryAfter) {
+            waitTime(now);
+            if(now >= decreasedUntil) {
+                rate           = Math.max(permitsPerSecond * MIN_RATE_FRACTION, rate * DECREASE_FACTOR);
+                decreasedUntil = now + (long) (1e9 / rate) + retryAfter;
+            }
+            tokens = Math.min(tokens, 0) - retryAfter * rate / 1e9;
+        }
+
+        /**
+         * Speeds the bucket up after a successful response.
+         */
+        synchronized void succeeded() {
+            if(rate < permitsPerSecond) {
+                waitTime(System.nanoTime());
+                rate = Math.min(permitsPerSecond, rate + permitsPerSecond * INCREASE_FRACTION);
+            }
+        }
+    }
+}
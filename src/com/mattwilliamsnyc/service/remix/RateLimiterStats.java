@@ -0,0 +1,120 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+/**
+ * Point-in-time snapshot of {@link RateLimiter} statistics.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RateLimiterStats {
+    private final long acquiredCount;
+    private final long delayedCount;
+    private final long rejectedCount;
+    private final long throttledCount;
+    private final long totalWaitTime;
+    private final long maxWaitTime;
+    private final int  queueDepth;
+
+    RateLimiterStats(
+            long acquiredCount, long delayedCount, long rejectedCount, long throttledCount, long totalWaitTime,
+            long maxWaitTime, int queueDepth
+    ) {
+        this.acquiredCount  = acquiredCount;
+        this.delayedCount   = delayedCount;
+        this.rejectedCount  = rejectedCount;
+        this.throttledCount = throttledCount;
+        this.totalWaitTime  = totalWaitTime;
+        this.maxWaitTime    = maxWaitTime;
+        this.queueDepth     = queueDepth;
+    }
+
+    /**
+     * Returns the number of calls let through, immediately or after waiting.
+     * 
+     * @return Number of calls let through
+     */
+    public long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    /**
+     * Returns the number of calls that had to wait for a token.
+     * 
+     * @return Number of delayed calls
+     */
+    public long getDelayedCount() {
+        return delayedCount;
+    }
+
+    /**
+     * Returns the number of calls rejected before they were sent.
+     * 
+     * @return Number of rejected calls
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the number of throttling responses received from the API.
+     * 
+     * @return Number of throttling responses
+     */
+    public long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Returns the total time calls spent waiting for a token, in nanoseconds.
+     * 
+     * @return Total wait time in nanoseconds
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * Returns the average time a call let through spent waiting for a token, in nanoseconds.
+     * 
+     * @return Average wait time in nanoseconds; 0 if no calls were let through
+     */
+    public double getAverageWaitTime() {
+        return 0 == acquiredCount ? 0.0 : (double) totalWaitTime / acquiredCount;
+    }
+
+    /**
+     * Returns the longest time a call spent waiting for a token, in nanoseconds.
+     * 
+     * @return Longest wait time in nanoseconds
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Returns the number of calls that were waiting for a token when the snapshot was taken.
+     * 
+     * @return Queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public String toString() {
+        return "RateLimiterStats[acquired=" + acquiredCount + ", delayed=" + delayedCount + ", rejected="
+             + rejectedCount + ", throttled=" + throttledCount + ", totalWaitTime=" + totalWaitTime
+             + "ns, maxWaitTime=" + maxWaitTime + "ns, queueDepth=" + queueDepth + "]";
+    }
+}
@@ -19,13 +19,18 @@ package com.mattwilliamsnyc.service.remix;
  * @version $Id$
  */
 public class RelatedItem extends Entity {
+    /**
+     * Fields of a related item stored in slots
+     */
+    private static final FieldIndex FIELDS = new FieldIndex("sku", "title", "type");
+
     /**
      * Creates a new RelatedItem entity from a document representation.
      * 
      * @param element Root element of a RelatedItem representation
      */
     public RelatedItem(Element element) {
-        super(element);
+        super(element, FIELDS);
     }
 
     /**
@@ -12,21 +12,44 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.ProtocolException;
-import java.net.URL;
+import java.util.Collections;
 import java.util.Formatter;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.mattwilliamsnyc.service.remix.ResponseCache.Endpoint;
 import com.mattwilliamsnyc.service.remix.util.RemixUtil;
+import com.mattwilliamsnyc.service.remix.util.StringPool;
+import com.mattwilliamsnyc.service.remix.util.TeeInputStream;
 
 /**
  * Client for submitting requests to Best Buy's Remix API.
  * 
+ * Clients are safe to share across threads. Configure one with {@link #builder(String)};
+ * {@link #with(Consumer)} derives a client with different settings (e.g. an extra header) for
+ * particular requests, leaving the original untouched.
+ * 
  * @link    http://remix.bestbuy.com/
  * @author  Matt Williams <matt@mattwilliamsnyc.com>
  * @version $Id$
@@ -57,34 +80,84 @@ public class Remix {
     public static final String VERSION = "1.0.0";
 
     /**
-     * Developer key used to access to the Remix API 
-     */
-    private String apiKey;
-
-    /**
-     * Request headers to be sent with an API call
+     * Configuration of this client; replaced as a whole, never modified
      */
-    private Map<String,String> headers = new HashMap<String,String>();
+    private volatile Settings settings;
 
     /**
-     * Creates a new Remix API client.
+     * Creates a new Remix API client with the default configuration.
      * 
      * API keys may be obtained after registering for a developer account with Best Buy.
      * 
      * @param apiKey Identifier used to authenticate API requests
+     * @see   #builder(String)
      */
     public Remix(String apiKey) {
-        this.apiKey = apiKey;
+        this(new Builder(apiKey));
+    }
+
+    /**
+     * Creates a new Remix API client from a builder's configuration.
+     * 
+     * @param builder Client configuration
+     */
+    private Remix(Builder builder) {
+        settings = new Settings(builder);
+    }
+
+    /**
+     * Starts configuring a new Remix API client.
+     * 
+     * Clients built this way are immutable and may be shared by any number of threads; use
+     * {@link #with(Consumer)} to vary the configuration of individual requests.
+     * 
+     * @param  apiKey Identifier used to authenticate API requests
+     * @return Client builder
+     */
+    public static Builder builder(String apiKey) {
+        return new Builder(apiKey);
+    }
+
+    /**
+     * Derives a client whose configuration differs from this one's, e.g. to send an extra header
+     * or use another API key for some requests.
+     * 
+     * The derived client shares this client's transport, caches and coalescer unless they are
+     * overridden; neither this client nor any map passed to it is modified.
+     * 
+     * @param  overrides Applies the changes to a copy of this client's configuration
+     * @return Derived client
+     */
+    public Remix with(Consumer<Builder> overrides) {
+        Builder builder = new Builder(settings);
+        overrides.accept(builder);
+        return new Remix(builder);
+    }
+
+    /**
+     * Replaces this client's configuration with a modified copy.
+     * 
+     * Requests already started keep the configuration they started with.
+     * 
+     * @param  change Applies the changes to a copy of the current configuration
+     * @return Provides a fluent interface.
+     */
+    private synchronized Remix update(Consumer<Builder> change) {
+        Builder builder = new Builder(settings);
+        change.accept(builder);
+        settings = new Settings(builder);
+        return this;
     }
 
     /**
      * Clears HTTP request headers.
      * 
      * @return Provides a fluent interface.
+     * @deprecated Configure headers through {@link #builder(String)} or {@link #with(Consumer)}
      */
+    @Deprecated
     public Remix clearHeaders() {
-        headers.clear();
-        return this;
+        return update(Builder::clearHeaders);
     }
 
     /**
@@ -119,7 +192,39 @@ public class Remix {
      */
     public ProductResponse getProduct(String sku, Map<String,String> params) throws RemixException {
         String uri = new Formatter().format(PATH_PRODUCT, sku).toString();
-        return new ProductResponse(query("GET", uri, params));
+        return query(uri, params, ProductResponse::new);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "product" resource, targeted by SKU #.
+     * 
+     * @param  sku SKU # used to identify the product resource being retrieved
+     * @return Future API response
+     */
+    public CompletableFuture<ProductResponse> getProductAsync(int sku) {
+        return getProductAsync(String.valueOf(sku), null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "product" resource, targeted by SKU #.
+     * 
+     * @param  sku SKU # used to identify the product resource being retrieved
+     * @return Future API response
+     */
+    public CompletableFuture<ProductResponse> getProductAsync(String sku) {
+        return getProductAsync(sku, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "product" resource, targeted by SKU #.
+     * 
+     * @param  sku    SKU # used to identify the product resource being retrieved
+     * @param  params Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<ProductResponse> getProductAsync(String sku, Map<String,String> params) {
+        String uri = new Formatter().format(PATH_PRODUCT, sku).toString();
+        return queryAsync(uri, params, ProductResponse::new);
     }
 
     /**
@@ -164,7 +269,147 @@ public class Remix {
      */
     public ProductsResponse getProducts(List<String> filters, Map<String,String> params) throws RemixException {
         String uri = PATH_PRODUCTS + RemixUtil.buildFilterString(filters);
-        return new ProductsResponse(query("GET", uri, params));
+        return query(uri, params, ProductsResponse::new);
+    }
+
+    /**
+     * Makes an API call to the "products" collection resource, handing each product to a consumer as
+     * soon as it has been parsed.
+     * 
+     * The response body is parsed as it arrives and products are not retained, so memory use stays
+     * constant per product even for large page sizes. The returned response carries only the paging
+     * attributes. Streaming calls bypass the response caches and request coalescing.
+     * 
+     * @param  filters  List of filters to be applied to the products collection
+     * @param  params   Query string parameters
+     * @param  consumer Receives each product, in document order, on the calling thread
+     * @return API response without products
+     * @throws RemixException 
+     */
+    public ProductsResponse getProducts(List<String> filters, Map<String,String> params, final Consumer<? super Product> consumer)
+            throws RemixException {
+        String uri = PATH_PRODUCTS + RemixUtil.buildFilterString(filters);
+        return queryStreaming(
+            uri, params, (responseCode, httpHeaders, body) -> new ProductsResponse(responseCode, httpHeaders, body, consumer)
+        );
+    }
+
+    /**
+     * Asynchronously makes an API call to the "products" collection resource.
+     * 
+     * @return Future API response
+     */
+    public CompletableFuture<ProductsResponse> getProductsAsync() {
+        return getProductsAsync(null, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "products" collection resource.
+     * 
+     * @param  filters List of filters to be applied to the products collection
+     * @return Future API response
+     */
+    public CompletableFuture<ProductsResponse> getProductsAsync(List<String> filters) {
+        return getProductsAsync(filters, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "products" collection resource.
+     * 
+     * @param  params Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<ProductsResponse> getProductsAsync(Map<String,String> params) {
+        return getProductsAsync(null, params);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "products" collection resource.
+     * 
+     * @param  filters List of filters to be applied to the products collection
+     * @param  params  Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<ProductsResponse> getProductsAsync(List<String> filters, Map<String,String> params) {
+        String uri = PATH_PRODUCTS + RemixUtil.buildFilterString(filters);
+        return queryAsync(uri, params, ProductsResponse::new);
+    }
+
+    /**
+     * Retrieves every page of a "products" collection result set.
+     * 
+     * Pages after the first are fetched concurrently ({@value PageFetcher#DEFAULT_PARALLELISM} at a
+     * time); each page that failed transiently is retried, by the client's {@link RetryPolicy} if
+     * one is configured.
+     * 
+     * @param  filters List of filters to be applied to the products collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Products of all pages, in page order
+     * @throws RemixException Thrown if a page could not be retrieved
+     */
+    public List<Product> fetchAllProducts(List<String> filters, Map<String,String> params) throws RemixException {
+        return fetchAllProducts(filters, params, PageFetcher.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Retrieves every page of a "products" collection result set.
+     * 
+     * @param  filters     List of filters to be applied to the products collection
+     * @param  params      Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @param  parallelism Maximum number of pages fetched concurrently
+     * @return Products of all pages, in page order
+     * @throws RemixException Thrown if a page could not be retrieved
+     */
+    public List<Product> fetchAllProducts(List<String> filters, Map<String,String> params, int parallelism)
+            throws RemixException {
+        return await(fetchAllProductsAsync(filters, params, parallelism));
+    }
+
+    /**
+     * Asynchronously retrieves every page of a "products" collection result set.
+     * 
+     * @param  filters     List of filters to be applied to the products collection
+     * @param  params      Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @param  parallelism Maximum number of pages fetched concurrently
+     * @return Future products of all pages, in page order
+     */
+    public CompletableFuture<List<Product>> fetchAllProductsAsync(
+            final List<String> filters, Map<String,String> params, int parallelism
+    ) {
+        Settings config = settings;
+        return new PageFetcher<ProductsResponse,Product>(
+            query -> getProductsAsync(filters, query), ProductsResponse::list, params, parallelism,
+            null == config.retryPolicy ? PageFetcher.DEFAULT_RETRY_POLICY : null, config.executor
+        ).fetch();
+    }
+
+    /**
+     * Streams the products of every page of a "products" collection result set.
+     * 
+     * Pages are requested one at a time, each while the previous one is being consumed; close the
+     * stream to abandon the page being prefetched. A page that cannot be retrieved ends the stream
+     * with a {@link java.util.concurrent.CompletionException} whose cause is the {@link RemixException}.
+     * 
+     * @param  filters List of filters to be applied to the products collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Lazy stream of products, in page order
+     */
+    public Stream<Product> streamProducts(final List<String> filters, Map<String,String> params) {
+        return stream(new PageIterator<ProductsResponse,Product>(
+            query -> getProductsAsync(filters, query), ProductsResponse::list, params
+        ));
+    }
+
+    /**
+     * Iterates over the products of every page of a "products" collection result set.
+     * 
+     * @param  filters List of filters to be applied to the products collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Lazy iterator over products, in page order
+     * @see    #streamProducts(List, Map)
+     */
+    public Iterator<Product> iterateProducts(final List<String> filters, Map<String,String> params) {
+        return new PageIterator<ProductsResponse,Product>(query -> getProductsAsync(filters, query), ProductsResponse::list, params);
     }
 
     /**
@@ -199,7 +444,39 @@ public class Remix {
      */
     public StoreResponse getStore(String storeId, Map<String,String> params) throws RemixException {
         String uri = new Formatter().format(PATH_STORE, storeId).toString();
-        return new StoreResponse(query("GET", uri, params));
+        return query(uri, params, StoreResponse::new);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "store" resource, targeted by Store ID.
+     * 
+     * @param  storeId Identifier for the store resource being retrieved
+     * @return Future API response
+     */
+    public CompletableFuture<StoreResponse> getStoreAsync(int storeId) {
+        return getStoreAsync(String.valueOf(storeId), null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "store" resource, targeted by Store ID.
+     * 
+     * @param  storeId Identifier for the store resource being retrieved
+     * @return Future API response
+     */
+    public CompletableFuture<StoreResponse> getStoreAsync(String storeId) {
+        return getStoreAsync(storeId, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "store" resource, targeted by Store ID.
+     * 
+     * @param  storeId Identifier for the store resource being retrieved
+     * @param  params  Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<StoreResponse> getStoreAsync(String storeId, Map<String,String> params) {
+        String uri = new Formatter().format(PATH_STORE, storeId).toString();
+        return queryAsync(uri, params, StoreResponse::new);
     }
 
     /**
@@ -244,7 +521,147 @@ public class Remix {
      */
     public StoresResponse getStores(List<String> filters, Map<String,String> params) throws RemixException {
         String uri = PATH_STORES + RemixUtil.buildFilterString(filters);
-        return new StoresResponse(query("GET", uri, params));
+        return query(uri, params, StoresResponse::new);
+    }
+
+    /**
+     * Makes an API call to the "stores" collection resource, handing each store to a consumer as
+     * soon as it has been parsed.
+     * 
+     * The response body is parsed as it arrives and stores are not retained, so memory use stays
+     * constant per store even for large page sizes. The returned response carries only the paging
+     * attributes. Streaming calls bypass the response caches and request coalescing.
+     * 
+     * @param  filters  List of filters to be applied to the stores collection
+     * @param  params   Query string parameters
+     * @param  consumer Receives each store, in document order, on the calling thread
+     * @return API response without stores
+     * @throws RemixException 
+     */
+    public StoresResponse getStores(List<String> filters, Map<String,String> params, final Consumer<? super Store> consumer)
+            throws RemixException {
+        String uri = PATH_STORES + RemixUtil.buildFilterString(filters);
+        return queryStreaming(
+            uri, params, (responseCode, httpHeaders, body) -> new StoresResponse(responseCode, httpHeaders, body, consumer)
+        );
+    }
+
+    /**
+     * Asynchronously makes an API call to the "stores" collection resource.
+     * 
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoresAsync() {
+        return getStoresAsync(null, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "stores" collection resource.
+     * 
+     * @param  filters List of filters to be applied to the stores collection
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoresAsync(List<String> filters) {
+        return getStoresAsync(filters, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "stores" collection resource.
+     * 
+     * @param  params Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoresAsync(Map<String,String> params) {
+        return getStoresAsync(null, params);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "stores" collection resource.
+     * 
+     * @param  filters List of filters to be applied to the stores collection
+     * @param  params  Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoresAsync(List<String> filters, Map<String,String> params) {
+        String uri = PATH_STORES + RemixUtil.buildFilterString(filters);
+        return queryAsync(uri, params, StoresResponse::new);
+    }
+
+    /**
+     * Retrieves every page of a "stores" collection result set.
+     * 
+     * Pages after the first are fetched concurrently ({@value PageFetcher#DEFAULT_PARALLELISM} at a
+     * time); each page that failed transiently is retried, by the client's {@link RetryPolicy} if
+     * one is configured.
+     * 
+     * @param  filters List of filters to be applied to the stores collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Stores of all pages, in page order
+     * @throws RemixException Thrown if a page could not be retrieved
+     */
+    public List<Store> fetchAllStores(List<String> filters, Map<String,String> params) throws RemixException {
+        return fetchAllStores(filters, params, PageFetcher.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Retrieves every page of a "stores" collection result set.
+     * 
+     * @param  filters     List of filters to be applied to the stores collection
+     * @param  params      Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @param  parallelism Maximum number of pages fetched concurrently
+     * @return Stores of all pages, in page order
+     * @throws RemixException Thrown if a page could not be retrieved
+     */
+    public List<Store> fetchAllStores(List<String> filters, Map<String,String> params, int parallelism)
+            throws RemixException {
+        return await(fetchAllStoresAsync(filters, params, parallelism));
+    }
+
+    /**
+     * Asynchronously retrieves every page of a "stores" collection result set.
+     * 
+     * @param  filters     List of filters to be applied to the stores collection
+     * @param  params      Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @param  parallelism Maximum number of pages fetched concurrently
+     * @return Future stores of all pages, in page order
+     */
+    public CompletableFuture<List<Store>> fetchAllStoresAsync(
+            final List<String> filters, Map<String,String> params, int parallelism
+    ) {
+        Settings config = settings;
+        return new PageFetcher<StoresResponse,Store>(
+            query -> getStoresAsync(filters, query), StoresResponse::list, params, parallelism,
+            null == config.retryPolicy ? PageFetcher.DEFAULT_RETRY_POLICY : null, config.executor
+        ).fetch();
+    }
+
+    /**
+     * Streams the stores of every page of a "stores" collection result set.
+     * 
+     * Pages are requested one at a time, each while the previous one is being consumed; close the
+     * stream to abandon the page being prefetched. A page that cannot be retrieved ends the stream
+     * with a {@link java.util.concurrent.CompletionException} whose cause is the {@link RemixException}.
+     * 
+     * @param  filters List of filters to be applied to the stores collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Lazy stream of stores, in page order
+     */
+    public Stream<Store> streamStores(final List<String> filters, Map<String,String> params) {
+        return stream(new PageIterator<StoresResponse,Store>(
+            query -> getStoresAsync(filters, query), StoresResponse::list, params
+        ));
+    }
+
+    /**
+     * Iterates over the stores of every page of a "stores" collection result set.
+     * 
+     * @param  filters List of filters to be applied to the stores collection
+     * @param  params  Query string parameters (e.g. "pageSize", "show"); "page" is set per call
+     * @return Lazy iterator over stores, in page order
+     * @see    #streamStores(List, Map)
+     */
+    public Iterator<Store> iterateStores(final List<String> filters, Map<String,String> params) {
+        return new PageIterator<StoresResponse,Store>(query -> getStoresAsync(filters, query), StoresResponse::list, params);
     }
 
     /**
@@ -275,7 +692,36 @@ public class Remix {
     ) throws RemixException {
         String uri = PATH_STORES   + RemixUtil.buildFilterString(storeFilters) + "+" +
                      PATH_PRODUCTS + RemixUtil.buildFilterString(productFilters);
-        return new StoresResponse(query("GET", uri, params));
+        return query(uri, params, StoresResponse::new);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "store availability" collection resource.
+     * 
+     * @param  storeFilters   List of filters to be applied to the stores resource
+     * @param  productFilters List of filters to be applied to the products resource 
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoreAvailabilityAsync(
+            List<String> storeFilters, List<String> productFilters
+    ) {
+        return getStoreAvailabilityAsync(storeFilters, productFilters, null);
+    }
+
+    /**
+     * Asynchronously makes an API call to the "store availability" collection resource.
+     * 
+     * @param  storeFilters   List of filters to be applied to the stores resource
+     * @param  productFilters List of filters to be applied to the products resource 
+     * @param  params         Query string parameters
+     * @return Future API response
+     */
+    public CompletableFuture<StoresResponse> getStoreAvailabilityAsync(
+            List<String> storeFilters, List<String> productFilters, Map<String,String> params
+    ) {
+        String uri = PATH_STORES   + RemixUtil.buildFilterString(storeFilters) + "+" +
+                     PATH_PRODUCTS + RemixUtil.buildFilterString(productFilters);
+        return queryAsync(uri, params, StoresResponse::new);
     }
 
     /**
@@ -284,10 +730,11 @@ public class Remix {
      * @param  name  Name of the request header being set
      * @param  value Value of the request header being set
      * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#header(String, String)}, or {@link #with(Consumer)} for some requests
      */
-    public Remix setHeader(String name, String value) {
-        headers.put(name, value);
-        return this;
+    @Deprecated
+    public Remix setHeader(final String name, final String value) {
+        return update(builder -> builder.header(name, value));
     }
 
     /**
@@ -295,43 +742,1041 @@ public class Remix {
      *  
      * @param  headers Parameters to be assigned
      * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#headers(Map)}, or {@link #with(Consumer)} for some requests
      */
-    public Remix setHeaders(Map<String, String> headers) {
-        for(String key : headers.keySet()) {
-            setHeader(key, headers.get(key));
-        }
-        return this;
+    @Deprecated
+    public Remix setHeaders(final Map<String, String> headers) {
+        return update(builder -> builder.headers(headers));
+    }
+
+    /**
+     * Selects the wire format requested from the API.
+     * 
+     * @param  format Wire format requested from the API
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#format(ResponseFormat)}
+     */
+    @Deprecated
+    public Remix setFormat(final ResponseFormat format) {
+        return update(builder -> builder.format(format));
+    }
+
+    /**
+     * Selects the in-memory representation into which responses are parsed.
+     * 
+     * @param  documentModel In-memory representation of response documents
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#documentModel(DocumentModel)}
+     */
+    @Deprecated
+    public Remix setDocumentModel(final DocumentModel documentModel) {
+        return update(builder -> builder.documentModel(documentModel));
+    }
+
+    /**
+     * Assigns the executor on which asynchronous responses are parsed.
+     * 
+     * @param  executor Executor used to parse asynchronous responses
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#executor(Executor)}
+     */
+    @Deprecated
+    public Remix setExecutor(final Executor executor) {
+        return update(builder -> builder.executor(executor));
+    }
+
+    /**
+     * Assigns the transport used to carry API requests.
+     * 
+     * @param  transport Transport used to carry API requests
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#transport(Transport)}
+     */
+    @Deprecated
+    public Remix setTransport(final Transport transport) {
+        return update(builder -> builder.transport(transport));
+    }
+
+    /**
+     * Enables coalescing of concurrent identical requests; pass null to disable it (the default).
+     * 
+     * @param  coalescer Coalescer shared by this client's requests
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#coalescer(RequestCoalescer)}
+     */
+    @Deprecated
+    public Remix setCoalescer(final RequestCoalescer coalescer) {
+        return update(builder -> builder.coalescer(coalescer));
+    }
+
+    /**
+     * Enables caching of parsed responses; pass null to disable it (the default).
+     * 
+     * @param  cache Cache shared by this client's requests
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#cache(ResponseCache)}
+     */
+    @Deprecated
+    public Remix setCache(final ResponseCache cache) {
+        return update(builder -> builder.cache(cache));
     }
 
     /**
-     * Makes an HTTP request and returns the {@link HTTPURLConnection connection}.
+     * Enables the persistent response cache; pass null to disable it (the default).
+     * 
+     * @param  diskCache Disk cache shared by this client's requests
+     * @return Provides a fluent interface.
+     * @deprecated Use {@link Builder#diskCache(DiskResponseCache)}
+     */
+    @Deprecated
+    public Remix setDiskCache(final DiskResponseCache diskCache) {
+        return update(builder -> builder.diskCache(diskCache));
+    }
+
+    /**
+     * Makes a blocking HTTP GET request and parses the response as it is read.
+     * 
+     * @param  uri     Resource URI targeted by this request
+     * @param  params  Query string parameters
+     * @param  constructor Creates the typed response from the HTTP exchange
+     * @return API response
+     * @throws RemixException
+     */
+    private <T extends Response> T query(String uri, Map<String,String> params, ResponseConstructor<T> constructor)
+            throws RemixException {
+        Settings config = settings;
+        return await(dispatch(config, uri, params, factory(constructor, config), true));
+    }
+
+    /**
+     * Makes a blocking HTTP GET request straight to the transport, bypassing the response caches and
+     * request coalescing.
+     * 
+     * Failed requests are not retried, since entities may already have been handed to the consumer.
      * 
-     * @param  method HTTP method for this request
-     * @param  uri    Resource URI targeted by this request
-     * @return HTTP Connection
+     * @param  uri     Resource URI targeted by this request
+     * @param  params  Query string parameters
+     * @param  factory Creates the typed response from the HTTP exchange
+     * @return API response
      * @throws RemixException
      */
-    private HttpURLConnection query(String method, String uri, Map<String,String> params) throws RemixException {
-        HttpURLConnection connection;
+    private <T extends Response> T queryStreaming(String uri, Map<String,String> params, ResponseFactory<T> factory)
+            throws RemixException {
+        Settings config = settings;
+        return await(send(
+            config, createRequest(config, uri, params), Endpoint.of(uri), pooled(factory, config.stringPool), null,
+            null, true
+        ));
+    }
+
+    /**
+     * Makes a non-blocking HTTP GET request; the response is parsed on this client's {@link Executor}.
+     * 
+     * Failures complete the returned future exceptionally with a {@link RemixException} cause.
+     * 
+     * @param  uri     Resource URI targeted by this request
+     * @param  params  Query string parameters
+     * @param  constructor Creates the typed response from the completed HTTP exchange
+     * @return Future API response
+     */
+    private <T extends Response> CompletableFuture<T> queryAsync(
+            String uri, Map<String,String> params, ResponseConstructor<T> constructor
+    ) {
+        Settings config = settings;
+        return dispatch(config, uri, params, factory(constructor, config), false);
+    }
+
+    /**
+     * Answers a request from the memory cache, or loads it (once, if coalescing is enabled).
+     * 
+     * Stale or hot cache entries are served immediately while the cache refreshes them in the
+     * background.
+     * 
+     * A blocking dispatch runs every stage on the calling thread and returns a completed future; a
+     * non-blocking dispatch never blocks the calling thread.
+     * 
+     * @param  config   Client configuration the request started with
+     * @param  uri      Resource URI targeted by this request
+     * @param  params   Query string parameters
+     * @param  factory  Creates the typed response from the HTTP exchange
+     * @param  blocking Whether to run on the calling thread
+     * @return Future API response
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Response> CompletableFuture<T> dispatch(
+            final Settings config, String uri, Map<String,String> params, final ResponseFactory<T> factory,
+            final boolean blocking
+    ) {
+        final TransportRequest request;
         try {
-            if(null == params) {
-                params = new HashMap<String,String>();
+            request = createRequest(config, uri, params);
+        } catch (RemixException e) {
+            return failed(e);
+        }
+        final String              key      = request.getUri().toString();
+        final Endpoint            endpoint = Endpoint.of(uri);
+        final ResponseCache       cache    = config.cache;
+        final ResponseCache.Entry cached   = null == cache ? null : cache.lookup(key);
+        if(null != cached && cached.isServable()) {
+            cache.refreshIfNeeded(
+                cached, () -> coalesce(config, key, loader(config, request, key, endpoint, factory, cache, cached, true))
+                    .exceptionally(e -> null).join()
+            );
+            return CompletableFuture.completedFuture((T) cached.getResponse());
+        }
+        return coalesce(config, key, loader(config, request, key, endpoint, factory, cache, cached, blocking));
+    }
+
+    /**
+     * Creates a loader fetching a response and recording it in the memory cache.
+     * 
+     * @param  config   Client configuration the request started with
+     * @param  request  Request to be executed
+     * @param  key      Normalized request URL
+     * @param  endpoint Endpoint the request is addressed to
+     * @param  factory  Creates the typed response from the HTTP exchange
+     * @param  cache    Memory cache to be updated; null if there is none
+     * @param  cached   Memory cache entry to be revalidated or refreshed; null if there is none
+     * @param  blocking Whether to run on the calling thread
+     * @return Loader
+     */
+    private <T extends Response> Supplier<CompletableFuture<T>> loader(
+            final Settings config, final TransportRequest request, final String key, final Endpoint endpoint,
+            final ResponseFactory<T> factory, final ResponseCache cache, final ResponseCache.Entry cached,
+            final boolean blocking
+    ) {
+        return () -> {
+            final long start = System.nanoTime();
+            CompletableFuture<T> response = load(config, request, key, endpoint, factory, cached, blocking);
+            if(null != cache) {
+                response = response.thenApply(r -> {
+                    cacheLoaded(cache, key, endpoint, cached, r, System.nanoTime() - start);
+                    return r;
+                });
+            }
+            return response;
+        };
+    }
+
+    /**
+     * Runs a loader, sharing its result with identical calls in flight if a coalescer is set.
+     * 
+     * @param  config Client configuration the request started with
+     * @param  key    Normalized request URL
+     * @param  loader Loads the response
+     * @return Future API response
+     */
+    private static <T extends Response> CompletableFuture<T> coalesce(
+            Settings config, String key, Supplier<CompletableFuture<T>> loader
+    ) {
+        RequestCoalescer requestCoalescer = config.coalescer;
+        return null == requestCoalescer ? loader.get() : requestCoalescer.execute(key, loader);
+    }
+
+    /**
+     * Loads a response from the disk cache or the API, falling back to an expired disk entry if the
+     * API is unavailable and offline fallback is enabled.
+     * 
+     * @param  config   Client configuration the request started with
+     * @param  request  Request to be executed
+     * @param  key      Normalized request URL
+     * @param  endpoint Endpoint the request is addressed to
+     * @param  factory  Creates the typed response from the HTTP exchange
+     * @param  cached   Memory cache entry to be revalidated or refreshed; null if there is none
+     * @param  blocking Whether to run on the calling thread
+     * @return Future API response
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Response> CompletableFuture<T> load(
+            final Settings config, TransportRequest request, final String key, Endpoint endpoint,
+            final ResponseFactory<T> factory, ResponseCache.Entry cached, final boolean blocking
+    ) {
+        final DiskResponseCache disk = config.diskCache;
+        if(null == disk) {
+            return null == cached
+                ? fetch(config, request, endpoint, factory, null, null, blocking)
+                : fetch(config, cached.conditional(request), endpoint, factory, () -> (T) cached.getResponse(), null, blocking);
+        }
+
+        final DiskResponseCache.Entry stored = null == cached ? disk.read(key) : null;
+        final Parser<T> storedResponse = null == stored
+            ? null : () -> factory.create(stored.getStatusCode(), stored.getHeaders(), stored.openBody());
+        if(null != stored && stored.isFresh()) {
+            return parse(config, storedResponse, blocking);
+        }
+        CompletableFuture<T> response;
+        if(null != cached) {
+            response = fetch(
+                config, cached.conditional(request), endpoint, factory, () -> (T) cached.getResponse(), disk, blocking
+            );
+        } else if(null != stored && stored.isRevalidatable()) {
+            // An expired entry the API confirms unchanged is renewed rather than downloaded again
+            response = fetch(config, stored.conditional(request), endpoint, factory, () -> {
+                disk.renew(key, stored);
+                return storedResponse.parse();
+            }, disk, blocking);
+        } else {
+            response = fetch(config, request, endpoint, factory, null, disk, blocking);
+        }
+        if(!disk.isOfflineFallback()) {
+            return response;
+        }
+        return response.handle((r, e) -> {
+            if(null == e && HttpURLConnection.HTTP_INTERNAL_ERROR > r.getResponseCode()) {
+                return CompletableFuture.completedFuture(r);
+            }
+            DiskResponseCache.Entry fallback = null == stored ? disk.read(key) : stored;
+            if(null == fallback) {
+                return null == e ? CompletableFuture.completedFuture(r) : CompletableFuture.<T>failedFuture(e);
+            }
+            disk.recordFallback();
+            return parse(
+                config, () -> factory.create(fallback.getStatusCode(), fallback.getHeaders(), fallback.openBody()),
+                blocking
+            );
+        }).thenCompose(r -> r);
+    }
+
+    /**
+     * Records a loaded response in the cache; a response identical to the revalidated entry's means
+     * the API answered "304 Not Modified".
+     * 
+     * @param cache    Response cache
+     * @param key      Normalized request URL
+     * @param endpoint Endpoint the response was loaded from
+     * @param cached   Entry that was revalidated; null if the request was unconditional
+     * @param response Loaded response
+     * @param loadTime Time spent loading the response, in nanoseconds
+     */
+    private static void cacheLoaded(
+            ResponseCache cache, String key, Endpoint endpoint, ResponseCache.Entry cached, Response response, long loadTime
+    ) {
+        if(null != cached && cached.getResponse() == response) {
+            cache.revalidated(key, endpoint, cached, loadTime);
+        } else {
+            cache.put(key, endpoint, response, loadTime);
+        }
+    }
+
+    /**
+     * Executes a request and parses the response, retrying transient failures if a {@link RetryPolicy}
+     * is configured.
+     * 
+     * @param  config      Client configuration the request started with
+     * @param  request     Request to be executed
+     * @param  endpoint    Endpoint the request is addressed to
+     * @param  factory     Creates the typed response from the HTTP exchange
+     * @param  notModified Produces the response, without reading the body, if the API answers "304 Not Modified"
+     * @param  disk        Disk cache receiving a copy of successful response bodies; may be null
+     * @param  blocking    Whether to run on the calling thread
+     * @return Future API response
+     */
+    private static <T extends Response> CompletableFuture<T> fetch(
+            final Settings config, final TransportRequest request, final Endpoint endpoint,
+            final ResponseFactory<T> factory, final Parser<T> notModified, final DiskResponseCache disk, final boolean blocking
+    ) {
+        RetryPolicy policy = config.retryPolicy;
+        if(null == policy) {
+            return send(config, request, endpoint, factory, notModified, disk, blocking);
+        }
+        policy.called();
+        Supplier<CompletableFuture<T>> call =
+            () -> send(config, request, endpoint, factory, notModified, disk, blocking);
+        return blocking ? retryBlocking(policy, call) : retry(config, policy, call, 1);
+    }
+
+    /**
+     * Places a call on the calling thread until it succeeds, fails permanently or may no longer be
+     * retried, sleeping between attempts.
+     * 
+     * @param  policy Retry policy
+     * @param  call   Places the call and returns its completed future
+     * @return Completed future of the last attempt
+     */
+    private static <T extends Response> CompletableFuture<T> retryBlocking(
+            RetryPolicy policy, Supplier<CompletableFuture<T>> call
+    ) {
+        for(int attempt = 1; ; ++attempt) {
+            CompletableFuture<T> response = call.get();
+            T         result  = null;
+            Throwable failure = null;
+            try {
+                result = response.join();
+            } catch (CompletionException e) {
+                failure = e.getCause();
+            }
+            long delay = policy.retryDelay(attempt, result, failure);
+            if(0 > delay) {
+                return response;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return response;
             }
-            params.put("apiKey", apiKey);
-            URL url = new URL(ENTRY_POINT + uri + RemixUtil.buildQueryString(params));
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod(method);
-            connection.addRequestProperty("User-Agent", USER_AGENT + " v" + VERSION);
-            for(String key : headers.keySet()) {
-                connection.addRequestProperty(key, headers.get(key));
+        }
+    }
+
+    /**
+     * Places a call until it succeeds, fails permanently or may no longer be retried, without
+     * blocking; retries are scheduled on the configured {@link Executor} after their delay.
+     * 
+     * @param  config  Client configuration the request started with
+     * @param  policy  Retry policy
+     * @param  call    Places the call
+     * @param  attempt Number of this attempt, starting at 1
+     * @return Future outcome of the last attempt
+     */
+    private static <T extends Response> CompletableFuture<T> retry(
+            final Settings config, final RetryPolicy policy, final Supplier<CompletableFuture<T>> call,
+            final int attempt
+    ) {
+        return call.get().handle((response, e) -> {
+            long delay = policy.retryDelay(attempt, response, e);
+            if(0 > delay) {
+                return null == e ? CompletableFuture.completedFuture(response) : CompletableFuture.<T>failedFuture(e);
             }
-        } catch (MalformedURLException e) {
-            throw new RemixException("Invalid URL", e);
-        } catch (ProtocolException e) {
-            throw new RemixException("Invalid request protocol", e);
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, config.executor);
+            return CompletableFuture.supplyAsync(() -> retry(config, policy, call, attempt + 1), delayed)
+                .thenCompose(next -> next);
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Executes a request and parses the response, either on the calling thread (reading the body as
+     * it arrives) or without blocking (parsing on the configured {@link Executor}).
+     * 
+     * If a {@link RateLimiter} is configured, the request first waits for (or is refused) a token,
+     * and the limiter then adapts to the response. If a {@link HedgingPolicy} is configured, a slow
+     * request is sent a second time and the first response is used.
+     * 
+     * @param  config      Client configuration the request started with
+     * @param  request     Request to be executed
+     * @param  endpoint    Endpoint the request is addressed to
+     * @param  factory     Creates the typed response from the HTTP exchange
+     * @param  notModified Produces the response, without reading the body, if the API answers "304 Not Modified"
+     * @param  disk        Disk cache receiving a copy of successful response bodies; may be null
+     * @param  blocking    Whether to run on the calling thread
+     * @return Future API response
+     */
+    private static <T extends Response> CompletableFuture<T> send(
+            final Settings config, final TransportRequest request, final Endpoint endpoint,
+            final ResponseFactory<T> factory, final Parser<T> notModified, final DiskResponseCache disk, boolean blocking
+    ) {
+        final RateLimiter   limiter = config.rateLimiter;
+        final HedgingPolicy hedging = config.hedgingPolicy;
+        final BooleanSupplier permit = null == limiter ? () -> true : () -> limiter.tryAcquire(config.apiKey, endpoint);
+        if(blocking) {
+            TransportResponse response;
+            try {
+                if(null != limiter) {
+                    limiter.acquire(config.apiKey, endpoint);
+                }
+                response = null == hedging
+                    ? config.transport().execute(request)
+                    : hedging.executeBlocking(config.transport(), request, endpoint, permit, config.executor);
+            } catch (RemixException e) {
+                return failed(e);
+            } catch (IOException e) {
+                return failed(new RemixException("IO Error: Please try again", e));
+            }
+            try {
+                T parsed = read(request, response, factory, notModified, disk);
+                if(null != limiter) {
+                    limiter.record(config.apiKey, endpoint, parsed);
+                }
+                return CompletableFuture.completedFuture(parsed);
+            } catch (RemixException e) {
+                return failed(e);
+            } finally {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    // The response has already been parsed; the connection is simply not reused
+                }
+            }
+        }
+
+        Supplier<CompletableFuture<TransportResponse>> call = null == hedging
+            ? () -> config.transport().executeAsync(request)
+            : () -> hedging.execute(config.transport(), request, endpoint, permit, config.executor);
+        CompletableFuture<TransportResponse> sent = null == limiter
+            ? call.get()
+            : limiter.acquireAsync(config.apiKey, endpoint, config.executor).thenCompose(acquired -> call.get());
+        return sent
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+                throw new CompletionException(
+                    cause instanceof Exception && !(cause instanceof RemixException)
+                        ? new RemixException("IO Error: Please try again", (Exception) cause) : cause
+                );
+            })
+            .thenApplyAsync(response -> {
+                try {
+                    T parsed = read(request, response, factory, notModified, disk);
+                    if(null != limiter) {
+                        limiter.record(config.apiKey, endpoint, parsed);
+                    }
+                    return parsed;
+                } catch (RemixException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        // The response has already been parsed; the connection is simply not reused
+                    }
+                }
+            }, config.executor);
+    }
+
+    /**
+     * Parses a transport response, copying successful bodies to the disk cache.
+     * 
+     * @param  request     Request that was executed
+     * @param  response    Response to the request
+     * @param  factory     Creates the typed response from the HTTP exchange
+     * @param  notModified Produces the response, without reading the body, if the API answered "304 Not Modified"
+     * @param  disk        Disk cache receiving a copy of successful response bodies; may be null
+     * @return API response
+     * @throws RemixException Thrown if the response could not be parsed
+     */
+    private static <T extends Response> T read(
+            TransportRequest request, TransportResponse response, ResponseFactory<T> factory, Parser<T> notModified,
+            DiskResponseCache disk
+    ) throws RemixException {
+        int status = response.getStatusCode();
+        if(null != notModified && HttpURLConnection.HTTP_NOT_MODIFIED == status) {
+            return notModified.parse();
+        }
+        if(null == disk || HttpURLConnection.HTTP_OK != status) {
+            return factory.create(status, response.getHeaders(), response.getBody());
+        }
+        ByteArrayOutputStream raw  = new ByteArrayOutputStream();
+        TeeInputStream        body = new TeeInputStream(response.getBody(), raw);
+        T parsed = factory.create(status, response.getHeaders(), body);
+        try {
+            body.close();
         } catch (IOException e) {
-            throw new RemixException("IO Error: Please try again", e);
+            // Incomplete copy; not stored below
+        }
+        if(body.isComplete()) {
+            disk.write(request.getUri().toString(), status, response.getHeaders(), raw.toByteArray());
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a response on the calling thread, or on the configured {@link Executor}.
+     * 
+     * @param  config   Client configuration the request started with
+     * @param  parser   Produces the parsed response
+     * @param  blocking Whether to parse on the calling thread
+     * @return Future API response
+     */
+    private static <T extends Response> CompletableFuture<T> parse(
+            Settings config, final Parser<T> parser, boolean blocking
+    ) {
+        if(blocking) {
+            try {
+                return CompletableFuture.completedFuture(parser.parse());
+            } catch (RemixException e) {
+                return failed(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return parser.parse();
+            } catch (RemixException e) {
+                throw new CompletionException(e);
+            }
+        }, config.executor);
+    }
+
+    /**
+     * Builds a GET request for a resource URI, carrying the configured headers.
+     * 
+     * @param  config Client configuration the request started with
+     * @param  uri    Resource URI targeted by the request
+     * @param  params Query string parameters
+     * @return Transport request
+     * @throws RemixException Thrown if the request URL is malformed
+     */
+    private static TransportRequest createRequest(Settings config, String uri, Map<String,String> params)
+            throws RemixException {
+        Map<String,String> requestHeaders = new LinkedHashMap<String,String>();
+        requestHeaders.put("User-Agent", USER_AGENT + " v" + VERSION);
+        requestHeaders.put("Accept-Encoding", RemixUtil.ACCEPT_ENCODING);
+        requestHeaders.putAll(config.headers);
+        return new TransportRequest("GET", RemixUtil.toURI(buildUrl(config, uri, params)), requestHeaders);
+    }
+
+    /**
+     * Builds the full request URL for a resource URI, adding the API key to the query string.
+     * 
+     * Parameters are sorted by name so that identical requests always produce the same URL. Unless
+     * XML is requested, the format replaces the ".xml" extension of single-resource URIs and is
+     * passed as the "format" parameter of collection queries. The caller's parameter map is copied,
+     * never modified.
+     * 
+     * @param  config Client configuration the request started with
+     * @param  uri    Resource URI targeted by a request
+     * @param  params Query string parameters
+     * @return Normalized request URL
+     */
+    private static String buildUrl(Settings config, String uri, Map<String,String> params) {
+        Map<String,String> query = new TreeMap<String,String>();
+        if(null != params) {
+            query.putAll(params);
+        }
+        query.put("apiKey", config.apiKey);
+        ResponseFormat requested = config.format;
+        if(ResponseFormat.XML != requested) {
+            String xml = "." + ResponseFormat.XML.getExtension();
+            if(uri.endsWith(xml)) {
+                uri = uri.substring(0, uri.length() - xml.length()) + "." + requested.getExtension();
+            } else {
+                query.put("format", requested.getExtension());
+            }
+        }
+        return ENTRY_POINT + uri + RemixUtil.buildQueryString(query);
+    }
+
+    /**
+     * Returns a future that has already completed with a failure.
+     * 
+     * @param  e Cause of the failure
+     * @return Failed future
+     */
+    private static <T> CompletableFuture<T> failed(RemixException e) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Wraps a page iterator in a sequential stream that closes the iterator when closed.
+     * 
+     * @param  iterator Page iterator
+     * @return Lazy stream of entities
+     */
+    private static <E> Stream<E> stream(PageIterator<?,E> iterator) {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false
+        ).onClose(iterator::close);
+    }
+
+    /**
+     * Waits for a future API response, unwrapping the {@link RemixException} of a failed call.
+     * 
+     * @param  future Future API response
+     * @return API response
+     * @throws RemixException Thrown if the call failed
+     */
+    static <T> T await(Future<T> future) throws RemixException {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && null != e.getCause().getCause()
+                ? e.getCause().getCause()
+                : e.getCause();
+            if(cause instanceof RemixException) {
+                throw (RemixException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RemixException("Request failed", (Exception) cause);
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Produces a parsed {@link Response}.
+     */
+    private interface Parser<T extends Response> {
+        T parse() throws RemixException;
+    }
+
+    /**
+     * Binds a response constructor to a client's document model and string pool.
+     * 
+     * @param  constructor Response constructor taking the document model
+     * @param  config      Client configuration
+     * @return Response factory
+     */
+    private static <T extends Response> ResponseFactory<T> factory(
+            final ResponseConstructor<T> constructor, final Settings config
+    ) {
+        final DocumentModel model = config.documentModel;
+        return pooled(
+            (responseCode, httpHeaders, body) -> constructor.create(responseCode, httpHeaders, body, model),
+            config.stringPool
+        );
+    }
+
+    /**
+     * Makes a response factory deduplicate values through a client's string pool.
+     * 
+     * @param  factory Response factory
+     * @param  pool    Client's string pool; null to use the shared pool
+     * @return Response factory parsing with the client's pool installed
+     */
+    private static <T extends Response> ResponseFactory<T> pooled(
+            final ResponseFactory<T> factory, final StringPool pool
+    ) {
+        if(null == pool) {
+            return factory;
+        }
+        return (responseCode, httpHeaders, body) -> {
+            StringPool previous = StringPool.use(pool);
+            try {
+                return factory.create(responseCode, httpHeaders, body);
+            } finally {
+                StringPool.use(previous);
+            }
+        };
+    }
+
+    /**
+     * Creates a typed {@link Response} from a completed HTTP exchange.
+     */
+    private interface ResponseFactory<T extends Response> {
+        T create(int responseCode, Map<String,List<String>> httpHeaders, InputStream body) throws RemixException;
+    }
+
+    /**
+     * Constructs a typed {@link Response} in a given document model.
+     */
+    private interface ResponseConstructor<T extends Response> {
+        T create(int responseCode, Map<String,List<String>> httpHeaders, InputStream body, DocumentModel model)
+                throws RemixException;
+    }
+
+    /**
+     * Immutable snapshot of a client's configuration; each request uses the snapshot current when it
+     * started.
+     */
+    private static final class Settings {
+        final String             apiKey;
+        final Map<String,String> headers;
+        final ResponseFormat     format;
+        final DocumentModel      documentModel;
+        final StringPool         stringPool;
+        final Transport          transport;
+        final Executor           executor;
+        final RequestCoalescer   coalescer;
+        final ResponseCache      cache;
+        final DiskResponseCache  diskCache;
+        final RateLimiter        rateLimiter;
+        final RetryPolicy        retryPolicy;
+        final HedgingPolicy      hedgingPolicy;
+
+        /**
+         * Copies a builder's configuration.
+         * 
+         * @param builder Client configuration
+         */
+        Settings(Builder builder) {
+            apiKey        = builder.apiKey;
+            headers       = Collections.unmodifiableMap(new LinkedHashMap<String,String>(builder.headers));
+            format        = builder.format;
+            documentModel = builder.documentModel;
+            stringPool    = builder.stringPool;
+            transport     = builder.transport;
+            executor      = builder.executor;
+            coalescer     = builder.coalescer;
+            cache         = builder.cache;
+            diskCache     = builder.diskCache;
+            rateLimiter   = builder.rateLimiter;
+            retryPolicy   = builder.retryPolicy;
+            hedgingPolicy = builder.hedgingPolicy;
+        }
+
+        /**
+         * Returns the transport used to carry API requests.
+         * 
+         * @return Configured transport, or the shared default {@link HttpTransport}
+         */
+        Transport transport() {
+            return null == transport ? DefaultTransport.INSTANCE : transport;
+        }
+    }
+
+    /**
+     * Holds the default transport, created when first used and shared by every client that has no
+     * transport of its own.
+     */
+    private static class DefaultTransport {
+        static final Transport INSTANCE = new HttpTransport();
+    }
+
+    /**
+     * Builder of {@link Remix} clients.
+     * 
+     * @see Remix#builder(String)
+     * @see Remix#with(Consumer)
+     */
+    public static class Builder {
+        private String apiKey;
+        private final Map<String,String> headers = new LinkedHashMap<String,String>();
+        private ResponseFormat format = ResponseFormat.XML;
+        private DocumentModel documentModel = DocumentModel.TREE;
+        private StringPool stringPool;
+        private Transport transport;
+        private Executor executor = ForkJoinPool.commonPool();
+        private RequestCoalescer coalescer;
+        private ResponseCache cache;
+        private DiskResponseCache diskCache;
+        private RateLimiter rateLimiter;
+        private RetryPolicy retryPolicy;
+        private HedgingPolicy hedgingPolicy;
+
+        /**
+         * Starts from the default configuration.
+         * 
+         * @param apiKey Identifier used to authenticate API requests
+         */
+        private Builder(String apiKey) {
+            this.apiKey = apiKey;
+        }
+
+        /**
+         * Starts from an existing configuration.
+         * 
+         * @param settings Configuration to be copied
+         */
+        private Builder(Settings settings) {
+            apiKey        = settings.apiKey;
+            format        = settings.format;
+            documentModel = settings.documentModel;
+            stringPool    = settings.stringPool;
+            transport     = settings.transport;
+            executor      = settings.executor;
+            coalescer     = settings.coalescer;
+            cache         = settings.cache;
+            diskCache     = settings.diskCache;
+            rateLimiter   = settings.rateLimiter;
+            retryPolicy   = settings.retryPolicy;
+            hedgingPolicy = settings.hedgingPolicy;
+            headers.putAll(settings.headers);
+        }
+
+        /**
+         * Sets the API key used to authenticate requests.
+         * 
+         * @param  apiKey Identifier used to authenticate API requests
+         * @return Provides a fluent interface.
+         */
+        public Builder apiKey(String apiKey) {
+            this.apiKey = apiKey;
+            return this;
+        }
+
+        /**
+         * Assigns an HTTP header to be sent with API calls.
+         * 
+         * @param  name  Name of the request header being set
+         * @param  value Value of the request header being set
+         * @return Provides a fluent interface.
+         */
+        public Builder header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Assigns a set of HTTP headers to be sent with API calls; the map is copied.
+         * 
+         * @param  headers Headers to be assigned
+         * @return Provides a fluent interface.
+         */
+        public Builder headers(Map<String,String> headers) {
+            this.headers.putAll(headers);
+            return this;
+        }
+
+        /**
+         * Clears HTTP request headers.
+         * 
+         * @return Provides a fluent interface.
+         */
+        public Builder clearHeaders() {
+            headers.clear();
+            return this;
+        }
+
+        /**
+         * Selects the wire format requested from the API.
+         * 
+         * Defaults to XML. JSON responses are typically smaller and are parsed into the same entities.
+         * 
+         * @param  format Wire format requested from the API
+         * @return Provides a fluent interface.
+         */
+        public Builder format(ResponseFormat format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Selects the in-memory representation into which responses are parsed.
+         * 
+         * Defaults to {@link DocumentModel#TREE}. {@link DocumentModel#COMPACT} suits large responses
+         * that are held onto (e.g. cached pages), retaining a fraction of the heap. {@link DocumentModel#LAZY}
+         * keeps the raw XML document and indexes it in a single structural pass, decoding entity fields
+         * only when first read; this is cheapest when only a few of the fields of wide entities (e.g.
+         * {@link Product products}) are used, at the cost of retaining the raw document for as long as
+         * the response is referenced.
+         * 
+         * @param  documentModel In-memory representation of response documents
+         * @return Provides a fluent interface.
+         */
+        public Builder documentModel(DocumentModel documentModel) {
+            this.documentModel = documentModel;
+            return this;
+        }
+
+        /**
+         * Assigns the pool through which low-cardinality values of this client's responses are
+         * deduplicated; pass null to use the {@link StringPool#getShared() shared pool} (the default).
+         * 
+         * Lazily decoded documents ({@link DocumentModel#COMPACT} and {@link DocumentModel#LAZY}) keep
+         * using the pool they were parsed with as their values are read.
+         * 
+         * @param  stringPool String pool of this client
+         * @return Provides a fluent interface.
+         */
+        public Builder stringPool(StringPool stringPool) {
+            this.stringPool = stringPool;
+            return this;
+        }
+
+        /**
+         * Assigns the transport used to carry API requests.
+         * 
+         * Defaults to an {@link HttpTransport} shared by all clients without a transport of their own.
+         * 
+         * @param  transport Transport used to carry API requests
+         * @return Provides a fluent interface.
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Assigns the executor on which asynchronous responses are parsed.
+         * 
+         * Defaults to the common {@link ForkJoinPool}.
+         * 
+         * @param  executor Executor used to parse asynchronous responses
+         * @return Provides a fluent interface.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Enables coalescing of concurrent identical requests; pass null to disable it (the default).
+         * 
+         * Coalesced callers share the same {@link Response} instance.
+         * 
+         * @param  coalescer Coalescer shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder coalescer(RequestCoalescer coalescer) {
+            this.coalescer = coalescer;
+            return this;
+        }
+
+        /**
+         * Enables caching of parsed responses; pass null to disable it (the default).
+         * 
+         * Cached callers share the same {@link Response} instance.
+         * 
+         * @param  cache Cache shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder cache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Enables the persistent response cache; pass null to disable it (the default).
+         * 
+         * @param  diskCache Disk cache shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder diskCache(DiskResponseCache diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Enables client-side rate limiting of API calls; pass null to disable it (the default).
+         * 
+         * Only calls that reach the API are limited: responses served from a cache, or shared by
+         * coalesced requests, take no token. A limiter shared by several clients limits their combined
+         * calls per API key.
+         * 
+         * @param  rateLimiter Rate limiter shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Enables retries of calls that failed transiently; pass null to disable them (the default).
+         * 
+         * Each retry is a new call to the API, subject to the rate limiter; calls streaming entities
+         * to a consumer are never retried.
+         * 
+         * @param  retryPolicy Retry policy shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Enables hedging of slow calls; pass null to disable it (the default).
+         * 
+         * With hedging, blocking calls are sent without blocking, as asynchronous calls are; the first
+         * call to receive its response headers wins, and its body is streamed to the parser.
+         * 
+         * @param  hedgingPolicy Hedging policy shared by the client's requests
+         * @return Provides a fluent interface.
+         */
+        public Builder hedgingPolicy(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        /**
+         * Creates an immutable client with this configuration.
+         * 
+         * @return Remix API client
+         */
+        public Remix build() {
+            return new Remix(this);
         }
-        return connection;
     }
 }
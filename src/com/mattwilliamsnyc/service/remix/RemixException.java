@@ -12,24 +12,171 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+import org.xml.sax.SAXException;
+
+import com.mattwilliamsnyc.service.remix.util.MalformedDocumentException;
+
 /**
  * Exception class used to wrap library exceptions.
  * 
+ * Each exception carries a {@link Type} telling transient failures, which may succeed if the call is
+ * repeated, from failures that will recur.
+ * 
  * @author  Matt Williams <matt@mattwilliamsnyc.com>
  * @version $Id$
  */
 public class RemixException extends Exception {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Classes of failure.
+     */
+    public enum Type {
+        /** The connection failed, or broke while the response was read */
+        TRANSPORT(true),
+        /** The API did not answer in time */
+        TIMEOUT(true),
+        /** The API refused the call because the API key was over its rate limit or quota */
+        THROTTLED(true),
+        /** The API rejected the call (e.g. a bad filter or an invalid API key) */
+        CLIENT_ERROR(false),
+        /** The API failed to answer the call */
+        SERVER_ERROR(true),
+        /** The response document could not be parsed */
+        PARSE_ERROR(false),
+        /** Any other failure (e.g. an invalid URL, an interrupted wait, or a call rejected by the client's rate limiter) */
+        OTHER(false);
+
+        private final boolean retryable;
+
+        Type(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        /**
+         * Indicates whether a call failing this way may succeed if it is repeated.
+         * 
+         * @return Whether the failure is transient
+         */
+        public boolean isRetryable() {
+            return retryable;
+        }
+
+        /**
+         * Classifies the failure of an API call from its HTTP status code.
+         * 
+         * @param  statusCode HTTP status code of an error response
+         * @return Class of failure
+         */
+        static Type of(int statusCode) {
+            if(Response.HTTP_TOO_MANY_REQUESTS == statusCode) {
+                return THROTTLED;
+            } else if(HttpURLConnection.HTTP_CLIENT_TIMEOUT == statusCode
+                    || HttpURLConnection.HTTP_GATEWAY_TIMEOUT == statusCode) {
+                return TIMEOUT;
+            }
+            return HttpURLConnection.HTTP_INTERNAL_ERROR <= statusCode ? SERVER_ERROR : CLIENT_ERROR;
+        }
+
+        /**
+         * Classifies a failure from its cause; the first recognized cause in the chain decides.
+         * 
+         * @param  cause Cause of the failure; may be null
+         * @return Class of failure
+         */
+        static Type of(Throwable cause) {
+            for(Throwable t = cause; null != t; t = t.getCause() == t ? null : t.getCause()) {
+                if(t instanceof RemixException) {
+                    return ((RemixException) t).getType();
+                } else if(t instanceof MalformedDocumentException || t instanceof SAXException) {
+                    return PARSE_ERROR;
+                } else if(t instanceof SocketTimeoutException || t instanceof HttpTimeoutException
+                        || t instanceof TimeoutException) {
+                    return TIMEOUT;
+                } else if(t instanceof IOException) {
+                    return TRANSPORT;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Class of this failure
+     */
+    private final Type type;
+
+    /**
+     * HTTP status code of the error response that caused this failure; 0 if there was none
+     */
+    private final int statusCode;
+
     public RemixException(String s) {
-        super(s);
+        this(Type.OTHER, s, null);
     }
 
     public RemixException(Exception e) {
         super(e);
+        this.type       = Type.of(e);
+        this.statusCode = 0;
     }
 
     public RemixException(String s, Exception e) {
-        super(s,e);
+        this(Type.of(e), s, e);
+    }
+
+    public RemixException(Type type, String s) {
+        this(type, s, null);
+    }
+
+    public RemixException(Type type, String s, Exception e) {
+        super(s, e);
+        this.type       = type;
+        this.statusCode = 0;
+    }
+
+    /**
+     * Creates an exception describing an error response.
+     * 
+     * @param s        Description of the failure
+     * @param response Error response returned by the API
+     */
+    public RemixException(String s, Response response) {
+        super(s);
+        this.type       = response.isThrottled() ? Type.THROTTLED : Type.of(response.getResponseCode());
+        this.statusCode = response.getResponseCode();
+    }
+
+    /**
+     * Returns the class of this failure.
+     * 
+     * @return Class of failure
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Indicates whether the failed call may succeed if it is repeated.
+     * 
+     * @return Whether the failure is transient
+     */
+    public boolean isRetryable() {
+        return type.isRetryable();
+    }
+
+    /**
+     * Returns the HTTP status code of the error response that caused this failure.
+     * 
+     * @return HTTP status code; 0 if the failure was not an error response
+     */
+    public int getStatusCode() {
+        return statusCode;
     }
 }
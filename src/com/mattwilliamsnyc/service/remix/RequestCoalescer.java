@@ -0,0 +1,111 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical requests into a single API call.
+ * 
+ * Requests are identified by their normalized URL. While a call is in flight, further requests for
+ * the same URL wait for it and receive the same parsed {@link Response} instead of placing calls of
+ * their own. Once the call completes, the next request for that URL goes to the network again.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RequestCoalescer {
+    /**
+     * Calls in flight, keyed by normalized request URL
+     */
+    private final ConcurrentMap<String,CompletableFuture<Response>> inFlight =
+        new ConcurrentHashMap<String,CompletableFuture<Response>>();
+
+    /**
+     * Number of calls actually placed
+     */
+    private final AtomicLong executed = new AtomicLong();
+
+    /**
+     * Number of requests served by another request's call
+     */
+    private final AtomicLong collapsed = new AtomicLong();
+
+    /**
+     * Returns the number of calls actually placed through this coalescer.
+     * 
+     * @return Number of calls placed
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * Returns the number of requests that shared another request's call instead of placing their own.
+     * 
+     * @return Number of collapsed requests
+     */
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    /**
+     * Returns the number of calls currently in flight.
+     * 
+     * @return Number of in-flight calls
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Performs a request, or joins an identical one already in flight.
+     * 
+     * The loader may complete its future before returning (a blocking call); callers joining such
+     * a call block until it completes.
+     * 
+     * @param  key    Normalized request URL
+     * @param  loader Places the call if no identical call is in flight
+     * @return Future API response
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Response> CompletableFuture<T> execute(final String key, Supplier<CompletableFuture<T>> loader) {
+        final CompletableFuture<Response> call     = new CompletableFuture<Response>();
+        CompletableFuture<Response>       existing = inFlight.putIfAbsent(key, call);
+        if(null != existing) {
+            collapsed.incrementAndGet();
+            return (CompletableFuture<T>) existing.copy();
+        }
+        executed.incrementAndGet();
+        CompletableFuture<T> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            load = new CompletableFuture<T>();
+            load.completeExceptionally(e);
+        }
+        load.whenComplete((response, e) -> {
+            inFlight.remove(key, call);
+            if(null == e) {
+                call.complete(response);
+            } else {
+                call.completeExceptionally(e);
+            }
+        });
+        return (CompletableFuture<T>) call.copy();
+    }
+}
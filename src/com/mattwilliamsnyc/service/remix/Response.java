@@ -12,15 +12,26 @@
  */
 package com.mattwilliamsnyc.service.remix;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
 
+import com.mattwilliamsnyc.service.remix.util.CompactDocument;
+import com.mattwilliamsnyc.service.remix.util.CountingInputStream;
+import com.mattwilliamsnyc.service.remix.util.JSONReader;
 import com.mattwilliamsnyc.service.remix.util.RemixUtil;
+import com.mattwilliamsnyc.service.remix.util.XMLIndex;
 import com.mattwilliamsnyc.service.remix.util.XMLHandler;
+import com.mattwilliamsnyc.service.remix.util.XMLStreamParser;
 
 /**
  * Base class for all responses to a Remix API call.
@@ -29,15 +40,26 @@ import com.mattwilliamsnyc.service.remix.util.XMLHandler;
  * @version $Id$
  */
 public class Response {
+    /**
+     * Number of leading bytes examined to tell JSON documents from XML documents
+     */
+    private static final int SNIFF_LIMIT = 256;
+
+    /**
+     * HTTP status code "429 Too Many Requests" (not defined by {@link HttpURLConnection})
+     */
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
     /**
      * Root element of the response document tree
      */
     private Element documentRoot;
 
     /**
-     * Error document constructed from an error response
+     * Error document constructed from an error response on first access; volatile since a response
+     * may be shared by threads through a coalescer or cache
      */
-    private ErrorDocument error;
+    private volatile ErrorDocument error;
 
     /**
      * HTTP headers returned with this response
@@ -49,6 +71,16 @@ public class Response {
      */
     private int responseCode;
 
+    /**
+     * Number of response body bytes received over the wire (before decompression)
+     */
+    private long bytesReceived;
+
+    /**
+     * Number of response body bytes fed to the parser (after decompression)
+     */
+    private long bytesDecoded;
+
     /**
      * Creates a new Response from an HTTP connection.
      * 
@@ -57,20 +89,180 @@ public class Response {
      */
     public Response(HttpURLConnection connection) throws RemixException {
         try {
-            XMLReader  reader  = RemixUtil.createXMLReader();
-            XMLHandler handler = new XMLHandler();
-            reader.setContentHandler(handler);
-            reader.setErrorHandler(handler);
             responseCode = connection.getResponseCode();
             httpHeaders  = connection.getHeaderFields();
-            reader.parse(new InputSource(isError() ? connection.getErrorStream() : connection.getInputStream()));
-            documentRoot = handler.getDocumentRoot();
+            parse(isError() ? connection.getErrorStream() : connection.getInputStream(), null, DocumentModel.TREE);
             connection.disconnect();
+        } catch(RemixException e) {
+            throw e;
+        } catch(IOException e) {
+            throw new RemixException("Error reading HTTP response", e);
+        } catch(Exception e) {
+            throw new RemixException(RemixException.Type.PARSE_ERROR, "Error parsing HTTP response", e);
+        }
+    }
+
+    /**
+     * Creates a new Response from a status code, response headers and a response body stream.
+     * 
+     * Used when the HTTP exchange has been completed by something other than an
+     * {@link HttpURLConnection} (e.g. an asynchronous HTTP client).
+     * 
+     * @param  responseCode HTTP status code returned with the response
+     * @param  httpHeaders  HTTP headers returned with the response
+     * @param  body         Stream from which the response document is read
+     * @throws RemixException Thrown if an error occurs while parsing the response document
+     */
+    public Response(int responseCode, Map<String,List<String>> httpHeaders, InputStream body) throws RemixException {
+        this(responseCode, httpHeaders, body, DocumentModel.TREE);
+    }
+
+    /**
+     * Creates a new Response, streaming the children of the document root to a consumer.
+     * 
+     * Each child is handed over as soon as its closing tag has been read and is not retained, so the
+     * response keeps only the document root and its attributes. Error documents are always parsed
+     * in full.
+     * 
+     * @param  responseCode HTTP status code returned with the response
+     * @param  httpHeaders  HTTP headers returned with the response
+     * @param  body         Stream from which the response document is read
+     * @param  entities     Receives each child of the document root; null to parse the whole tree
+     * @throws RemixException Thrown if an error occurs while parsing the response document
+     */
+    protected Response(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, Consumer<Element> entities
+    ) throws RemixException {
+        this.responseCode = responseCode;
+        this.httpHeaders  = httpHeaders;
+        parse(body, isError() ? null : entities, DocumentModel.TREE);
+    }
+
+    /**
+     * Creates a new Response, parsing the response document into a given model.
+     * 
+     * With {@link DocumentModel#COMPACT} the document is held in parallel primitive arrays (see
+     * {@link CompactDocument}), retaining far less heap than a tree of elements. With
+     * {@link DocumentModel#LAZY} the whole body is kept as raw bytes and indexed in a single
+     * structural pass (see {@link XMLIndex}); element values, and the fields of entities built from
+     * them, are decoded only when first read. JSON documents are always parsed into a tree, as are
+     * documents in encodings other than UTF-8 in lazy mode.
+     * 
+     * @param  responseCode HTTP status code returned with the response
+     * @param  httpHeaders  HTTP headers returned with the response
+     * @param  body         Stream from which the response document is read
+     * @param  model        In-memory representation of the response document
+     * @throws RemixException Thrown if an error occurs while parsing the response document
+     */
+    protected Response(
+            int responseCode, Map<String,List<String>> httpHeaders, InputStream body, DocumentModel model
+    ) throws RemixException {
+        this.responseCode = responseCode;
+        this.httpHeaders  = httpHeaders;
+        parse(body, null, model);
+    }
+
+    /**
+     * Parses a response document into a tree of {@link Element elements}.
+     * 
+     * Compressed bodies are decompressed as they are read, according to the Content-Encoding header.
+     * JSON documents (starting with '{') are read by a {@link JSONReader}; anything else is parsed as XML.
+     * 
+     * @param  body     Stream from which the response document is read
+     * @param  entities Receives each child of the document root; null to parse the whole tree
+     * @param  model    In-memory representation of the document; ignored when streaming entities
+     * @throws RemixException Thrown if the response document could not be read or parsed
+     */
+    private void parse(InputStream body, Consumer<Element> entities, DocumentModel model) throws RemixException {
+        CountingInputStream received = new CountingInputStream(body);
+        CountingInputStream decoded  = null;
+        try {
+            decoded = new CountingInputStream(RemixUtil.decodeContent(received, getFirstHeader("Content-Encoding")));
+            InputStream document;
+            if(DocumentModel.LAZY == model) {
+                byte[] bytes = decoded.readAllBytes();
+                if(!isJSON(bytes) && XMLIndex.isSupported(bytes, bytes.length)) {
+                    documentRoot = XMLIndex.parse(bytes, bytes.length);
+                    received.close();
+                    return;
+                }
+                document = new ByteArrayInputStream(bytes);
+            } else {
+                document = new BufferedInputStream(decoded);
+            }
+            if(isJSON(document)) {
+                documentRoot = JSONReader.parse(document, entities);
+            } else if(null != entities) {
+                documentRoot = XMLStreamParser.parse(document, entities);
+            } else if(DocumentModel.COMPACT == model) {
+                documentRoot = CompactDocument.parse(new InputSource(document));
+            } else {
+                documentRoot = XMLHandler.current().parse(new InputSource(document));
+            }
+            received.close();
+        } catch(IOException e) {
+            throw new RemixException("Error reading HTTP response", e);
         } catch(Exception e) {
-            e.printStackTrace();
-            throw new RemixException("Error parsing HTTP response", e);
+            throw new RemixException(RemixException.Type.PARSE_ERROR, "Error parsing HTTP response", e);
+        } finally {
+            bytesReceived = received.getCount();
+            bytesDecoded  = null == decoded ? 0 : decoded.getCount();
         }
-    }   
+    }
+
+    /**
+     * Indicates whether a document is JSON, looking at its first non-whitespace byte.
+     * 
+     * @param  document Buffered document stream; left positioned at the start of the document
+     * @return Whether the document starts with '{'
+     * @throws IOException Thrown if the document could not be read
+     */
+    private static boolean isJSON(InputStream document) throws IOException {
+        document.mark(SNIFF_LIMIT);
+        try {
+            for(int i = 0; i < SNIFF_LIMIT; ++i) {
+                int b = document.read();
+                if(' ' != b && '\n' != b && '\r' != b && '\t' != b) {
+                    return '{' == b;
+                }
+            }
+            return false;
+        } finally {
+            document.reset();
+        }
+    }
+
+    /**
+     * Indicates whether a buffered document is JSON, looking at its first non-whitespace byte.
+     * 
+     * @param  document Raw document
+     * @return Whether the document starts with '{'
+     */
+    private static boolean isJSON(byte[] document) {
+        for(byte b : document) {
+            if(' ' != b && '\n' != b && '\r' != b && '\t' != b) {
+                return '{' == b;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first value of a response header, matching its name case-insensitively.
+     * 
+     * @param  name Name of the response header
+     * @return First value of the header; null if the header is not present
+     */
+    String getFirstHeader(String name) {
+        if(null != httpHeaders) {
+            for(Map.Entry<String,List<String>> header : httpHeaders.entrySet()) {
+                if(name.equalsIgnoreCase(header.getKey()) && null != header.getValue() && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+        }
+        return null;
+    }
 
     /**
      * Returns an attribute of the response document's root element (the collection element).
@@ -91,6 +283,36 @@ public class Response {
         return documentRoot;
     }
 
+    /**
+     * Returns the number of response body bytes received over the wire, before decompression,
+     * including any bytes following the document.
+     * 
+     * @return Number of bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of response body bytes parsed, after decompression.
+     * 
+     * Equal to {@link #getBytesReceived()} for uncompressed responses.
+     * 
+     * @return Number of decoded bytes
+     */
+    public long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    /**
+     * Estimates the heap retained by this response's document tree, in bytes.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    public long estimateSize() {
+        return 128 + (null == documentRoot ? 0 : documentRoot.estimateSize());
+    }
+
     /**
      * Returns an error document parsed from an error response.
      * 
@@ -99,10 +321,13 @@ public class Response {
     public ErrorDocument getError() {
         if(!isError()) {
             return null;
-        } else if(null == error) {
-            error = new ErrorDocument(responseCode, getDocumentRoot());
         }
-        return error;
+        ErrorDocument document = error;
+        if(null == document) {
+            document = new ErrorDocument(responseCode, getDocumentRoot());
+            error    = document;
+        }
+        return document;
     }
 
     /**
@@ -140,4 +365,48 @@ public class Response {
     public boolean isError() {
         return HttpURLConnection.HTTP_BAD_REQUEST <= responseCode;
     }
+
+    /**
+     * Reads the delay requested by the "Retry-After" header of a throttling or error response.
+     * 
+     * @return Requested delay in nanoseconds; 0 if none was requested (HTTP dates are not honored)
+     */
+    long retryAfter() {
+        if(null == httpHeaders) {
+            return 0;
+        }
+        for(Map.Entry<String,List<String>> header : httpHeaders.entrySet()) {
+            if(!"Retry-After".equalsIgnoreCase(header.getKey()) || null == header.getValue()) {
+                continue;
+            }
+            for(String value : header.getValue()) {
+                try {
+                    return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+                } catch (NumberFormatException e) {
+                    // An HTTP date; callers fall back to their own delays
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Indicates whether the API refused a call because the API key was over its rate limit or quota.
+     * 
+     * The API answers "429 Too Many Requests", or "403 Forbidden" with an error status or message
+     * such as "Over Qps" or "Account Over Queries Per Second Limit".
+     * 
+     * @return Whether the call was throttled
+     */
+    public boolean isThrottled() {
+        if(HTTP_TOO_MANY_REQUESTS == responseCode) {
+            return true;
+        }
+        if(HttpURLConnection.HTTP_FORBIDDEN != responseCode || null == getDocumentRoot()) {
+            return false;
+        }
+        ErrorDocument error = getError();
+        String text = (error.getStatus() + " " + error.getMessage()).toLowerCase(Locale.ROOT);
+        return text.contains("over ") && (text.contains("qps") || text.contains("limit") || text.contains("quota"));
+    }
 }
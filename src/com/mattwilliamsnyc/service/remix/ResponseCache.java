@@ -0,0 +1,606 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory cache of parsed API responses.
+ * 
+ * Entries expire after a time-to-live chosen per {@link Endpoint}. The cache is bounded by the
+ * estimated heap retained by the cached document trees rather than by entry count. When space is
+ * needed, the least recently used entries are evicted, unless the incoming response has been
+ * requested less often than one of them, in which case the incoming response is not admitted
+ * (TinyLFU) and the cache is left untouched; when the two are equally popular, the incoming
+ * response is admitted. Request frequencies are tracked in a compact sketch that is periodically
+ * aged, and that grows with the number of cached entries so that its counters do not saturate.
+ * 
+ * Only successful responses are cached. Expired responses that carried an ETag or Last-Modified
+ * validator are kept (until evicted) so that they can be revalidated with a conditional request;
+ * a "304 Not Modified" answer renews the existing entry without downloading or parsing a new body.
+ * 
+ * Optionally, expired entries remain servable for a grace period while a bounded background
+ * executor refreshes them (stale-while-revalidate), and frequently requested entries are refreshed
+ * in the background shortly before they expire (refresh-ahead), so that callers arriving around
+ * the expiry time do not wait for the API.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class ResponseCache {
+    /**
+     * Groups of resources sharing a time-to-live.
+     */
+    public enum Endpoint {
+        /** "products" collection and single "product" resources */
+        PRODUCTS,
+        /** "stores" collection and single "store" resources */
+        STORES,
+        /** "store availability" collection resources */
+        STORE_AVAILABILITY;
+
+        /**
+         * Determines the endpoint targeted by a resource URI.
+         * 
+         * @param  uri Resource URI (relative to {@link Remix#ENTRY_POINT})
+         * @return Endpoint targeted by the URI
+         */
+        static Endpoint of(String uri) {
+            if(uri.startsWith(Remix.PATH_STORES) && uri.contains("+" + Remix.PATH_PRODUCTS)) {
+                return STORE_AVAILABILITY;
+            }
+            return uri.startsWith(Remix.PATH_PRODUCTS) ? PRODUCTS : STORES;
+        }
+    }
+
+    /**
+     * Maximum estimated size of all cached responses, in bytes
+     */
+    private final long maxBytes;
+
+    /**
+     * Time-to-live per endpoint, in nanoseconds
+     */
+    private final Map<Endpoint,Long> ttls = new EnumMap<Endpoint,Long>(Endpoint.class);
+
+    /**
+     * Cached entries, in least- to most-recently used order
+     */
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+
+    /**
+     * Counters of the frequency sketch per cached entry
+     */
+    private static final int SKETCH_COUNTERS_PER_ENTRY = 8;
+
+    /**
+     * Request frequency of recently seen keys
+     */
+    private final FrequencySketch sketch = new FrequencySketch(1024);
+
+    /**
+     * Time (in nanoseconds) after expiry during which an entry is still served while being refreshed
+     */
+    private long staleGrace;
+
+    /**
+     * Fraction of the time-to-live after which a hot entry is refreshed ahead of expiry; 0 disables refresh-ahead
+     */
+    private double refreshAheadFactor;
+
+    /**
+     * Number of hits since loading that make an entry hot enough to refresh ahead of expiry
+     */
+    private int refreshAheadHits;
+
+    /**
+     * Runs background refreshes (a small bounded pool is created on first use)
+     */
+    private Executor refreshExecutor;
+
+    /**
+     * Estimated size of all cached responses, in bytes
+     */
+    private long estimatedBytes;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long rejectionCount;
+    private long loadCount;
+    private long totalLoadTime;
+    private long revalidationCount;
+    private long refreshCount;
+
+    /**
+     * Creates a cache bounded by the estimated size of the cached responses.
+     * 
+     * Default time-to-live: products 5 minutes, stores 1 hour, store availability 1 minute.
+     * 
+     * @param maxBytes Maximum estimated heap retained by cached responses, in bytes
+     */
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        ttls.put(Endpoint.PRODUCTS,           TimeUnit.MINUTES.toNanos(5));
+        ttls.put(Endpoint.STORES,             TimeUnit.HOURS.toNanos(1));
+        ttls.put(Endpoint.STORE_AVAILABILITY, TimeUnit.MINUTES.toNanos(1));
+    }
+
+    /**
+     * Sets the time-to-live of responses from an endpoint; a non-positive duration disables caching for it.
+     * 
+     * @param  endpoint Endpoint whose time-to-live is being set
+     * @param  duration Time-to-live
+     * @param  unit     Unit of the time-to-live
+     * @return Provides a fluent interface.
+     */
+    public synchronized ResponseCache setTtl(Endpoint endpoint, long duration, TimeUnit unit) {
+        ttls.put(endpoint, unit.toNanos(duration));
+        return this;
+    }
+
+    /**
+     * Serves expired entries for a grace period while they are refreshed in the background.
+     * 
+     * @param  grace Time after expiry during which an entry is still served
+     * @param  unit  Unit of the grace period
+     * @return Provides a fluent interface.
+     */
+    public synchronized ResponseCache setStaleWhileRevalidate(long grace, TimeUnit unit) {
+        this.staleGrace = unit.toNanos(grace);
+        return this;
+    }
+
+    /**
+     * Refreshes hot entries in the background before they expire.
+     * 
+     * @param  factor  Fraction of the time-to-live (between 0 and 1) after which a hot entry is refreshed
+     * @param  minHits Number of hits since loading that make an entry hot
+     * @return Provides a fluent interface.
+     */
+    public synchronized ResponseCache setRefreshAhead(double factor, int minHits) {
+        if(0 > factor || 1 < factor) {
+            throw new IllegalArgumentException("Refresh-ahead factor must be between 0 and 1");
+        }
+        this.refreshAheadFactor = factor;
+        this.refreshAheadHits   = minHits;
+        return this;
+    }
+
+    /**
+     * Assigns the executor running background refreshes.
+     * 
+     * Refreshes rejected by the executor are skipped. Defaults to two daemon threads with a queue
+     * of 64 refreshes.
+     * 
+     * @param  refreshExecutor Executor running background refreshes
+     * @return Provides a fluent interface.
+     */
+    public synchronized ResponseCache setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of this cache's statistics.
+     * 
+     * @return Cache statistics
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(
+            hitCount, missCount, evictionCount, rejectionCount, loadCount, totalLoadTime, revalidationCount,
+            refreshCount, entries.size(), estimatedBytes
+        );
+    }
+
+    /**
+     * Removes the entry for a request URL.
+     * 
+     * @param key Normalized request URL
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if(null != entry) {
+            estimatedBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        estimatedBytes = 0;
+    }
+
+    /**
+     * Looks up an entry, counting a hit if it can be served and a miss otherwise.
+     * 
+     * Entries past their grace period are returned only if they can be revalidated; others are
+     * discarded.
+     * 
+     * @param  key Normalized request URL
+     * @return Servable or revalidatable entry; null if there is none
+     */
+    synchronized Entry lookup(String key) {
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if(null != entry && !entry.isServable() && !entry.isRevalidatable()) {
+            entries.remove(key);
+            estimatedBytes -= entry.size;
+            entry = null;
+        }
+        if(null != entry && entry.isServable()) {
+            ++hitCount;
+            ++entry.hits;
+        } else {
+            ++missCount;
+        }
+        return entry;
+    }
+
+    /**
+     * Starts a background refresh of a served entry if it is stale, or hot and close to expiry.
+     * 
+     * At most one refresh per entry runs at a time.
+     * 
+     * @param  entry   Entry that was just served
+     * @param  refresh Reloads the entry, returning once the cache has been updated
+     * @return Whether a refresh was started
+     */
+    boolean refreshIfNeeded(final Entry entry, final Runnable refresh) {
+        Executor executor;
+        synchronized(this) {
+            boolean refreshAhead = 0 < refreshAheadFactor && entry.hits >= refreshAheadHits
+                && System.nanoTime() - entry.loadedAt >= (long) (entry.ttl * refreshAheadFactor);
+            if(!(refreshAhead || !entry.isFresh()) || !entry.refreshing.compareAndSet(false, true)) {
+                return false;
+            }
+            ++refreshCount;
+            executor = refreshExecutor();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh.run();
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the executor running background refreshes, creating the default one on first use.
+     * 
+     * @return Refresh executor
+     */
+    private Executor refreshExecutor() {
+        if(null == refreshExecutor) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                2, 2, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(64),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "remix-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+            );
+            executor.allowCoreThreadTimeOut(true);
+            refreshExecutor = executor;
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * Records a response loaded from the API, caching it if it is cacheable and admitted.
+     * 
+     * @param key      Normalized request URL
+     * @param endpoint Endpoint the response was loaded from
+     * @param response Loaded response
+     * @param loadTime Time spent loading the response, in nanoseconds
+     */
+    synchronized void put(String key, Endpoint endpoint, Response response, long loadTime) {
+        ++loadCount;
+        totalLoadTime += loadTime;
+
+        long ttl = ttls.get(endpoint);
+        if(0 >= ttl || response.isError()) {
+            return;
+        }
+        long size = response.estimateSize();
+        if(size > maxBytes) {
+            return;
+        }
+
+        Entry        previous = entries.get(key);
+        long         freed    = null == previous ? 0 : previous.size;
+        List<String> victims = victims(key, size, freed);
+        if(null == victims) {
+            ++rejectionCount;
+            return;
+        }
+        for(String victim : victims) {
+            estimatedBytes -= entries.remove(victim).size;
+            ++evictionCount;
+        }
+        entries.put(key, new Entry(response, size, ttl, staleGrace));
+        estimatedBytes += size - freed;
+        sketch.ensureCapacity(SKETCH_COUNTERS_PER_ENTRY * entries.size());
+    }
+
+    /**
+     * Records that an entry was confirmed unchanged by the API, renewing its time-to-live.
+     * 
+     * @param key      Normalized request URL
+     * @param endpoint Endpoint the entry was loaded from
+     * @param entry    Revalidated entry
+     * @param loadTime Time spent revalidating the entry, in nanoseconds
+     */
+    synchronized void revalidated(String key, Endpoint endpoint, Entry entry, long loadTime) {
+        ++revalidationCount;
+        if(entries.get(key) == entry) {
+            ++loadCount;
+            totalLoadTime += loadTime;
+            entry.renew(ttls.get(endpoint), staleGrace);
+        } else {
+            put(key, endpoint, entry.response, loadTime);
+        }
+    }
+
+    /**
+     * Chooses the entries to evict for a candidate to fit, without evicting anything.
+     * 
+     * @param  key   Candidate's key
+     * @param  size  Candidate's estimated size
+     * @param  freed Size of the entry the candidate replaces; 0 if none
+     * @return Keys of the entries to evict, least recently used first; null if the candidate is less
+     *         popular than one of them and must not be admitted (ties admit the candidate)
+     */
+    private List<String> victims(String key, long size, long freed) {
+        List<String> victims = new ArrayList<String>();
+        long         needed  = estimatedBytes - freed + size - maxBytes;
+        if(0 >= needed) {
+            return victims;
+        }
+        int candidateFrequency = sketch.frequency(key);
+        for(Map.Entry<String,Entry> victim : entries.entrySet()) {
+            if(victim.getKey().equals(key)) {
+                continue;
+            }
+            if(victim.getValue().isFresh() && candidateFrequency < sketch.frequency(victim.getKey())) {
+                return null;
+            }
+            victims.add(victim.getKey());
+            needed -= victim.getValue().size;
+            if(0 >= needed) {
+                return victims;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cached response and its bookkeeping.
+     */
+    static class Entry {
+        /**
+         * Cached response
+         */
+        final Response response;
+
+        /**
+         * Estimated size of the cached response, in bytes
+         */
+        final long size;
+
+        /**
+         * ETag validator sent with the response; null if none
+         */
+        final String eTag;
+
+        /**
+         * Last-Modified validator sent with the response; null if none
+         */
+        final String lastModified;
+
+        /**
+         * Time-to-live (in nanoseconds) the entry was loaded with
+         */
+        volatile long ttl;
+
+        /**
+         * Time (per {@link System#nanoTime()}) at which the entry was loaded or last renewed
+         */
+        volatile long loadedAt;
+
+        /**
+         * Time (per {@link System#nanoTime()}) at which the entry expires
+         */
+        volatile long expiresAt;
+
+        /**
+         * Time (per {@link System#nanoTime()}) until which the expired entry may still be served
+         */
+        volatile long servableUntil;
+
+        /**
+         * Number of hits since the entry was loaded or last renewed (guarded by the cache)
+         */
+        int hits;
+
+        /**
+         * Whether a background refresh of the entry is running
+         */
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Response response, long size, long ttl, long grace) {
+            this.response     = response;
+            this.size         = size;
+            this.eTag         = response.getFirstHeader("ETag");
+            this.lastModified = response.getFirstHeader("Last-Modified");
+            renew(ttl, grace);
+        }
+
+        /**
+         * Restarts the entry's time-to-live.
+         */
+        void renew(long ttl, long grace) {
+            this.ttl           = ttl;
+            this.loadedAt      = System.nanoTime();
+            this.expiresAt     = loadedAt + ttl;
+            this.servableUntil = expiresAt + grace;
+            this.hits          = 0;
+        }
+
+        /**
+         * Returns the cached response.
+         */
+        Response getResponse() {
+            return response;
+        }
+
+        /**
+         * Indicates whether the entry has not yet expired.
+         */
+        boolean isFresh() {
+            return expiresAt - System.nanoTime() > 0;
+        }
+
+        /**
+         * Indicates whether the entry may be served (fresh, or expired but within its grace period).
+         */
+        boolean isServable() {
+            return servableUntil - System.nanoTime() > 0;
+        }
+
+        /**
+         * Indicates whether the entry carries a validator for a conditional request.
+         */
+        boolean isRevalidatable() {
+            return null != eTag || null != lastModified;
+        }
+
+        /**
+         * Adds this entry's validators to a request.
+         * 
+         * @param  request Request for the cached resource
+         * @return Conditional request
+         */
+        TransportRequest conditional(TransportRequest request) {
+            if(null != eTag) {
+                request = request.withHeader("If-None-Match", eTag);
+            }
+            if(null != lastModified) {
+                request = request.withHeader("If-Modified-Since", lastModified);
+            }
+            return request;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit request counters; all counters are halved once enough increments have
+     * been recorded, so that the frequencies reflect recent popularity.
+     * 
+     * The sketch can grow: a key's counters are found by masking its hashes, so doubling the width
+     * and copying each counter into both halves keeps every key's estimate unchanged.
+     */
+    private static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+
+        /**
+         * Largest number of counters
+         */
+        private static final int MAX_WIDTH = 1 << 24;
+
+        private byte[] counters;
+        private int    mask;
+        private int    sampleSize;
+        private int    additions;
+
+        FrequencySketch(int width) {
+            int capacity = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            counters   = new byte[capacity];
+            mask       = capacity - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        /**
+         * Grows the sketch, doubling its width until it has at least the given number of counters.
+         * 
+         * @param width Minimum number of counters
+         */
+        void ensureCapacity(int width) {
+            width = Math.min(width, MAX_WIDTH);
+            while(counters.length < width) {
+                byte[] grown = new byte[counters.length << 1];
+                for(int i = 0; i < grown.length; ++i) {
+                    grown[i] = counters[i & mask];
+                }
+                counters   = grown;
+                mask       = grown.length - 1;
+                sampleSize = 10 * grown.length;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min  = MAX_COUNT;
+            for(int i = 0; i < 4; ++i) {
+                min = Math.min(min, counters[index(hash, i)]);
+            }
+            return min;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            for(int i = 0; i < 4; ++i) {
+                int index = index(hash, i);
+                if(counters[index] < MAX_COUNT) {
+                    ++counters[index];
+                }
+            }
+            if(++additions >= sampleSize) {
+                for(int i = 0; i < counters.length; ++i) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * (0x9E3779B9 + 2 * row + 1);
+            return (h ^ (h >>> 15)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x45d9f3b;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+/**
+ * Wire format in which the Remix API is asked to answer.
+ * 
+ * Responses of either format are parsed into the same {@link Element} tree, so entities behave
+ * identically; the format only affects the size of responses and the cost of parsing them.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public enum ResponseFormat {
+    XML("xml"),
+    JSON("json");
+
+    /**
+     * Format name, as used in resource URIs (e.g. "products/1234.json") and the "format" parameter
+     */
+    private final String extension;
+
+    ResponseFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the format name used in resource URIs and the "format" query string parameter.
+     * 
+     * @return Format name
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
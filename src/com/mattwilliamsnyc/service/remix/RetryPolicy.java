@@ -0,0 +1,234 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries API calls that failed in a way that may not recur.
+ * 
+ * Every API call is an idempotent GET, so any call that failed transiently may be repeated: calls
+ * that failed with a retryable {@link RemixException} (see {@link RemixException#isRetryable()}),
+ * and calls answered with a throttling response or a server error. Client errors and unparseable
+ * responses are never retried.
+ * 
+ * Retries are delayed with exponential backoff and "full jitter": the delay before retry n is drawn
+ * uniformly between 0 and min(maximum delay, base delay * 2^(n-1)), so that clients failing together
+ * do not retry together. A delay requested by a "Retry-After" header is honored, up to the maximum
+ * delay.
+ * 
+ * A retry budget keeps retries from multiplying the load on an API that is already failing: each
+ * call earns a fraction of a retry (20% by default), and a few retries per second (10 by default)
+ * are always allowed so that lightly used clients can still retry. A failure with no retry left in
+ * the budget is reported at once.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RetryPolicy {
+    /**
+     * Maximum number of attempts per call, including the first
+     */
+    private final int maxAttempts;
+
+    /**
+     * Delay (in nanoseconds) before the first retry
+     */
+    private final long baseDelay;
+
+    /**
+     * Maximum delay (in nanoseconds) before any retry
+     */
+    private final long maxDelay;
+
+    /**
+     * Fraction of a retry earned by each call
+     */
+    private double budgetRatio = 0.2;
+
+    /**
+     * Number of retries per second allowed regardless of the number of calls
+     */
+    private double minRetriesPerSecond = 10;
+
+    /**
+     * Retries currently available
+     */
+    private double budget = minRetriesPerSecond;
+
+    /**
+     * Time (from {@link System#nanoTime()}) at which the budget was last replenished
+     */
+    private long replenished = System.nanoTime();
+
+    private final AtomicLong retryCount      = new AtomicLong();
+    private final AtomicLong exhaustedCount  = new AtomicLong();
+    private final AtomicLong overBudgetCount = new AtomicLong();
+
+    /**
+     * Creates a policy retrying each call up to a number of times.
+     * 
+     * @param maxAttempts Maximum number of attempts per call, including the first
+     * @param baseDelay   Delay before the first retry
+     * @param maxDelay    Maximum delay before any retry
+     * @param unit        Unit of the delays
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit) {
+        if(0 >= maxAttempts) {
+            throw new IllegalArgumentException("Number of attempts must be positive");
+        }
+        if(0 > baseDelay || baseDelay > maxDelay) {
+            throw new IllegalArgumentException("Base delay must be between 0 and the maximum delay");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay   = unit.toNanos(baseDelay);
+        this.maxDelay    = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Sets the retry budget.
+     * 
+     * @param  ratio               Fraction of a retry earned by each call
+     * @param  minRetriesPerSecond Number of retries per second allowed regardless of the number of calls
+     * @return Provides a fluent interface.
+     */
+    public synchronized RetryPolicy setRetryBudget(double ratio, double minRetriesPerSecond) {
+        if(0 > ratio || 0 > minRetriesPerSecond) {
+            throw new IllegalArgumentException("Retry budget must not be negative");
+        }
+        this.budgetRatio         = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.budget              = Math.min(budget, capacity());
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of attempts per call, including the first.
+     * 
+     * @return Maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the number of retries made.
+     * 
+     * @return Number of retries
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of calls that still failed after their last attempt.
+     * 
+     * @return Number of calls that exhausted their attempts
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    /**
+     * Returns the number of retryable failures reported at once because the retry budget was spent.
+     * 
+     * @return Number of retries refused by the budget
+     */
+    public long getOverBudgetCount() {
+        return overBudgetCount.get();
+    }
+
+    /**
+     * Indicates whether an API call that failed (or was answered with an error) may be repeated.
+     * 
+     * @param  response Response to the call; null if the call failed
+     * @param  failure  Failure of the call; null if a response was received
+     * @return Whether the failure is transient
+     */
+    static boolean isRetryable(Response response, Throwable failure) {
+        if(null == response) {
+            return RemixException.Type.of(failure).isRetryable();
+        }
+        return response.isThrottled() || HttpURLConnection.HTTP_INTERNAL_ERROR <= response.getResponseCode();
+    }
+
+    /**
+     * Records a call about to be made for the first time, earning part of a retry.
+     */
+    synchronized void called() {
+        replenish();
+        budget = Math.min(capacity(), budget + budgetRatio);
+    }
+
+    /**
+     * Decides whether a failed attempt is retried, and after what delay.
+     * 
+     * @param  attempt  Number of the failed attempt, starting at 1
+     * @param  response Response to the attempt; null if the attempt failed
+     * @param  failure  Failure of the attempt; null if a response was received
+     * @return Delay (in nanoseconds) before the retry; negative if the call must not be retried
+     */
+    long retryDelay(int attempt, Response response, Throwable failure) {
+        if(!isRetryable(response, failure)) {
+            return -1;
+        }
+        if(attempt >= maxAttempts) {
+            exhaustedCount.incrementAndGet();
+            return -1;
+        }
+        if(!spend()) {
+            overBudgetCount.incrementAndGet();
+            return -1;
+        }
+        retryCount.incrementAndGet();
+        int  shift   = Math.min(attempt - 1, 62);
+        long ceiling = baseDelay > maxDelay >> shift ? maxDelay : baseDelay << shift;
+        long delay   = 0 == ceiling ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return null == response ? delay : Math.max(delay, Math.min(maxDelay, response.retryAfter()));
+    }
+
+    /**
+     * Takes a retry from the budget.
+     * 
+     * @return Whether a retry was available
+     */
+    private synchronized boolean spend() {
+        replenish();
+        if(1 > budget) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * Adds the retries allowed per second since the budget was last replenished.
+     */
+    private void replenish() {
+        long now = System.nanoTime();
+        budget      = Math.min(capacity(), budget + (now - replenished) * minRetriesPerSecond / 1e9);
+        replenished = now;
+    }
+
+    /**
+     * Returns the number of retries the budget may hold.
+     * 
+     * @return Budget capacity
+     */
+    private double capacity() {
+        return Math.max(1, minRetriesPerSecond);
+    }
+}
@@ -13,6 +13,7 @@
 package com.mattwilliamsnyc.service.remix;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,15 +24,24 @@ import java.util.List;
  */
 public class Store extends Entity {
     /**
-     * List of available products (only included with a "store availability" response)
+     * Fields of a store stored in slots
      */
-    private List<Product> products;
+    private static final FieldIndex FIELDS = new FieldIndex(
+        "storeId", "name", "address", "city", "region", "postalCode", "fullPostalCode", "country", "lat", "lng",
+        "phone", "hours", "distance", "products"
+    );
+
+    /**
+     * List of available products (only included with a "store availability" response), built on
+     * first access
+     */
+    private volatile List<Product> products;
 
     /**
      * Creates a new Store containing no data.
      */
     public Store() {
-        super();
+        super(FIELDS);
     }
 
     /**
@@ -40,7 +50,7 @@ public class Store extends Entity {
      * @param element Root element of a store representation
      */
     public Store(Element element) {
-        super(element);
+        super(element, FIELDS);
     }
 
     /**
@@ -163,17 +173,19 @@ public class Store extends Entity {
     /**
      * Returns the "products" property associated with this store (only included in "store availabilty" calls).
      * 
-     * @return List of available products at this store location
+     * @return List of available products at this store location (unmodifiable)
      */
     public List<Product> getProducts() {
+        List<Product> products = this.products;
         if(null == products) {
             products = new ArrayList<Product>();
             Object field = getField("products");
-            if(null != field && field instanceof Element && ((Element) field).hasChildren()) {
+            if(field instanceof Element && ((Element) field).hasChildren()) {
                 for(Element child : ((Element) field).getChildren()) {
                     products.add(new Product(child));
                 }
             }
+            this.products = products = Collections.unmodifiableList(products);
         }
         return products;
     }
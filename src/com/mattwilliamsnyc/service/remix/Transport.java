@@ -0,0 +1,53 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries HTTP requests made by a {@link Remix} client.
+ * 
+ * The default implementation is {@link HttpTransport}; {@link InProcessTransport} answers requests
+ * without touching the network and is intended for tests and benchmarks.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public interface Transport {
+    /**
+     * Executes a request, blocking until the response status and headers are available.
+     * 
+     * The caller must {@link TransportResponse#close() close} the returned response once its body
+     * has been read.
+     * 
+     * @param  request Request to be executed
+     * @return Response to the request
+     * @throws IOException Thrown if the request could not be completed
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Executes a request without blocking the calling thread.
+     * 
+     * The returned future completes once the response status and headers are available, or completes
+     * exceptionally (typically with an {@link IOException}) if the request could not be completed.
+     * The body is then streamed as it is read, and the caller must {@link TransportResponse#close()
+     * close} the response once it has been read. Cancelling the future abandons the request;
+     * implementations abort the exchange if they can.
+     * 
+     * @param  request Request to be executed
+     * @return Future response to the request
+     */
+    CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+}
@@ -0,0 +1,110 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable description of an HTTP request handed to a {@link Transport}.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class TransportRequest {
+    /**
+     * HTTP method of this request
+     */
+    private final String method;
+
+    /**
+     * Absolute URI targeted by this request
+     */
+    private final URI uri;
+
+    /**
+     * Request headers as name/value pairs
+     */
+    private final Map<String,String> headers;
+
+    /**
+     * Creates a new transport request.
+     * 
+     * @param method  HTTP method of the request
+     * @param uri     Absolute URI targeted by the request
+     * @param headers Request headers (copied)
+     */
+    public TransportRequest(String method, URI uri, Map<String,String> headers) {
+        this.method  = method;
+        this.uri     = uri;
+        this.headers = null == headers
+            ? Collections.<String,String>emptyMap()
+            : Collections.unmodifiableMap(new LinkedHashMap<String,String>(headers));
+    }
+
+    /**
+     * Returns the HTTP method of this request.
+     * 
+     * @return HTTP method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the absolute URI targeted by this request.
+     * 
+     * @return Request URI
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * Returns an unmodifiable Map of request headers.
+     * 
+     * @return Request headers
+     */
+    public Map<String,String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of a request header; returns null if the header is not set.
+     * 
+     * @param  name Name of the request header
+     * @return Value of the request header
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Returns a copy of this request with a header added (or replaced).
+     * 
+     * @param  name  Name of the request header
+     * @param  value Value of the request header
+     * @return New request
+     */
+    public TransportRequest withHeader(String name, String value) {
+        Map<String,String> copy = new LinkedHashMap<String,String>(headers);
+        copy.put(name, value);
+        return new TransportRequest(method, uri, copy);
+    }
+
+    public String toString() {
+        return method + " " + uri;
+    }
+}
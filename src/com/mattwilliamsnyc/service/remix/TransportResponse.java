@@ -0,0 +1,145 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Status, headers and body stream returned by a {@link Transport}.
+ * 
+ * Header names are matched case-insensitively. Closing a response, or its body stream, drains
+ * whatever is left of the body so that the underlying connection can be returned to its pool.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class TransportResponse implements Closeable {
+    /**
+     * HTTP status code of this response
+     */
+    private final int statusCode;
+
+    /**
+     * Response headers, keyed case-insensitively
+     */
+    private final Map<String,List<String>> headers;
+
+    /**
+     * Stream from which the response body is read
+     */
+    private final InputStream body;
+
+    /**
+     * Creates a new transport response.
+     * 
+     * @param statusCode HTTP status code of the response
+     * @param headers    Response headers (copied; null header names are dropped)
+     * @param body       Stream from which the response body is read; null for an empty body
+     */
+    public TransportResponse(int statusCode, Map<String,List<String>> headers, InputStream body) {
+        Map<String,List<String>> copy = new TreeMap<String,List<String>>(String.CASE_INSENSITIVE_ORDER);
+        if(null != headers) {
+            for(Map.Entry<String,List<String>> header : headers.entrySet()) {
+                if(null != header.getKey()) {
+                    copy.put(header.getKey(), header.getValue());
+                }
+            }
+        }
+        this.statusCode = statusCode;
+        this.headers    = Collections.unmodifiableMap(copy);
+        this.body       = new DrainingInputStream(null == body ? new ByteArrayInputStream(new byte[0]) : body);
+    }
+
+    /**
+     * Returns the HTTP status code of this response.
+     * 
+     * @return HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns an unmodifiable, case-insensitive Map of response headers.
+     * 
+     * @return Response headers
+     */
+    public Map<String,List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the first value of a response header; returns null if the header is not present.
+     * 
+     * @param  name Name of the response header
+     * @return First value of the response header
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return null == values || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Returns the stream from which the response body is read.
+     * 
+     * @return Response body stream
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Drains and closes the response body.
+     */
+    public void close() throws IOException {
+        body.close();
+    }
+
+    /**
+     * Body stream that reads to end-of-stream before closing; parsers close their input as soon as
+     * the document element ends, which would otherwise discard a reusable connection.
+     */
+    private static class DrainingInputStream extends FilterInputStream {
+        /**
+         * Whether this stream has been closed
+         */
+        private boolean closed;
+
+        DrainingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public synchronized void close() throws IOException {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] scratch = new byte[4096];
+                while(-1 != in.read(scratch)) {
+                    // Discard trailing bytes left unread by the parser
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.mattwilliamsnyc.service.remix.Element;
+import com.mattwilliamsnyc.service.remix.RemixException;
+
+/**
+ * Parsed XML document held in a handful of parallel primitive arrays rather than one object per
+ * element.
+ * 
+ * Each element is a row of int columns (name, first child, next sibling, value and attribute
+ * ranges); names are numbers into a per-document name table, and every value and attribute value
+ * lives in one shared text array. Like {@link String} itself, the text is stored one byte per
+ * character when every character is Latin-1, as is usual in the catalog. A product of 80 fields
+ * therefore costs a few hundred bytes of arrays, plus its text, instead of 80 {@link Element}s,
+ * lists and strings.
+ * 
+ * Elements are exposed as {@link IndexedElement} views, created on first access, whose values are
+ * those {@link XMLHandler} would have produced; strings are built when a value is read.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class CompactDocument extends ElementIndex {
+    /**
+     * Builder reused by each thread
+     */
+    private static final ThreadLocal<Builder> BUILDERS = ThreadLocal.withInitial(Builder::new);
+
+    /**
+     * Name table; element and attribute names are numbers into it
+     */
+    private String[] names;
+
+    /**
+     * Element columns, indexed by node number
+     */
+    private int[] name, firstChild, nextSibling, valueStart, valueLength, attributeStart;
+
+    /**
+     * Number of elements
+     */
+    private int count;
+
+    /**
+     * Attribute columns, indexed by attribute number; an element's attributes are numbered
+     * consecutively from its {@link #attributeStart}
+     */
+    private int[] attributeName, attributeValueStart, attributeValueLength;
+
+    /**
+     * Number of attributes
+     */
+    private int attributeCount;
+
+    /**
+     * Character data of every value and attribute value, one byte per character, if every character
+     * is Latin-1; null otherwise
+     */
+    private byte[] latin1;
+
+    /**
+     * Character data of every value and attribute value, if some character is not Latin-1; null otherwise
+     */
+    private char[] text;
+
+    /**
+     * Element views, created on first access
+     */
+    private AtomicReferenceArray<IndexedElement> elements;
+
+    /**
+     * Pool deduplicating low-cardinality values; null if disabled
+     */
+    private final StringPool values = StringPool.current();
+
+    /**
+     * Creates an empty document with room for a few elements.
+     */
+    private CompactDocument() {
+        name           = new int[64];
+        firstChild     = new int[64];
+        nextSibling    = new int[64];
+        valueStart     = new int[64];
+        valueLength    = new int[64];
+        attributeStart = new int[64];
+        attributeName        = new int[8];
+        attributeValueStart  = new int[8];
+        attributeValueLength = new int[8];
+    }
+
+    /**
+     * Parses a document into its compact form.
+     * 
+     * @param  source Source from which the document is read
+     * @return Document root element
+     * @throws RemixException Thrown if no SAX reader could be created
+     * @throws SAXException   Thrown if the document is not well-formed
+     * @throws IOException    Thrown if the document could not be read
+     */
+    public static Element parse(InputSource source) throws RemixException, SAXException, IOException {
+        Builder builder = BUILDERS.get();
+        return (builder.parsing ? new Builder() : builder).parse(source);
+    }
+
+    /**
+     * Appends an element.
+     * 
+     * @param  nameId Name table number of the element
+     * @return Node number
+     */
+    private int add(int nameId) {
+        if(count == name.length) {
+            int capacity   = count << 1;
+            name           = Arrays.copyOf(name, capacity);
+            firstChild     = Arrays.copyOf(firstChild, capacity);
+            nextSibling    = Arrays.copyOf(nextSibling, capacity);
+            valueStart     = Arrays.copyOf(valueStart, capacity);
+            valueLength    = Arrays.copyOf(valueLength, capacity);
+            attributeStart = Arrays.copyOf(attributeStart, capacity);
+        }
+        int node = count++;
+        name[node]           = nameId;
+        firstChild[node]     = -1;
+        nextSibling[node]    = -1;
+        valueLength[node]    = -1;
+        attributeStart[node] = attributeCount;
+        return node;
+    }
+
+    /**
+     * Appends an attribute of the most recently added element.
+     * 
+     * @param nameId Name table number of the attribute
+     * @param start  Offset of the value in the text
+     * @param length Length of the value
+     */
+    private void addAttribute(int nameId, int start, int length) {
+        if(attributeCount == attributeName.length) {
+            int capacity         = attributeCount << 1;
+            attributeName        = Arrays.copyOf(attributeName, capacity);
+            attributeValueStart  = Arrays.copyOf(attributeValueStart, capacity);
+            attributeValueLength = Arrays.copyOf(attributeValueLength, capacity);
+        }
+        attributeName[attributeCount]        = nameId;
+        attributeValueStart[attributeCount]  = start;
+        attributeValueLength[attributeCount] = length;
+        ++attributeCount;
+    }
+
+    /**
+     * Trims every array to its content once the document is complete.
+     * 
+     * @param names Name table
+     * @param text  Character data
+     */
+    private void complete(String[] names, char[] text) {
+        this.names           = names;
+        this.latin1          = toLatin1(text);
+        this.text            = null == latin1 ? text : null;
+        name                 = Arrays.copyOf(name, count);
+        firstChild           = Arrays.copyOf(firstChild, count);
+        nextSibling          = Arrays.copyOf(nextSibling, count);
+        valueStart           = Arrays.copyOf(valueStart, count);
+        valueLength          = Arrays.copyOf(valueLength, count);
+        attributeStart       = Arrays.copyOf(attributeStart, count);
+        attributeName        = Arrays.copyOf(attributeName, attributeCount);
+        attributeValueStart  = Arrays.copyOf(attributeValueStart, attributeCount);
+        attributeValueLength = Arrays.copyOf(attributeValueLength, attributeCount);
+        elements             = new AtomicReferenceArray<IndexedElement>(count);
+    }
+
+    /**
+     * Encodes text one byte per character.
+     * 
+     * @param  text Character data
+     * @return Encoded text; null if some character is not Latin-1
+     */
+    private static byte[] toLatin1(char[] text) {
+        byte[] latin1 = new byte[text.length];
+        for(int i = 0; i < text.length; ++i) {
+            if(0xFF < text[i]) {
+                return null;
+            }
+            latin1[i] = (byte) text[i];
+        }
+        return latin1;
+    }
+
+    /**
+     * Builds a string from the text.
+     * 
+     * @param  start  Offset of the string
+     * @param  length Length of the string
+     * @return New string
+     */
+    private String string(int start, int length) {
+        return null == latin1
+            ? new String(text, start, length)
+            : new String(latin1, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    IndexedElement element(int node) {
+        IndexedElement element = elements.get(node);
+        if(null == element) {
+            elements.compareAndSet(node, null, new IndexedElement(this, node, names[name[node]]));
+            element = elements.get(node);
+        }
+        return element;
+    }
+
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    int child(int node, String name) {
+        int found = -1;
+        for(int child = firstChild[node]; 0 <= child; child = nextSibling[child]) {
+            if(names[this.name[child]].equals(name)) {
+                found = child;
+            }
+        }
+        return found;
+    }
+
+    String value(int node, String name) {
+        int length = valueLength[node];
+        if(0 >= length) {
+            return 0 == length ? "" : null;
+        }
+        if(null != values && ElementNames.isLowCardinality(name)) {
+            if(null == latin1) {
+                return values.intern(text, valueStart[node], length);
+            }
+            char[] chars = new char[length];
+            for(int i = 0; i < length; ++i) {
+                chars[i] = (char) (latin1[valueStart[node] + i] & 0xFF);
+            }
+            return values.intern(chars, 0, length);
+        }
+        return string(valueStart[node], length);
+    }
+
+    void attributes(int node, BiConsumer<String,String> attributes) {
+        int end = node + 1 < count ? attributeStart[node + 1] : attributeCount;
+        for(int i = attributeStart[node]; i < end; ++i) {
+            attributes.accept(
+                names[attributeName[i]], string(attributeValueStart[i], attributeValueLength[i])
+            );
+        }
+    }
+
+    long estimateSize() {
+        return 64 + 16 + 4L * names.length
+             + 6 * (16 + 4L * count)
+             + 3 * (16 + 4L * attributeCount)
+             + 16 + (null == latin1 ? 2L * text.length : latin1.length)
+             + 16 + 4L * count
+             + estimateViews(0);
+    }
+
+    long estimateSize(int node) {
+        int end             = node + 1 < count ? attributeStart[node + 1] : attributeCount;
+        int attributeLength = 0;
+        for(int i = attributeStart[node]; i < end; ++i) {
+            attributeLength += names[attributeName[i]].length() + attributeValueLength[i];
+        }
+        int children = 0;
+        for(int child = firstChild[node]; 0 <= child; child = nextSibling[child]) {
+            ++children;
+        }
+        return estimateView(
+            names[name[node]].length(), valueLength[node], children, end - attributeStart[node], attributeLength
+        );
+    }
+
+    /**
+     * SAX handler filling a {@link CompactDocument}; reusable, together with its reader.
+     */
+    private static class Builder extends DefaultHandler {
+        /**
+         * SAX reader feeding this builder; created on first use
+         */
+        private XMLReader reader;
+
+        /**
+         * Whether {@link #parse(InputSource)} is running
+         */
+        private boolean parsing;
+
+        /**
+         * Document being built
+         */
+        private CompactDocument document;
+
+        /**
+         * Character data of the document being built
+         */
+        private final TextBuffer text = new TextBuffer();
+
+        /**
+         * Captures character data inside an element
+         */
+        private final TextBuffer buffer = new TextBuffer();
+
+        /**
+         * Name table numbers, by name
+         */
+        private final Map<String,Integer> nameIds = new HashMap<String,Integer>();
+
+        /**
+         * Open elements, outermost first
+         */
+        private int[] stack = new int[16];
+
+        /**
+         * Last child added to each open element; -1 if none yet
+         */
+        private int[] lastChild = new int[16];
+
+        /**
+         * Number of open elements
+         */
+        private int depth;
+
+        /**
+         * Parses a document with this builder's SAX reader.
+         * 
+         * @param  source Source from which the document is read
+         * @return Document root element
+         * @throws RemixException Thrown if no SAX reader could be created
+         * @throws SAXException   Thrown if the document is not well-formed
+         * @throws IOException    Thrown if the document could not be read
+         */
+        Element parse(InputSource source) throws RemixException, SAXException, IOException {
+            if(null == reader) {
+                reader = RemixUtil.createXMLReader();
+                reader.setContentHandler(this);
+                reader.setErrorHandler(this);
+            }
+            parsing = true;
+            try {
+                reset();
+                document = new CompactDocument();
+                reader.parse(source);
+                String[] names = new String[nameIds.size()];
+                for(Map.Entry<String,Integer> entry : nameIds.entrySet()) {
+                    names[entry.getValue()] = entry.getKey();
+                }
+                document.complete(names, text.toArray());
+                return document.element(0);
+            } finally {
+                reset();
+                parsing = false;
+            }
+        }
+
+        /**
+         * Discards the state left by a previous document.
+         */
+        private void reset() {
+            document = null;
+            depth    = 0;
+            text.clear();
+            buffer.clear();
+            nameIds.clear();
+        }
+
+        /**
+         * Returns the name table number of a name, adding it if necessary.
+         * 
+         * @param  name Element or attribute name
+         * @return Name table number
+         */
+        private int nameId(String name) {
+            Integer id = nameIds.get(name);
+            if(null == id) {
+                id = nameIds.size();
+                nameIds.put(name, id);
+            }
+            return id;
+        }
+
+        /**
+         * Receive notification of character data inside an element.
+         */
+        public void characters(char ch[], int start, int length) {
+            buffer.append(ch, start, length);
+        }
+
+        /**
+         * Receive notification of the start of an element.
+         */
+        public void startElement(String uri, String localName, String qName, Attributes attribs) {
+            int node = document.add(nameId(ElementNames.canonical(localName)));
+            for(int i = 0; i < attribs.getLength(); ++i) {
+                String value = attribs.getValue(i);
+                document.addAttribute(nameId(attribs.getQName(i)), text.length(), value.length());
+                text.append(value);
+            }
+            if(0 < depth) {
+                int previous = lastChild[depth - 1];
+                if(0 > previous) {
+                    document.firstChild[stack[depth - 1]] = node;
+                } else {
+                    document.nextSibling[previous] = node;
+                }
+                lastChild[depth - 1] = node;
+            }
+            if(depth == stack.length) {
+                stack     = Arrays.copyOf(stack, depth << 1);
+                lastChild = Arrays.copyOf(lastChild, depth << 1);
+            }
+            stack[depth]     = node;
+            lastChild[depth] = -1;
+            ++depth;
+        }
+
+        /**
+         * Receive notification of the end of an element.
+         */
+        public void endElement(String uri, String name, String qName) {
+            int node = stack[--depth];
+            if(!buffer.isEmpty()) {
+                document.valueStart[node]  = text.length();
+                document.valueLength[node] = buffer.moveTo(text);
+            }
+        }
+    }
+}
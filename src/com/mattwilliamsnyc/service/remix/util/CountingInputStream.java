@@ -0,0 +1,98 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through an underlying stream.
+ * 
+ * Closing the stream reads whatever is left of the underlying stream first, so that the count
+ * covers every byte it held even when a parser stops (and closes its input) at the end of the
+ * document.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class CountingInputStream extends FilterInputStream {
+    /**
+     * Number of bytes read so far
+     */
+    private long count;
+
+    /**
+     * Whether this stream has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Wraps a stream, counting the bytes read through it.
+     * 
+     * @param in Underlying stream
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read through this stream.
+     * 
+     * @return Number of bytes read
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int read() throws IOException {
+        int b = in.read();
+        if(-1 != b) {
+            ++count;
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if(0 < read) {
+            count += read;
+        }
+        return read;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            byte[] scratch = new byte[4096];
+            while(-1 != read(scratch, 0, scratch.length)) {
+                // Count trailing bytes left unread by the parser
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Document held in a flat, node-numbered form and exposed through {@link IndexedElement} views.
+ * 
+ * Node 0 is the document root; the other nodes are numbered in document order.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+abstract class ElementIndex {
+    /**
+     * Returns the view of an element, creating it on first access.
+     * 
+     * @param  node Node number
+     * @return Element view
+     */
+    abstract IndexedElement element(int node);
+
+    /**
+     * Returns an element's first child.
+     * 
+     * @param  node Node number
+     * @return Node number of the first child; -1 if there is none
+     */
+    abstract int firstChild(int node);
+
+    /**
+     * Returns an element's next sibling.
+     * 
+     * @param  node Node number
+     * @return Node number of the next sibling; -1 if there is none
+     */
+    abstract int nextSibling(int node);
+
+    /**
+     * Finds the last child of an element with a given name.
+     * 
+     * @param  node Node number
+     * @param  name Name of the child
+     * @return Node number of the child; -1 if there is none
+     */
+    abstract int child(int node, String name);
+
+    /**
+     * Decodes an element's value.
+     * 
+     * @param  node Node number
+     * @param  name Element name, selecting whether the value is deduplicated
+     * @return Value; null if the element has no character data
+     */
+    abstract String value(int node, String name);
+
+    /**
+     * Decodes an element's attributes.
+     * 
+     * @param node       Node number
+     * @param attributes Receives each attribute name and value
+     */
+    abstract void attributes(int node, BiConsumer<String,String> attributes);
+
+    /**
+     * Estimates the heap retained by the document, in bytes.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    abstract long estimateSize();
+
+    /**
+     * Estimates the heap retained by an element's view once its value, attributes and children have
+     * all been decoded, excluding the views of its children.
+     * 
+     * @param  node Node number
+     * @return Estimated retained size in bytes
+     */
+    abstract long estimateSize(int node);
+
+    /**
+     * Estimates the heap retained by the views of an element and its descendants once they have all
+     * been decoded.
+     * 
+     * Views are created and decoded as the document is read, after a cache has recorded its size, so
+     * a document is sized as if every view had been decoded.
+     * 
+     * @param  node Node number
+     * @return Estimated retained size in bytes
+     */
+    long estimateViews(int node) {
+        long size = estimateSize(node);
+        for(int child = firstChild(node); 0 <= child; child = nextSibling(child)) {
+            size += estimateViews(child);
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap retained by a decoded view, as {@link com.mattwilliamsnyc.service.remix.Element#estimateSize()}
+     * counts it, excluding the views of its children.
+     * 
+     * @param  nameLength      Length of the element's name
+     * @param  valueLength     Length of the element's value; negative if it has none
+     * @param  childCount      Number of children
+     * @param  attributeCount  Number of attributes
+     * @param  attributeLength Total length of the attribute names and values
+     * @return Estimated retained size in bytes
+     */
+    static long estimateView(int nameLength, int valueLength, int childCount, int attributeCount, int attributeLength) {
+        long size = 48 + estimateString(nameLength);
+        if(0 <= valueLength) {
+            size += estimateString(valueLength);
+        }
+        if(0 < attributeCount) {
+            size += 64 + (16 + 32 + 2 * 40 + 16) * attributeCount + attributeLength;
+        }
+        if(0 < childCount) {
+            size += 40 + 4 * childCount;
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap retained by a compact (Latin-1) string.
+     * 
+     * @param  length Length of the string
+     * @return Estimated retained size in bytes
+     */
+    private static long estimateString(int length) {
+        return 40 + ((length + 7) & ~7);
+    }
+}
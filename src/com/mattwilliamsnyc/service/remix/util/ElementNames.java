@@ -0,0 +1,128 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Element names of the Remix API schema.
+ * 
+ * Parsers map each element name to a single canonical instance, so that the names retained by
+ * thousands of cached elements share one string per name. Fields whose values repeat across
+ * entities (e.g. "manufacturer", "country") are flagged for value deduplication through a
+ * {@link StringPool}.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class ElementNames {
+    /**
+     * Element names found in Remix API responses, mapped to themselves
+     */
+    private static final Map<String,String> NAMES = new HashMap<String,String>();
+
+    /**
+     * Fields holding a small set of distinct values
+     */
+    private static final Set<String> LOW_CARDINALITY = new HashSet<String>();
+
+    /**
+     * Names of the elements wrapping each item of a repeated field, keyed by the field's name
+     */
+    private static final Map<String,String> SINGULAR = new HashMap<String,String>();
+
+    static {
+        String[] names = {
+            "accessoriesImage", "active", "activeUpdateDate", "addToCartUrl", "address", "affiliateAddToCartUrl",
+            "affiliateUrl", "alternateViewsImage", "angleImage", "backViewImage", "buyUrl", "category",
+            "categoryPath", "city", "cjAffiliateUrl", "class", "classId", "color", "country", "customerReviewAverage",
+            "customerReviewCount", "department", "departmentId", "depth", "description", "details", "distance",
+            "dollarSavings", "energyGuideImage", "error", "example", "examples", "feature", "features", "format",
+            "freeShipping", "fullPostalCode", "height", "hours", "id", "image", "inStoreAvailability",
+            "inStoreAvailabilityText", "inStoreAvailabilityUpdateDate", "item", "itemUpdateDate", "largeFrontImage",
+            "largeImage", "lat", "leftViewImage", "lng", "longDescription", "manufacturer", "mediumImage", "message",
+            "modelNumber", "name", "navigability", "new", "offer", "offers", "onlineAvailability",
+            "onlineAvailabilityText", "onlineAvailabilityUpdateDate", "orderable", "phone", "postalCode",
+            "priceUpdateDate", "printOnly", "product", "productId", "products", "region", "regularPrice", "related",
+            "releaseDate", "remoteControlImage", "rightViewImage", "salePrice", "shippingCost", "shippingWeight",
+            "shortDescription", "sku", "specialOrder", "startDate", "status", "store", "storeId", "stores", "subclass",
+            "subclassId", "text", "thumbnailImage", "title", "topViewImage", "type", "upc", "url", "warrantyLabor",
+            "warrantyParts", "weight", "width"
+        };
+        for(String name : names) {
+            NAMES.put(name, name);
+        }
+        String[] lowCardinality = {
+            "active", "class", "classId", "color", "country", "department", "departmentId", "format", "freeShipping",
+            "inStoreAvailability", "inStoreAvailabilityText", "manufacturer", "navigability", "new",
+            "onlineAvailability", "onlineAvailabilityText", "orderable", "printOnly", "region", "shippingCost",
+            "specialOrder", "status", "subclass", "subclassId", "type", "warrantyLabor", "warrantyParts"
+        };
+        for(String name : lowCardinality) {
+            LOW_CARDINALITY.add(name);
+        }
+        SINGULAR.put("categoryPath", "category");
+        SINGULAR.put("examples",     "example");
+        SINGULAR.put("features",     "feature");
+        SINGULAR.put("offers",       "offer");
+        SINGULAR.put("products",     "product");
+        SINGULAR.put("related",      "item");
+        SINGULAR.put("stores",       "store");
+    }
+
+    /**
+     * Returns the canonical instance of an element name.
+     * 
+     * @param  name Element name, as reported by the parser
+     * @return Canonical instance of a schema name; the name itself if it is not part of the schema
+     */
+    public static String canonical(String name) {
+        String canonical = NAMES.get(name);
+        return null == canonical ? name : canonical;
+    }
+
+    /**
+     * Indicates whether an element holds one of a small set of distinct values.
+     * 
+     * @param  name Element name
+     * @return Whether the element's values are worth deduplicating
+     */
+    public static boolean isLowCardinality(String name) {
+        return LOW_CARDINALITY.contains(name);
+    }
+
+    /**
+     * Indicates whether a top-level field holds the entities of a collection resource.
+     * 
+     * @param  name Field name
+     * @return Whether the field is "products" or "stores"
+     */
+    public static boolean isCollection(String name) {
+        return "products".equals(name) || "stores".equals(name);
+    }
+
+    /**
+     * Returns the name of the elements wrapping each item of a repeated field, as it appears in XML
+     * documents (e.g. "category" for "categoryPath").
+     * 
+     * @param  name Name of the repeated field
+     * @return Item element name; the field name itself if it is not a known repeated field
+     */
+    public static String singular(String name) {
+        String singular = SINGULAR.get(name);
+        return null == singular ? name : singular;
+    }
+}
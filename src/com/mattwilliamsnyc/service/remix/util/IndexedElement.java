@@ -0,0 +1,178 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.util.List;
+import java.util.Map;
+
+import com.mattwilliamsnyc.service.remix.Element;
+import com.mattwilliamsnyc.service.remix.RemixException;
+
+/**
+ * {@link Element} view of an element recorded by an {@link XMLIndex} or a {@link CompactDocument}.
+ * 
+ * The value, attributes and children are decoded from the underlying document on first access; an
+ * {@link com.mattwilliamsnyc.service.remix.Entity} built from an indexed element reads its fields
+ * straight from the index through {@link #getField(String)}. Views are safe for concurrent readers.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class IndexedElement extends Element {
+    /**
+     * Marks a value that has not been decoded yet
+     */
+    private static final Object UNDECODED = new Object();
+
+    /**
+     * Index holding the document
+     */
+    private final ElementIndex index;
+
+    /**
+     * Node number of this element within the index
+     */
+    private final int node;
+
+    /**
+     * Decoded value
+     */
+    private volatile Object value = UNDECODED;
+
+    /**
+     * Whether the children have been added to this element
+     */
+    private volatile boolean childrenDecoded;
+
+    /**
+     * Whether the attributes have been added to this element
+     */
+    private volatile boolean attributesDecoded;
+
+    /**
+     * Creates a view of an indexed element.
+     * 
+     * @param index Index holding the document
+     * @param node  Node number of the element
+     * @param name  Name of the element
+     */
+    IndexedElement(ElementIndex index, int node, String name) {
+        super(name);
+        this.index = index;
+        this.node  = node;
+    }
+
+    /**
+     * Returns the field of an entity rooted at this element, as {@link com.mattwilliamsnyc.service.remix.Entity}
+     * would have recorded it: the child element itself if it has children, its value otherwise.
+     * 
+     * @param  name Name of the field (child element)
+     * @return Field value; null if there is no such child
+     */
+    public Object getField(String name) {
+        int child = index.child(node, name);
+        if(0 > child) {
+            return null;
+        }
+        IndexedElement element = index.element(child);
+        return element.hasChildren() ? element : element.getValue();
+    }
+
+    public Object getValue() {
+        Object decoded = value;
+        if(UNDECODED == decoded) {
+            decoded = index.value(node, getName());
+            value   = decoded;
+        }
+        return decoded;
+    }
+
+    public Element setValue(Object value) {
+        this.value = value;
+        return this;
+    }
+
+    public List<Element> getChildren() {
+        decodeChildren();
+        return super.getChildren();
+    }
+
+    public boolean hasChildren() {
+        return childrenDecoded ? super.hasChildren() : 0 <= index.firstChild(node);
+    }
+
+    public Element addChild(Element child) {
+        decodeChildren();
+        return super.addChild(child);
+    }
+
+    public Element removeChild(Element element) throws RemixException {
+        decodeChildren();
+        return super.removeChild(element);
+    }
+
+    public String getAttribute(String name) {
+        decodeAttributes();
+        return super.getAttribute(name);
+    }
+
+    public Map<String,String> getAttributes() {
+        decodeAttributes();
+        return super.getAttributes();
+    }
+
+    public Element setAttribute(String name, String value) {
+        decodeAttributes();
+        return super.setAttribute(name, value);
+    }
+
+    /**
+     * Estimates the heap retained by this view and its descendants' views, as if they had all been
+     * decoded; the document root accounts for the whole index.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    public long estimateSize() {
+        return 0 == node ? index.estimateSize() : index.estimateViews(node);
+    }
+
+    /**
+     * Adds the views of this element's children on first access.
+     */
+    private void decodeChildren() {
+        if(!childrenDecoded) {
+            synchronized(this) {
+                if(!childrenDecoded) {
+                    for(int child = index.firstChild(node); 0 <= child; child = index.nextSibling(child)) {
+                        super.addChild(index.element(child));
+                    }
+                    childrenDecoded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds this element's attributes on first access.
+     */
+    private void decodeAttributes() {
+        if(!attributesDecoded) {
+            synchronized(this) {
+                if(!attributesDecoded) {
+                    index.attributes(node, (name, value) -> super.setAttribute(name, value));
+                    attributesDecoded = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.mattwilliamsnyc.service.remix.Element;
+
+/**
+ * Streaming reader mapping a Remix API JSON document onto the same {@link Element} tree as the
+ * equivalent XML document, so that entities built from either format are interchangeable.
+ * 
+ * <ul>
+ *   <li>Object members and scalars become named child elements; numbers and booleans keep their
+ *       literal text, as they would in XML, and null becomes an element without a value. Strings are
+ *       normalized as XML character data is: newlines are removed and surrounding whitespace is
+ *       trimmed, and an empty string, like an empty XML element, has no value.</li>
+ *   <li>Array items become children named after the singular of the array (e.g. "categoryPath"
+ *       items become "category" elements); an item that merely wraps a value under that singular
+ *       name (e.g. <tt>{"feature":"..."}</tt>) is collapsed into it.</li>
+ *   <li>A top-level "products" or "stores" array makes the document a collection: the root is
+ *       named after the array, the other top-level scalars become its attributes, and the array's
+ *       items become its children (or are streamed to a consumer).</li>
+ *   <li>A document consisting of a single "error" object is unwrapped to that object.</li>
+ * </ul>
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class JSONReader {
+    /**
+     * Name of the root element of a document that is neither a collection nor an error
+     */
+    public static final String ROOT = "root";
+
+    /**
+     * Source of the document
+     */
+    private final Reader in;
+
+    /**
+     * Buffered characters
+     */
+    private final char[] chars = new char[8192];
+
+    /**
+     * Position of the next buffered character
+     */
+    private int position;
+
+    /**
+     * Number of buffered characters
+     */
+    private int limit;
+
+    /**
+     * Number of characters consumed before the buffered ones
+     */
+    private long offset;
+
+    /**
+     * Accumulates string and literal tokens
+     */
+    private char[] token = new char[256];
+
+    /**
+     * Length of the current token
+     */
+    private int tokenLength;
+
+    /**
+     * Pool deduplicating low-cardinality values; null if disabled
+     */
+    private final StringPool values = StringPool.current();
+
+    /**
+     * Creates a reader over a UTF-8 document.
+     * 
+     * @param in Stream from which the document is read
+     */
+    private JSONReader(InputStream in) {
+        this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a document into a tree of elements.
+     * 
+     * @param  in Stream from which the UTF-8 document is read
+     * @return Document root element
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    public static Element parse(InputStream in) throws IOException {
+        return parse(in, null);
+    }
+
+    /**
+     * Parses a document, streaming the entities of a collection to a consumer.
+     * 
+     * @param  in       Stream from which the UTF-8 document is read
+     * @param  entities Receives each entity of a collection as soon as it has been read; null to
+     *                  attach entities to the document root
+     * @return Document root element
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    public static Element parse(InputStream in, Consumer<Element> entities) throws IOException {
+        return new JSONReader(in).readDocument(entities);
+    }
+
+    /**
+     * Reads the top-level object.
+     * 
+     * @param  entities Receives the entities of a collection; may be null
+     * @return Document root element
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    private Element readDocument(Consumer<Element> entities) throws IOException {
+        expect('{');
+        List<Element> members    = new ArrayList<Element>();
+        String        collection = null;
+        List<Element> items      = new ArrayList<Element>();
+        if('}' != peek()) {
+            do {
+                String name = readName();
+                if(null == collection && '[' == peek() && ElementNames.isCollection(name)) {
+                    collection = name;
+                    readArray(name, items, entities);
+                } else {
+                    members.add(readValue(name));
+                }
+            } while(',' == next());
+            unread();
+        }
+        expect('}');
+        if(0 <= peekOrEnd()) {
+            throw malformed("end of document");
+        }
+
+        if(null != collection) {
+            Element root = new Element(collection);
+            for(Element member : members) {
+                if(!member.hasChildren() && null != member.getValue()) {
+                    root.setAttribute(member.getName(), (String) member.getValue());
+                }
+            }
+            for(Element item : items) {
+                root.addChild(item);
+            }
+            return root;
+        }
+        if(1 == members.size() && "error".equals(members.get(0).getName()) && members.get(0).hasChildren()) {
+            return members.get(0);
+        }
+        Element root = new Element(ROOT);
+        for(Element member : members) {
+            root.addChild(member);
+        }
+        return root;
+    }
+
+    /**
+     * Reads a value into an element.
+     * 
+     * @param  name Name of the element
+     * @return Element holding the value
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    private Element readValue(String name) throws IOException {
+        char c = peek();
+        if('{' == c) {
+            next();
+            Element element = new Element(name);
+            if('}' != peek()) {
+                do {
+                    element.addChild(readValue(readName()));
+                } while(',' == next());
+                unread();
+            }
+            expect('}');
+            return element;
+        }
+        if('[' == c) {
+            List<Element> items   = new ArrayList<Element>();
+            Element       element = new Element(name);
+            readArray(name, items, null);
+            for(Element item : items) {
+                element.addChild(item);
+            }
+            return element;
+        }
+        StringPool pool = null != values && ElementNames.isLowCardinality(name) ? values : null;
+        if('"' == c) {
+            readString();
+            if(0 == tokenLength) {
+                return new Element(name);
+            }
+            // Line ends read as newlines, as an XML parser normalizes them
+            for(int i = 0; i < tokenLength; ++i) {
+                if('\r' == token[i]) {
+                    token[i] = '\n';
+                }
+            }
+            return new Element(name, TextBuffer.toValue(token, tokenLength, pool));
+        }
+        readLiteral();
+        if(isLiteral("null")) {
+            return new Element(name);
+        }
+        return new Element(
+            name, null == pool ? new String(token, 0, tokenLength) : pool.intern(token, 0, tokenLength)
+        );
+    }
+
+    /**
+     * Reads an array, naming its items after the singular of the array's name.
+     * 
+     * @param  name     Name of the array
+     * @param  items    Receives the items, unless they are streamed
+     * @param  entities Receives the items as soon as they have been read; may be null
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    private void readArray(String name, List<Element> items, Consumer<Element> entities) throws IOException {
+        expect('[');
+        if(']' == peek()) {
+            next();
+            return;
+        }
+        String itemName = ElementNames.singular(name);
+        do {
+            Element item = readValue(itemName);
+            List<Element> children = item.getChildren();
+            if(null != children && 1 == children.size() && itemName.equals(children.get(0).getName())
+                    && !children.get(0).hasChildren()) {
+                item = children.get(0);
+            }
+            if(null == entities) {
+                items.add(item);
+            } else {
+                entities.accept(item);
+            }
+        } while(',' == next());
+        unread();
+        expect(']');
+    }
+
+    /**
+     * Reads an object member name and the following colon.
+     * 
+     * @return Canonical member name
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    private String readName() throws IOException {
+        if('"' != peek()) {
+            throw malformed("member name");
+        }
+        readString();
+        expect(':');
+        return ElementNames.canonical(new String(token, 0, tokenLength));
+    }
+
+    /**
+     * Reads a string into the token buffer, resolving escape sequences.
+     * 
+     * @throws IOException Thrown if the document could not be read or is not well-formed
+     */
+    private void readString() throws IOException {
+        expect('"');
+        tokenLength = 0;
+        while(true) {
+            if(position == limit && !fill()) {
+                throw malformed("closing quote");
+            }
+            char c = chars[position++];
+            if('"' == c) {
+                return;
+            }
+            if('\\' == c) {
+                c = read();
+                switch(c) {
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    case 'u':
+                        int code = 0;
+                        for(int i = 0; i < 4; ++i) {
+                            int digit = Character.digit(read(), 16);
+                            if(0 > digit) {
+                                throw malformed("hexadecimal digit");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        c = (char) code;
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        throw malformed("escape sequence");
+                }
+            }
+            append(c);
+        }
+    }
+
+    /**
+     * Reads a number, boolean or null literal into the token buffer.
+     * 
+     * @throws IOException Thrown if the document could not be read or the token is not a literal
+     */
+    private void readLiteral() throws IOException {
+        tokenLength = 0;
+        while(position < limit || fill()) {
+            char c = chars[position];
+            if(',' == c || '}' == c || ']' == c || ' ' >= c) {
+                break;
+            }
+            append(c);
+            ++position;
+        }
+        if(!isLiteral("true") && !isLiteral("false") && !isLiteral("null") && !isNumber()) {
+            throw malformed("value");
+        }
+    }
+
+    /**
+     * Indicates whether the token buffer holds a given literal.
+     * 
+     * @param  literal Literal name
+     * @return Whether the token is the literal
+     */
+    private boolean isLiteral(String literal) {
+        if(literal.length() != tokenLength) {
+            return false;
+        }
+        for(int i = 0; i < tokenLength; ++i) {
+            if(literal.charAt(i) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the token buffer holds a JSON number: an optional minus sign, an integer
+     * part without leading zeros, and optional fraction and exponent parts.
+     * 
+     * @return Whether the token is a number
+     */
+    private boolean isNumber() {
+        int i = 0;
+        if(i < tokenLength && '-' == token[i]) {
+            ++i;
+        }
+        if(i < tokenLength && '0' == token[i]) {
+            ++i;
+        } else {
+            int digits = skipDigits(i);
+            if(digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        if(i < tokenLength && '.' == token[i]) {
+            int digits = skipDigits(i + 1);
+            if(digits == i + 1) {
+                return false;
+            }
+            i = digits;
+        }
+        if(i < tokenLength && ('e' == token[i] || 'E' == token[i])) {
+            ++i;
+            if(i < tokenLength && ('+' == token[i] || '-' == token[i])) {
+                ++i;
+            }
+            int digits = skipDigits(i);
+            if(digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == tokenLength;
+    }
+
+    /**
+     * Skips decimal digits in the token buffer.
+     * 
+     * @param  from Offset of the first character to be examined
+     * @return Offset of the first character that is not a digit
+     */
+    private int skipDigits(int from) {
+        while(from < tokenLength && '0' <= token[from] && '9' >= token[from]) {
+            ++from;
+        }
+        return from;
+    }
+
+    /**
+     * Appends a character to the token buffer.
+     * 
+     * @param c Character to be appended
+     */
+    private void append(char c) {
+        if(tokenLength == token.length) {
+            char[] grown = new char[token.length << 1];
+            System.arraycopy(token, 0, grown, 0, tokenLength);
+            token = grown;
+        }
+        token[tokenLength++] = c;
+    }
+
+    /**
+     * Consumes the next non-whitespace character, which must be the expected one.
+     * 
+     * @param  expected Expected character
+     * @throws IOException Thrown if another character (or the end of the document) was found
+     */
+    private void expect(char expected) throws IOException {
+        if(expected != next()) {
+            unread();
+            throw malformed("'" + expected + "'");
+        }
+    }
+
+    /**
+     * Consumes and returns the next non-whitespace character.
+     * 
+     * @return Next character
+     * @throws IOException Thrown if the end of the document was reached
+     */
+    private char next() throws IOException {
+        char c = peek();
+        ++position;
+        return c;
+    }
+
+    /**
+     * Steps back over the character returned by {@link #next()}.
+     */
+    private void unread() {
+        --position;
+    }
+
+    /**
+     * Returns the next non-whitespace character without consuming it.
+     * 
+     * @return Next character
+     * @throws IOException Thrown if the end of the document was reached
+     */
+    private char peek() throws IOException {
+        int c = peekOrEnd();
+        if(0 > c) {
+            throw malformed("more input");
+        }
+        return (char) c;
+    }
+
+    /**
+     * Returns the next non-whitespace character without consuming it, or -1 at the end of the document.
+     * 
+     * @return Next character; -1 at the end of the document
+     * @throws IOException Thrown if the document could not be read
+     */
+    private int peekOrEnd() throws IOException {
+        while(position < limit || fill()) {
+            char c = chars[position];
+            if(' ' != c && '\n' != c && '\r' != c && '\t' != c) {
+                return c;
+            }
+            ++position;
+        }
+        return -1;
+    }
+
+    /**
+     * Consumes the next character, whitespace included.
+     * 
+     * @return Next character
+     * @throws IOException Thrown if the end of the document was reached
+     */
+    private char read() throws IOException {
+        if(position == limit && !fill()) {
+            throw malformed("more input");
+        }
+        return chars[position++];
+    }
+
+    /**
+     * Refills the buffer once it has been consumed.
+     * 
+     * @return Whether any characters were read
+     * @throws IOException Thrown if the document could not be read
+     */
+    private boolean fill() throws IOException {
+        offset  += limit;
+        position = 0;
+        limit    = 0;
+        int count = in.read(chars, 0, chars.length);
+        if(0 >= count) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Describes a syntax error at the current position.
+     * 
+     * @param  expected What was expected at the current position
+     * @return Exception to be thrown
+     */
+    private MalformedDocumentException malformed(String expected) {
+        return new MalformedDocumentException("Malformed JSON: expected " + expected + " at offset " + (offset + position));
+    }
+}
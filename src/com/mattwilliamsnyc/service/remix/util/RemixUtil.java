@@ -12,14 +12,27 @@
  */
 package com.mattwilliamsnyc.service.remix.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import com.mattwilliamsnyc.service.remix.RemixException;
 
@@ -40,6 +53,27 @@ public class RemixUtil {
      */
     public final static String DELIMITER_QUERY = "&";
 
+    /**
+     * Content codings accepted by the client, in the form sent with the Accept-Encoding header
+     */
+    public final static String ACCEPT_ENCODING = "gzip, deflate";
+
+    /**
+     * Characters allowed unescaped in a request URI (RFC 2396 unreserved and reserved characters)
+     */
+    private final static String URI_CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.!~*'();/?:@&=+$,";
+
+    /**
+     * Upper-case hexadecimal digits used in escapes
+     */
+    private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * SAX driver, resolved once (factories are thread-safe once configured)
+     */
+    private final static SAXParserFactory SAX_PARSER_FACTORY = createSAXParserFactory();
+
     /**
      * Builds a resource URI filter string (e.g. "(name=foo&bar>=10)") from a list of filters.
      * 
@@ -87,7 +121,106 @@ public class RemixUtil {
     }
 
     /**
-     * Attempts to instantiate and return a SAX XMLReader; throws an exception on failure.
+     * Wraps a response body so that it is decompressed as it is read, according to its Content-Encoding.
+     * 
+     * "deflate" bodies are accepted with or without the zlib wrapper, since servers disagree on which
+     * one the name refers to.
+     * 
+     * @param  body            Response body as received
+     * @param  contentEncoding Value of the Content-Encoding header; null or "identity" if uncompressed
+     * @return Stream of decoded response bytes
+     * @throws IOException Thrown if the coding is unsupported or the compressed header is invalid
+     */
+    public static InputStream decodeContent(InputStream body, String contentEncoding) throws IOException {
+        String coding = null == contentEncoding ? "" : contentEncoding.trim().toLowerCase();
+        if(0 == coding.length() || "identity".equals(coding)) {
+            return body;
+        } else if("gzip".equals(coding) || "x-gzip".equals(coding)) {
+            return new GZIPInputStream(body, 8192);
+        } else if("deflate".equals(coding)) {
+            PushbackInputStream in = new PushbackInputStream(body, 2);
+            int cmf = in.read();
+            int flg = in.read();
+            if(-1 != flg) {
+                in.unread(flg);
+            }
+            if(-1 != cmf) {
+                in.unread(cmf);
+            }
+            boolean zlib = 8 == (cmf & 0x0F) && 0 == ((cmf << 8) | flg) % 31;
+            return new InflaterInputStream(in, new Inflater(!zlib), 8192);
+        }
+        throw new IOException("Unsupported content encoding: " + contentEncoding);
+    }
+
+    /**
+     * Converts a request URL into a {@link URI}, escaping characters (e.g. spaces in filters) that
+     * {@link URL} tolerates but {@link URI} rejects.
+     * 
+     * Escapes already present in the URL (e.g. "%20" in a pre-encoded filter) are kept as they are;
+     * only characters that are illegal in a URI, and '%' signs that do not start an escape, are quoted.
+     * 
+     * @param  url Request URL, as assembled from the entry point, resource URI and query string
+     * @return Equivalent URI
+     * @throws RemixException Thrown if the URL is malformed
+     */
+    public static URI toURI(String url) throws RemixException {
+        try {
+            new URL(url);
+            return new URI(quoteIllegal(url));
+        } catch (MalformedURLException e) {
+            throw new RemixException("Invalid URL", e);
+        } catch (URISyntaxException e) {
+            throw new RemixException("Invalid URL", e);
+        }
+    }
+
+    /**
+     * Percent-encodes (as UTF-8) the characters of a URL that are illegal in a {@link URI}, keeping
+     * existing "%XX" escapes.
+     * 
+     * @param  url Request URL
+     * @return URL made of legal URI characters only
+     */
+    private static String quoteIllegal(String url) {
+        StringBuilder quoted = null;
+        for(int i = 0; i < url.length(); ++i) {
+            char c = url.charAt(i);
+            boolean legal = '%' == c
+                ? i + 2 < url.length() && isHexDigit(url.charAt(i + 1)) && isHexDigit(url.charAt(i + 2))
+                : c < 128 && -1 != URI_CHARS.indexOf(c);
+            if(legal) {
+                if(null != quoted) {
+                    quoted.append(c);
+                }
+                continue;
+            }
+            if(null == quoted) {
+                quoted = new StringBuilder(url.length() + 16).append(url, 0, i);
+            }
+            int end = Character.isHighSurrogate(c) && i + 1 < url.length() ? i + 2 : i + 1;
+            for(byte b : url.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                quoted.append('%').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+            }
+            i = end - 1;
+        }
+        return null == quoted ? url : quoted.toString();
+    }
+
+    /**
+     * Indicates whether a character is a hexadecimal digit.
+     * 
+     * @param  c Character
+     * @return Whether the character is 0-9, a-f or A-F
+     */
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * Attempts to instantiate and return a namespace-aware SAX XMLReader; throws an exception on failure.
+     * 
+     * The SAX driver is resolved once; each call only constructs a new reader.
      * 
      * @link   http://java.sun.com/j2se/1.5.0/docs/api/org/xml/sax/XMLReader.html
      * @return SAX XMLReader
@@ -95,15 +228,22 @@ public class RemixUtil {
      */
     public static XMLReader createXMLReader() throws RemixException {
         try {
-            return XMLReaderFactory.createXMLReader();
+            return SAX_PARSER_FACTORY.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new RemixException("Couldn't initialize a SAX driver for an XMLReader", e);
         } catch (SAXException e) {
-            // Needed in 1.4
-            System.setProperty("org.xml.sax.driver", "org.apache.crimson.parser.XMLReaderImpl");
-        }
-        try {
-            return XMLReaderFactory.createXMLReader();
-        } catch (SAXException e) {
-            throw new RemixException("Couldn't initialize a SAX driver for an XMLReader");
+            throw new RemixException("Couldn't initialize a SAX driver for an XMLReader", e);
         }
     }
+
+    /**
+     * Resolves the SAX driver used by {@link #createXMLReader()}.
+     * 
+     * @return Namespace-aware SAX parser factory
+     */
+    private static SAXParserFactory createSAXParserFactory() {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
 }
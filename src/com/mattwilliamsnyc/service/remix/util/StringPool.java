@@ -0,0 +1,248 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe intern table for repeated field values.
+ * 
+ * Values are looked up straight from the parser's character buffer, so a repeated value costs no
+ * allocation at all. The table admits values until it holds its maximum number of entries and
+ * never evicts; values longer than the length limit are never pooled. Low-cardinality values
+ * therefore settle in the table early, while the bounds keep one-off values from growing it.
+ * 
+ * Deduplication is enabled for one client's responses by giving it a pool of its own, or for all
+ * responses by installing a shared pool:
+ * 
+ * <pre>
+ * Remix remix = Remix.builder(apiKey).stringPool(new StringPool(4096, 64)).build();
+ * StringPool.setShared(new StringPool(4096, 64));
+ * ...
+ * System.out.println(StringPool.getShared()); // hits, misses and estimated bytes saved
+ * </pre>
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class StringPool {
+    /**
+     * Pool used by the parsers; null when deduplication is disabled (the default)
+     */
+    private static volatile StringPool shared;
+
+    /**
+     * Pool of the client whose response is being parsed on each thread; null to use the shared pool
+     */
+    private static final ThreadLocal<StringPool> CURRENT = new ThreadLocal<StringPool>();
+
+    /**
+     * Open-addressing table of pooled values (at most half full)
+     */
+    private final AtomicReferenceArray<String> table;
+
+    /**
+     * Maximum number of pooled values
+     */
+    private final int maxEntries;
+
+    /**
+     * Maximum length of a pooled value
+     */
+    private final int maxLength;
+
+    /**
+     * Number of pooled values
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Statistics
+     */
+    private final LongAdder hitCount   = new LongAdder();
+    private final LongAdder missCount  = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Creates a pool.
+     * 
+     * @param maxEntries Maximum number of pooled values
+     * @param maxLength  Maximum length of a pooled value
+     */
+    public StringPool(int maxEntries, int maxLength) {
+        if(0 >= maxEntries || 1 << 29 < maxEntries) {
+            throw new IllegalArgumentException("Number of entries must be between 1 and 2^29");
+        }
+        this.maxEntries = maxEntries;
+        this.maxLength  = maxLength;
+        this.table      = new AtomicReferenceArray<String>(Integer.highestOneBit(maxEntries - 1 | 1) << 2);
+    }
+
+    /**
+     * Returns the pool used by the parsers.
+     * 
+     * @return Shared pool; null when deduplication is disabled
+     */
+    public static StringPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Installs the pool used by the parsers; pass null to disable deduplication (the default).
+     * 
+     * @param pool Shared pool
+     */
+    public static void setShared(StringPool pool) {
+        shared = pool;
+    }
+
+    /**
+     * Returns the pool through which documents parsed on the current thread are deduplicated.
+     * 
+     * @return Pool installed with {@link #use(StringPool)}, or else the shared pool; null when
+     *         deduplication is disabled
+     */
+    public static StringPool current() {
+        StringPool pool = CURRENT.get();
+        return null == pool ? shared : pool;
+    }
+
+    /**
+     * Installs the pool used by the parsers on the current thread, until the previous pool is restored.
+     * 
+     * <pre>
+     * StringPool previous = StringPool.use(pool);
+     * try {
+     *     ... // parse
+     * } finally {
+     *     StringPool.use(previous);
+     * }
+     * </pre>
+     * 
+     * @param  pool Pool to be used; null to use the shared pool
+     * @return Pool previously installed on the current thread; null if there was none
+     */
+    public static StringPool use(StringPool pool) {
+        StringPool previous = CURRENT.get();
+        if(null == pool) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(pool);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the pooled instance of a value, adding it if there is room.
+     * 
+     * @param  chars  Buffer holding the value
+     * @param  offset Start of the value in the buffer
+     * @param  length Length of the value
+     * @return Pooled instance, or a new string if the value is not (and cannot be) pooled
+     */
+    public String intern(char[] chars, int offset, int length) {
+        if(length > maxLength) {
+            missCount.increment();
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for(int i = offset; i < offset + length; ++i) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask  = table.length() - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while(true) {
+            String pooled = table.get(index);
+            if(null == pooled) {
+                String value = new String(chars, offset, length);
+                missCount.increment();
+                if(size.get() >= maxEntries || !table.compareAndSet(index, null, value)) {
+                    return value;
+                }
+                size.incrementAndGet();
+                return value;
+            }
+            if(matches(pooled, chars, offset, length)) {
+                hitCount.increment();
+                savedBytes.add(40 + ((length + 7) & ~7));
+                return pooled;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the number of pooled values.
+     * 
+     * @return Number of pooled values
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of lookups answered with a pooled instance.
+     * 
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups that produced a new string.
+     * 
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Estimates the heap saved by returning pooled instances (assuming each would otherwise have
+     * been retained), using the same string estimate as {@link com.mattwilliamsnyc.service.remix.Element#estimateSize()}.
+     * 
+     * @return Estimated bytes saved
+     */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    public String toString() {
+        return "StringPool[size=" + getSize() + "/" + maxEntries + ", hits=" + getHitCount()
+             + ", misses=" + getMissCount() + ", savedBytes=" + getSavedBytes() + "]";
+    }
+
+    /**
+     * Compares a pooled value with a region of a buffer.
+     * 
+     * @param  pooled Pooled value
+     * @param  chars  Buffer holding the candidate value
+     * @param  offset Start of the candidate value
+     * @param  length Length of the candidate value
+     * @return Whether both values are equal
+     */
+    private static boolean matches(String pooled, char[] chars, int offset, int length) {
+        if(pooled.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; ++i) {
+            if(pooled.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
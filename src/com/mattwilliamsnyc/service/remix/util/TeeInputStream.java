@@ -0,0 +1,109 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Copies every byte read from an underlying stream into a buffer.
+ * 
+ * Closing the stream first reads it to the end, so the copy is complete even if the reader stopped
+ * early (e.g. an XML parser at the end of the document element).
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class TeeInputStream extends FilterInputStream {
+    /**
+     * Receives a copy of the bytes read
+     */
+    private final ByteArrayOutputStream copy;
+
+    /**
+     * Whether the underlying stream has been read to the end
+     */
+    private boolean complete;
+
+    /**
+     * Whether this stream has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Wraps a stream, copying the bytes read through it.
+     * 
+     * @param in   Underlying stream
+     * @param copy Receives a copy of the bytes read
+     */
+    public TeeInputStream(InputStream in, ByteArrayOutputStream copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    /**
+     * Indicates whether the underlying stream was read to the end, i.e. whether the copy is complete.
+     * 
+     * @return Whether the copy is complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int read() throws IOException {
+        int b = in.read();
+        if(-1 == b) {
+            complete = true;
+        } else {
+            copy.write(b);
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if(-1 == read) {
+            complete = true;
+        } else {
+            copy.write(b, off, read);
+        }
+        return read;
+    }
+
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.min(n, 4096)];
+        int    read    = read(scratch, 0, scratch.length);
+        return Math.max(0, read);
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            byte[] scratch = new byte[4096];
+            while(-1 != read(scratch, 0, scratch.length)) {
+                // Copy trailing bytes left unread by the reader
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
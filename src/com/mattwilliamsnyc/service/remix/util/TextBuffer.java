@@ -0,0 +1,196 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.util.Arrays;
+
+/**
+ * Reusable accumulator for the character data of an element.
+ * 
+ * Produces the same value as <tt>text.replace("\n","").trim()</tt>, stripping newlines and
+ * trimming in place, and returns the "" literal for whitespace-only text without allocating.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+class TextBuffer {
+    /**
+     * Initial capacity, in characters
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Capacity above which {@link #clear()} releases the array, so that a reused buffer does not
+     * retain an unusually long text
+     */
+    private static final int RETAINED_CAPACITY = 65536;
+
+    /**
+     * Accumulated characters
+     */
+    private char[] chars = new char[INITIAL_CAPACITY];
+
+    /**
+     * Number of accumulated characters
+     */
+    private int length;
+
+    /**
+     * Appends character data.
+     * 
+     * @param ch     Characters from the XML document
+     * @param start  Start position in the array
+     * @param count  Number of characters to be appended
+     */
+    void append(char[] ch, int start, int count) {
+        ensureCapacity(count);
+        System.arraycopy(ch, start, chars, length, count);
+        length += count;
+    }
+
+    /**
+     * Grows the array, if necessary, to take more characters.
+     * 
+     * @param count Number of characters to be appended
+     */
+    private void ensureCapacity(int count) {
+        if(length + count > chars.length) {
+            char[] grown = new char[Math.max(chars.length << 1, length + count)];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+    }
+
+    /**
+     * Indicates whether any character data has been accumulated.
+     * 
+     * @return Whether the buffer is empty
+     */
+    boolean isEmpty() {
+        return 0 == length;
+    }
+
+    /**
+     * Returns the accumulated text with newlines removed and surrounding whitespace trimmed, and
+     * empties the buffer.
+     * 
+     * @param  pool Pool through which the value is deduplicated; may be null
+     * @return Text value; the "" literal if nothing but whitespace was accumulated
+     */
+    String take(StringPool pool) {
+        String value = toValue(chars, length, pool);
+        length = 0;
+        return value;
+    }
+
+    /**
+     * Turns raw character data into an element value, removing newlines and trimming in place.
+     * 
+     * @param  chars  Character data; overwritten
+     * @param  length Number of characters
+     * @param  pool   Pool through which the value is deduplicated; may be null
+     * @return Text value; the "" literal if the data is nothing but whitespace
+     */
+    static String toValue(char[] chars, int length, StringPool pool) {
+        int end   = removeNewlines(chars, length);
+        int start = 0;
+        while(start < end && ' ' >= chars[start]) {
+            ++start;
+        }
+        while(end > start && ' ' >= chars[end - 1]) {
+            --end;
+        }
+        if(start == end) {
+            return "";
+        }
+        return null == pool ? new String(chars, start, end - start) : pool.intern(chars, start, end - start);
+    }
+
+    /**
+     * Moves the accumulated text, normalized as by {@link #take(StringPool)}, to the end of another
+     * buffer, and empties this buffer.
+     * 
+     * @param  target Buffer receiving the text
+     * @return Number of characters moved; 0 if nothing but whitespace was accumulated
+     */
+    int moveTo(TextBuffer target) {
+        int end   = removeNewlines(chars, length);
+        int start = 0;
+        while(start < end && ' ' >= chars[start]) {
+            ++start;
+        }
+        while(end > start && ' ' >= chars[end - 1]) {
+            --end;
+        }
+        target.append(chars, start, end - start);
+        length = 0;
+        return end - start;
+    }
+
+    /**
+     * Removes newlines from character data in place.
+     * 
+     * @param  chars  Character data; overwritten
+     * @param  length Number of characters
+     * @return Number of characters left
+     */
+    private static int removeNewlines(char[] chars, int length) {
+        int end = 0;
+        for(int i = 0; i < length; ++i) {
+            if('\n' != chars[i]) {
+                chars[end++] = chars[i];
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Appends the characters of a string.
+     * 
+     * @param text String to be appended
+     */
+    void append(String text) {
+        int count = text.length();
+        ensureCapacity(count);
+        text.getChars(0, count, chars, length);
+        length += count;
+    }
+
+    /**
+     * Returns the number of accumulated characters.
+     * 
+     * @return Number of characters
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Returns a copy of the accumulated characters, sized exactly.
+     * 
+     * @return Accumulated characters
+     */
+    char[] toArray() {
+        return Arrays.copyOf(chars, length);
+    }
+
+    /**
+     * Discards the accumulated text.
+     */
+    void clear() {
+        length = 0;
+        if(RETAINED_CAPACITY < chars.length) {
+            chars = new char[INITIAL_CAPACITY];
+        }
+    }
+}
@@ -12,21 +12,38 @@
  */
 package com.mattwilliamsnyc.service.remix.util;
 
-import java.util.Stack;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 import com.mattwilliamsnyc.service.remix.Element;
+import com.mattwilliamsnyc.service.remix.RemixException;
 
 
 /**
  * Parses an XML document stream into a tree of generic {@link Element}s.
  * 
+ * Handlers, together with their SAX reader, are reusable: {@link #current()} returns one per thread
+ * so that parsing a response does not construct a new parser.
+ * 
+ * Element names are mapped to their canonical {@link ElementNames schema} instances, and
+ * low-cardinality values are deduplicated through the {@link StringPool#current() current pool}
+ * when one is installed.
+ * 
  * @author  Matt Williams <matt@mattwilliamsnyc.com>
  * @version $Id$
  */
 public class XMLHandler extends DefaultHandler {
+    /**
+     * Handler reused by each thread
+     */
+    private static final ThreadLocal<XMLHandler> HANDLERS = ThreadLocal.withInitial(XMLHandler::new);
 
     /**
      * Element tree parsed from an XML document
@@ -36,19 +53,81 @@ public class XMLHandler extends DefaultHandler {
     /** 
      * Captures character data inside an element
      */
-    private StringBuffer buffer;
+    private final TextBuffer buffer = new TextBuffer();
 
     /**
      * Used to hold elements during DFS traversal of an XML document
      */
-    private Stack<Element> stack;
+    private final List<Element> stack = new ArrayList<Element>();
+
+    /**
+     * Pool deduplicating low-cardinality values of the current document; null if disabled
+     */
+    private StringPool values;
+
+    /**
+     * SAX reader feeding this handler; created on first use
+     */
+    private XMLReader reader;
+
+    /**
+     * Whether {@link #parse(InputSource)} is running
+     */
+    private boolean parsing;
 
     /**
      * Instantiates a new handler to parse a Remix API XML response
      */
     public XMLHandler() {
-        buffer = new StringBuffer();
-        stack  = new Stack<Element>();
+    }
+
+    /**
+     * Returns the calling thread's handler, or a new one if that handler is already parsing.
+     * 
+     * @return Idle handler
+     */
+    public static XMLHandler current() {
+        XMLHandler handler = HANDLERS.get();
+        return handler.parsing ? new XMLHandler() : handler;
+    }
+
+    /**
+     * Parses a document with this handler's SAX reader.
+     * 
+     * The handler is reset before and after parsing, so that it holds no reference to the document.
+     * 
+     * @param  source Source from which the document is read
+     * @return Document root element
+     * @throws RemixException Thrown if no SAX reader could be created
+     * @throws SAXException   Thrown if the document is not well-formed
+     * @throws IOException    Thrown if the document could not be read
+     */
+    public Element parse(InputSource source) throws RemixException, SAXException, IOException {
+        if(null == reader) {
+            reader = RemixUtil.createXMLReader();
+            reader.setContentHandler(this);
+            reader.setErrorHandler(this);
+        }
+        parsing = true;
+        try {
+            reset();
+            values = StringPool.current();
+            reader.parse(source);
+            return documentRoot;
+        } finally {
+            reset();
+            parsing = false;
+        }
+    }
+
+    /**
+     * Discards the state left by a previous document.
+     */
+    public void reset() {
+        documentRoot = null;
+        values       = null;
+        buffer.clear();
+        stack.clear();
     }
 
     /**
@@ -71,24 +150,25 @@ public class XMLHandler extends DefaultHandler {
      * Receive notification of the start of an element.
      */
     public void startElement( String uri, String localName, String qName, Attributes attribs ) {
-        Element e = new Element(localName);
+        Element e = new Element(ElementNames.canonical(localName));
         for(int i = 0; i < attribs.getLength(); ++i) {
             e.setAttribute(attribs.getQName(i), attribs.getValue(i));
         }
-        stack.push(e);
+        stack.add(e);
     }
 
     /**
      * Receive notification of the end of an element.
      */
     public void endElement(String uri, String name, String qName) {
-        Element current = stack.pop();
-        if(0 < buffer.length()) {
-            current.setValue(buffer.toString().replace("\n","").trim());
-            buffer = new StringBuffer();
+        Element current = stack.remove(stack.size() - 1);
+        if(!buffer.isEmpty()) {
+            current.setValue(buffer.take(
+                null != values && ElementNames.isLowCardinality(current.getName()) ? values : null
+            ));
         }
         if(stack.size() > 0) {
-            stack.peek().addChild(current);
+            stack.get(stack.size() - 1).addChild(current);
         } else {
             documentRoot = current;
         }
@@ -0,0 +1,755 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+import com.mattwilliamsnyc.service.remix.Element;
+
+/**
+ * Structural index over a raw UTF-8 XML document, decoding names, attributes and text only when
+ * they are first accessed.
+ * 
+ * A single pass over the bytes records, for every element, the offsets of its name, its start tag
+ * and its character data, and links it to its parent's other children; nothing is decoded. The
+ * elements are exposed as {@link IndexedElement}s, whose values are decoded exactly as
+ * {@link XMLHandler} would have decoded them. Reading a handful of fields of a wide document
+ * therefore costs the structural pass plus those fields.
+ * 
+ * Documents must be encoded in UTF-8 (or US-ASCII), the encoding used by the Remix API; see
+ * {@link #isSupported(byte[], int)}.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class XMLIndex extends ElementIndex {
+    /**
+     * Layout of an element's entry in the node table (the name start is that of the local name,
+     * past any namespace prefix)
+     */
+    private static final int
+        NAME_START   = 0,
+        NAME_END     = 1,
+        TAG_END      = 2,
+        TEXT_START   = 3,
+        CONTENT_END  = 4,
+        FIRST_CHILD  = 5,
+        NEXT_SIBLING = 6,
+        LAST_CHILD   = 7,
+        STRIDE       = 8;
+
+    /**
+     * Typical number of document bytes per element, used to size the node table up front
+     */
+    private static final int BYTES_PER_NODE = 28;
+
+    /**
+     * Raw document
+     */
+    private final byte[] doc;
+
+    /**
+     * Length of the document within the array
+     */
+    private final int length;
+
+    /**
+     * Node table: {@link #STRIDE} ints per element, in document order (the root is node 0)
+     */
+    private int[] nodes;
+
+    /**
+     * Number of elements
+     */
+    private int count;
+
+    /**
+     * Element views, created on first access
+     */
+    private AtomicReferenceArray<IndexedElement> elements;
+
+    /**
+     * Pool deduplicating low-cardinality values; null if disabled
+     */
+    private final StringPool values = StringPool.current();
+
+    /**
+     * Creates an index over a document.
+     * 
+     * @param doc    Raw document
+     * @param length Length of the document within the array
+     */
+    private XMLIndex(byte[] doc, int length) {
+        this.doc    = doc;
+        this.length = length;
+        this.nodes  = new int[STRIDE * (16 + length / BYTES_PER_NODE)];
+    }
+
+    /**
+     * Indexes a document.
+     * 
+     * @param  doc    Raw UTF-8 document; must not be modified afterwards
+     * @param  length Length of the document within the array
+     * @return Document root element
+     * @throws IOException Thrown if the document is not well-formed
+     */
+    public static Element parse(byte[] doc, int length) throws IOException {
+        XMLIndex index = new XMLIndex(doc, length);
+        index.scan();
+        index.elements = new AtomicReferenceArray<IndexedElement>(index.count);
+        return index.element(0);
+    }
+
+    /**
+     * Indicates whether a document's XML declaration (if any) names an encoding this index can read.
+     * 
+     * @param  doc    Raw document
+     * @param  length Length of the document within the array
+     * @return Whether the document is UTF-8 or US-ASCII
+     */
+    public static boolean isSupported(byte[] doc, int length) {
+        if(!startsWith(doc, length, "<?xml", 0)) {
+            return true;
+        }
+        int end = indexOf(doc, length, "?>", 0);
+        String declaration = new String(doc, 0, 0 > end ? Math.min(length, 256) : end, StandardCharsets.ISO_8859_1);
+        int encoding = declaration.indexOf("encoding");
+        if(0 > encoding) {
+            return true;
+        }
+        String rest = declaration.substring(encoding).toUpperCase();
+        return rest.contains("UTF-8") || rest.contains("UTF8") || rest.contains("US-ASCII");
+    }
+
+    /**
+     * Records every element of the document.
+     * 
+     * @throws IOException Thrown if the document is not well-formed
+     */
+    private void scan() throws IOException {
+        int[] stack     = new int[16];
+        int   depth     = 0;
+        int   textStart = -1;
+        int   position  = 0;
+        while(true) {
+            int lt = indexOf(doc, length, "<", position);
+            if(0 > lt) {
+                break;
+            }
+            if(lt + 1 >= length) {
+                throw malformed("markup", lt);
+            }
+            byte b = doc[lt + 1];
+            if('?' == b) {
+                position = skipPast("?>", lt + 2);
+            } else if('!' == b) {
+                if(startsWith(doc, length, "<!--", lt)) {
+                    position = skipPast("-->", lt + 4);
+                } else if(startsWith(doc, length, "<![CDATA[", lt)) {
+                    position = skipPast("]]>", lt + 9);
+                } else {
+                    position = skipDeclaration(lt + 2);
+                }
+            } else if('/' == b) {
+                if(0 == depth) {
+                    throw malformed("start tag", lt);
+                }
+                int gt = endTagEnd(stack[depth - 1], lt + 2);
+                if(0 > gt) {
+                    throw malformed("'>'", lt);
+                }
+                close(stack[--depth], textStart, lt);
+                textStart = gt + 1;
+                position  = gt + 1;
+                if(0 == depth) {
+                    break;
+                }
+            } else {
+                if(0 == depth && 0 < count) {
+                    throw malformed("a single root element", lt);
+                }
+                int nameStart = lt + 1;
+                int nameEnd   = lt + 1;
+                while(nameEnd < length && !isNameEnd(doc[nameEnd])) {
+                    if(':' == doc[nameEnd]) {
+                        nameStart = nameEnd + 1;
+                    }
+                    ++nameEnd;
+                }
+                int gt   = tagEnd(nameEnd);
+                int node = add(nameStart, nameEnd, gt + 1, 0 == depth ? -1 : stack[depth - 1]);
+                if(0 > textStart) {
+                    textStart = gt + 1;
+                }
+                position = gt + 1;
+                if('/' == doc[gt - 1]) {
+                    close(node, textStart, lt);
+                    textStart = gt + 1;
+                    if(0 == depth) {
+                        break;
+                    }
+                } else {
+                    if(depth == stack.length) {
+                        int[] grown = new int[depth << 1];
+                        System.arraycopy(stack, 0, grown, 0, depth);
+                        stack = grown;
+                    }
+                    stack[depth++] = node;
+                }
+            }
+        }
+        if(0 == count || 0 != depth) {
+            throw malformed("a complete root element", length);
+        }
+    }
+
+    /**
+     * Appends an element to the node table, linking it to its parent.
+     * 
+     * @param  nameStart Offset of the element name
+     * @param  nameEnd   Offset following the element name
+     * @param  tagEnd    Offset following the start tag
+     * @param  parent    Parent node; -1 for the root
+     * @return Node number
+     */
+    private int add(int nameStart, int nameEnd, int tagEnd, int parent) {
+        if((count + 1) * STRIDE > nodes.length) {
+            int[] grown = new int[nodes.length << 1];
+            System.arraycopy(nodes, 0, grown, 0, count * STRIDE);
+            nodes = grown;
+        }
+        int node = count++;
+        int base = node * STRIDE;
+        nodes[base + NAME_START]   = nameStart;
+        nodes[base + NAME_END]     = nameEnd;
+        nodes[base + TAG_END]      = tagEnd;
+        nodes[base + FIRST_CHILD]  = -1;
+        nodes[base + NEXT_SIBLING] = -1;
+        nodes[base + LAST_CHILD]   = -1;
+        if(0 <= parent) {
+            int last = nodes[parent * STRIDE + LAST_CHILD];
+            if(0 > last) {
+                nodes[parent * STRIDE + FIRST_CHILD] = node;
+            } else {
+                nodes[last * STRIDE + NEXT_SIBLING] = node;
+            }
+            nodes[parent * STRIDE + LAST_CHILD] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Records where an element's character data lies.
+     * 
+     * As with {@link XMLHandler}, an element's value is made of all character data since the end
+     * of the previous end tag, markup excluded.
+     * 
+     * @param node       Node number
+     * @param textStart  Offset following the previous end tag
+     * @param contentEnd Offset of the element's end tag
+     */
+    private void close(int node, int textStart, int contentEnd) {
+        nodes[node * STRIDE + TEXT_START]  = textStart;
+        nodes[node * STRIDE + CONTENT_END] = contentEnd;
+    }
+
+    /**
+     * Returns the view of an element, creating it on first access.
+     * 
+     * @param  node Node number
+     * @return Element view
+     */
+    IndexedElement element(int node) {
+        IndexedElement element = elements.get(node);
+        if(null == element) {
+            elements.compareAndSet(node, null, new IndexedElement(this, node, name(node)));
+            element = elements.get(node);
+        }
+        return element;
+    }
+
+    /**
+     * Returns an element's first child.
+     * 
+     * @param  node Node number
+     * @return Node number of the first child; -1 if there is none
+     */
+    int firstChild(int node) {
+        return nodes[node * STRIDE + FIRST_CHILD];
+    }
+
+    /**
+     * Returns an element's next sibling.
+     * 
+     * @param  node Node number
+     * @return Node number of the next sibling; -1 if there is none
+     */
+    int nextSibling(int node) {
+        return nodes[node * STRIDE + NEXT_SIBLING];
+    }
+
+    /**
+     * Finds the last child of an element with a given name.
+     * 
+     * @param  node Node number
+     * @param  name Name of the child
+     * @return Node number of the child; -1 if there is none
+     */
+    int child(int node, String name) {
+        boolean ascii = isAscii(name);
+        int     found = -1;
+        for(int child = firstChild(node); 0 <= child; child = nextSibling(child)) {
+            if(ascii ? asciiNameEquals(child, name) : name(child).equals(name)) {
+                found = child;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decodes an element's name.
+     * 
+     * @param  node Node number
+     * @return Canonical element name
+     */
+    private String name(int node) {
+        int start = nodes[node * STRIDE + NAME_START];
+        int end   = nodes[node * STRIDE + NAME_END];
+        return ElementNames.canonical(new String(doc, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares an element's name with an ASCII string without decoding it.
+     * 
+     * A name containing multi-byte characters can never equal an ASCII string, so bytes are compared
+     * with characters directly.
+     * 
+     * @param  node Node number
+     * @param  name ASCII name to be compared
+     * @return Whether the element has this name
+     */
+    private boolean asciiNameEquals(int node, String name) {
+        int start = nodes[node * STRIDE + NAME_START];
+        int end   = nodes[node * STRIDE + NAME_END];
+        if(end - start != name.length()) {
+            return false;
+        }
+        for(int i = 0; i < end - start; ++i) {
+            if(doc[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether a string is made of ASCII characters only.
+     * 
+     * @param  s String to be checked
+     * @return Whether every character is below 0x80
+     */
+    private static boolean isAscii(String s) {
+        for(int i = 0; i < s.length(); ++i) {
+            if(0x80 <= s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes an element's value.
+     * 
+     * @param  node Node number
+     * @param  name Element name, selecting whether the value is deduplicated
+     * @return Value; null if the element has no character data
+     */
+    String value(int node, String name) {
+        StringPool pool = null != values && ElementNames.isLowCardinality(name) ? values : null;
+        return text(nodes[node * STRIDE + TEXT_START], nodes[node * STRIDE + CONTENT_END], pool);
+    }
+
+    /**
+     * Decodes an element's attributes.
+     * 
+     * @param node       Node number
+     * @param attributes Receives each attribute name and value
+     */
+    void attributes(int node, BiConsumer<String,String> attributes) {
+        int i   = nodes[node * STRIDE + NAME_END];
+        int end = nodes[node * STRIDE + TAG_END] - 1;
+        while(true) {
+            while(i < end && isSpace(doc[i])) {
+                ++i;
+            }
+            int nameStart = i;
+            while(i < end && '=' != doc[i] && !isSpace(doc[i])) {
+                ++i;
+            }
+            int nameEnd = i;
+            while(i < end && '=' != doc[i]) {
+                ++i;
+            }
+            ++i;
+            while(i < end && isSpace(doc[i])) {
+                ++i;
+            }
+            if(i >= end || nameStart == nameEnd) {
+                return;
+            }
+            byte quote = doc[i];
+            int  close = indexOf(doc, end, '"' == quote ? "\"" : "'", i + 1);
+            if(0 > close) {
+                return;
+            }
+            attributes.accept(
+                new String(doc, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8), attributeValue(i + 1, close)
+            );
+            i = close + 1;
+        }
+    }
+
+    /**
+     * Estimates the heap retained by this index and its views, in bytes.
+     * 
+     * @return Estimated retained size in bytes
+     */
+    long estimateSize() {
+        return 64 + 16 + doc.length + 16 + 4L * nodes.length + 16 + 4L * count + estimateViews(0);
+    }
+
+    /**
+     * Estimates the heap retained by an element's view once decoded, bounding the decoded strings
+     * by the number of bytes they are decoded from.
+     * 
+     * @param  node Node number
+     * @return Estimated retained size in bytes
+     */
+    long estimateSize(int node) {
+        int textStart  = nodes[node * STRIDE + TEXT_START];
+        int contentEnd = nodes[node * STRIDE + CONTENT_END];
+        int nameEnd    = nodes[node * STRIDE + NAME_END];
+        int tagEnd     = nodes[node * STRIDE + TAG_END] - 1;
+        int attributes = 0;
+        for(int i = nameEnd; i < tagEnd; ++i) {
+            if('=' == doc[i]) {
+                ++attributes;
+            }
+        }
+        int children = 0;
+        for(int child = firstChild(node); 0 <= child; child = nextSibling(child)) {
+            ++children;
+        }
+        return estimateView(
+            nameEnd - nodes[node * STRIDE + NAME_START], textStart < contentEnd ? contentEnd - textStart : -1,
+            children, attributes, Math.max(0, tagEnd - nameEnd)
+        );
+    }
+
+    /**
+     * Decodes the character data of a region, skipping markup, into an element value.
+     * 
+     * @param  from Start of the region
+     * @param  to   End of the region
+     * @param  pool Pool through which the value is deduplicated; may be null
+     * @return Value; null if the region holds no character data
+     */
+    private String text(int from, int to, StringPool pool) {
+        if(from >= to) {
+            return null;
+        }
+        char[] chars = new char[to - from];
+        int    count = 0;
+        int    i     = from;
+        while(i < to) {
+            if('<' != doc[i]) {
+                int lt = indexOf(doc, to, "<", i);
+                int end = 0 > lt ? to : lt;
+                count = decode(i, end, chars, count, false);
+                i = end;
+            } else if(startsWith(doc, to, "<![CDATA[", i)) {
+                int end = indexOf(doc, to, "]]>", i + 9);
+                if(0 > end) {
+                    break;
+                }
+                count = decode(i + 9, end, chars, count, false);
+                i = end + 3;
+            } else if(startsWith(doc, to, "<!--", i)) {
+                int end = indexOf(doc, to, "-->", i + 4);
+                i = 0 > end ? to : end + 3;
+            } else {
+                i = tagEnd(i + 1) + 1;
+            }
+        }
+        return 0 == count ? null : TextBuffer.toValue(chars, count, pool);
+    }
+
+    /**
+     * Decodes an attribute value, normalizing whitespace as an XML parser does.
+     * 
+     * @param  from Start of the value
+     * @param  to   End of the value (the closing quote)
+     * @return Value
+     */
+    private String attributeValue(int from, int to) {
+        char[] chars = new char[to - from];
+        return new String(chars, 0, decode(from, to, chars, 0, true));
+    }
+
+    /**
+     * Decodes a region without markup, resolving character and entity references.
+     * 
+     * Line ends are normalized to "\n" (to spaces in attribute values, along with tabs).
+     * 
+     * @param  from      Start of the region
+     * @param  to        End of the region
+     * @param  chars     Output buffer
+     * @param  count     Number of characters already in the output buffer
+     * @param  attribute Whether an attribute value is being decoded
+     * @return Number of characters in the output buffer
+     */
+    private int decode(int from, int to, char[] chars, int count, boolean attribute) {
+        int i = from;
+        while(i < to) {
+            int c = doc[i] & 0xFF;
+            if('&' == c) {
+                int semicolon = indexOf(doc, to, ";", i + 1);
+                int codePoint = 0 < semicolon && 12 > semicolon - i ? reference(i + 1, semicolon) : -1;
+                if(0 <= codePoint) {
+                    count += Character.toChars(codePoint, chars, count);
+                    i = semicolon + 1;
+                } else {
+                    chars[count++] = '&';
+                    ++i;
+                }
+            } else if('\r' == c) {
+                chars[count++] = attribute ? ' ' : '\n';
+                i += i + 1 < to && '\n' == doc[i + 1] ? 2 : 1;
+            } else if(0x80 > c) {
+                chars[count++] = attribute && ('\n' == c || '\t' == c) ? ' ' : (char) c;
+                ++i;
+            } else {
+                int codePoint;
+                int size;
+                if(0xE0 > c) {
+                    codePoint = c & 0x1F;
+                    size      = 2;
+                } else if(0xF0 > c) {
+                    codePoint = c & 0x0F;
+                    size      = 3;
+                } else {
+                    codePoint = c & 0x07;
+                    size      = 4;
+                }
+                for(int j = 1; j < size && i + j < to; ++j) {
+                    codePoint = (codePoint << 6) | (doc[i + j] & 0x3F);
+                }
+                count += Character.toChars(Character.isValidCodePoint(codePoint) ? codePoint : 0xFFFD, chars, count);
+                i += size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Resolves a character reference or predefined entity reference.
+     * 
+     * @param  from Offset following the ampersand
+     * @param  to   Offset of the semicolon
+     * @return Referenced code point; -1 if the reference is not recognized
+     */
+    private int reference(int from, int to) {
+        String name = new String(doc, from, to - from, StandardCharsets.ISO_8859_1);
+        switch(name) {
+            case "lt":   return '<';
+            case "gt":   return '>';
+            case "amp":  return '&';
+            case "quot": return '"';
+            case "apos": return '\'';
+            default:
+                break;
+        }
+        try {
+            int codePoint = name.startsWith("#x")
+                ? Integer.parseInt(name.substring(2), 16)
+                : name.startsWith("#") ? Integer.parseInt(name.substring(1)) : -1;
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the end of a tag, skipping quoted attribute values.
+     * 
+     * @param  from Offset within the tag
+     * @return Offset of the closing '>'; the document length if the tag is not closed
+     */
+    private int tagEnd(int from) {
+        byte quote = 0;
+        for(int i = from; i < length; ++i) {
+            byte b = doc[i];
+            if(0 != quote) {
+                if(quote == b) {
+                    quote = 0;
+                }
+            } else if('"' == b || '\'' == b) {
+                quote = b;
+            } else if('>' == b) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Finds the end of an end tag, checking that it closes the open element.
+     * 
+     * @param  node Open element
+     * @param  from Offset following "&lt;/"
+     * @return Offset of the end tag's '&gt;'; -1 if the end tag is not closed
+     * @throws IOException Thrown if the end tag names another element
+     */
+    private int endTagEnd(int node, int from) throws IOException {
+        // The start tag's qualified name runs from its '<' (prefix included) to the end of the local name
+        int nameEnd   = nodes[node * STRIDE + NAME_END];
+        int nameStart = nodes[node * STRIDE + NAME_START];
+        while('<' != doc[nameStart - 1]) {
+            --nameStart;
+        }
+        int end = from + nameEnd - nameStart;
+        if(end >= length) {
+            return -1;
+        }
+        boolean matches = true;
+        for(int i = nameStart; matches && i < nameEnd; ++i) {
+            matches = doc[i] == doc[from + i - nameStart];
+        }
+        while(matches && end < length && isSpace(doc[end])) {
+            ++end;
+        }
+        if(end >= length) {
+            return -1;
+        }
+        if(!matches || '>' != doc[end]) {
+            String name = new String(doc, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+            throw malformed("</" + name + ">", from - 2);
+        }
+        return end;
+    }
+
+    /**
+     * Skips a markup declaration (e.g. DOCTYPE), including an internal subset.
+     * 
+     * @param  from Offset following "&lt;!"
+     * @return Offset following the declaration
+     * @throws IOException Thrown if the declaration is not closed
+     */
+    private int skipDeclaration(int from) throws IOException {
+        int nesting = 0;
+        for(int i = from; i < length; ++i) {
+            if('[' == doc[i]) {
+                ++nesting;
+            } else if(']' == doc[i]) {
+                --nesting;
+            } else if('>' == doc[i] && 0 >= nesting) {
+                return i + 1;
+            }
+        }
+        throw malformed("'>'", from);
+    }
+
+    /**
+     * Finds the end of a construct.
+     * 
+     * @param  terminator Text closing the construct
+     * @param  from       Offset within the construct
+     * @return Offset following the terminator
+     * @throws IOException Thrown if the terminator is missing
+     */
+    private int skipPast(String terminator, int from) throws IOException {
+        int end = indexOf(doc, length, terminator, from);
+        if(0 > end) {
+            throw malformed("'" + terminator + "'", from);
+        }
+        return end + terminator.length();
+    }
+
+    /**
+     * Finds an ASCII string within a document.
+     * 
+     * @param  doc    Document
+     * @param  length Length of the searched region
+     * @param  text   ASCII text to be found
+     * @param  from   Offset at which to start
+     * @return Offset of the text; -1 if it was not found
+     */
+    private static int indexOf(byte[] doc, int length, String text, int from) {
+        byte first = (byte) text.charAt(0);
+        for(int i = from; i < length; ++i) {
+            if(first == doc[i] && startsWith(doc, length, text, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether a document region starts with an ASCII string.
+     * 
+     * @param  doc    Document
+     * @param  length Length of the document
+     * @param  text   ASCII text
+     * @param  at     Offset of the region
+     * @return Whether the text is found at the offset
+     */
+    private static boolean startsWith(byte[] doc, int length, String text, int at) {
+        if(at + text.length() > length) {
+            return false;
+        }
+        for(int i = 0; i < text.length(); ++i) {
+            if(text.charAt(i) != doc[at + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether a byte ends an element name.
+     */
+    private static boolean isNameEnd(byte b) {
+        return isSpace(b) || '/' == b || '>' == b;
+    }
+
+    /**
+     * Indicates whether a byte is XML whitespace.
+     */
+    private static boolean isSpace(byte b) {
+        return ' ' == b || '\n' == b || '\r' == b || '\t' == b;
+    }
+
+    /**
+     * Describes a structural error.
+     * 
+     * @param  expected What was expected
+     * @param  offset   Offset of the error
+     * @return Exception to be thrown
+     */
+    private static MalformedDocumentException malformed(String expected, int offset) {
+        return new MalformedDocumentException("Malformed XML: expected " + expected + " at offset " + offset);
+    }
+}
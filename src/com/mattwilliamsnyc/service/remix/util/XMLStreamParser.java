@@ -0,0 +1,116 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix.util;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.mattwilliamsnyc.service.remix.Element;
+
+/**
+ * Pulls a Remix API XML document from a stream, handing each entity (each child of the document
+ * root) to a consumer as soon as its closing tag has been read.
+ * 
+ * Entities are not attached to the returned document root, so only one entity is held in memory
+ * at a time. Text is trimmed exactly as {@link XMLHandler} trims it, so streamed entities are
+ * identical to those of a fully parsed document.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class XMLStreamParser {
+    /**
+     * StAX factory, resolved once (factories are thread-safe once configured)
+     */
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Parses a document, streaming its entities to a consumer.
+     * 
+     * @param  in       Stream from which the document is read
+     * @param  entities Receives each child of the document root as soon as it has been read
+     * @return Document root, carrying its attributes but no children
+     * @throws XMLStreamException Thrown if the document is not well-formed
+     */
+    public static Element parse(InputStream in, Consumer<Element> entities) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            Element       root   = null;
+            List<Element> stack  = new ArrayList<Element>();
+            TextBuffer    buffer = new TextBuffer();
+            StringPool    values = StringPool.current();
+            while(reader.hasNext()) {
+                switch(reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        Element e = new Element(ElementNames.canonical(reader.getLocalName()));
+                        for(int i = 0; i < reader.getAttributeCount(); ++i) {
+                            String prefix = reader.getAttributePrefix(i);
+                            String name   = reader.getAttributeLocalName(i);
+                            e.setAttribute(
+                                null == prefix || 0 == prefix.length() ? name : prefix + ":" + name,
+                                reader.getAttributeValue(i)
+                            );
+                        }
+                        stack.add(e);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        Element current = stack.remove(stack.size() - 1);
+                        if(!buffer.isEmpty()) {
+                            current.setValue(buffer.take(
+                                null != values && ElementNames.isLowCardinality(current.getName()) ? values : null
+                            ));
+                        }
+                        if(stack.isEmpty()) {
+                            root = current;
+                        } else if(1 == stack.size()) {
+                            entities.accept(current);
+                        } else {
+                            stack.get(stack.size() - 1).addChild(current);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return root;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Creates a StAX factory that does not resolve external entities.
+     * 
+     * @return Configured factory
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * COPYRIGHT
+ * Copyright (c) 2009, Matt Williams <matt@mattwilliamsnyc.com>
+ *
+ * LICENSE
+ *
+ * This source file is subject to the new BSD license bundled with this package
+ * in the file, LICENSE. This license is also available through the web at:
+ * {@link http://www.opensource.org/licenses/bsd-license.php}. If you did not
+ * receive a copy of the license, and are unable to obtain it through the web,
+ * please send an email to matt@mattwilliamsnyc.com, and I will send you a copy.
+ */
+package com.mattwilliamsnyc.service.remix;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Concurrency stress test of a shared {@link Remix} client.
+ * 
+ * Hundreds of threads (300 by default) share one client and each place a number of requests (200 by
+ * default), blocking and asynchronous, through clients derived with {@link Remix#with} that override
+ * the API key and a header per caller and per request. Meanwhile another thread keeps replacing the
+ * shared client's headers through the deprecated setters. An {@link InProcessTransport} echoes each
+ * request's API key, header and query back in the response, and every caller checks that:
+ * 
+ * <ul>
+ *   <li>the request carried its own API key and header, never another caller's;</li>
+ *   <li>the request carried its own query parameters;</li>
+ *   <li>its parameter maps (one private, one shared by all callers) were left unmodified.</li>
+ * </ul>
+ * 
+ * Run from the project root with:
+ * 
+ * <pre>
+ * javac -d build $(find src test -name '*.java')
+ * java -cp build com.mattwilliamsnyc.service.remix.RemixStressTest [threads] [requests per thread]
+ * </pre>
+ * 
+ * The process exits with status 1 if any check failed.
+ * 
+ * @author  Matt Williams <matt@mattwilliamsnyc.com>
+ * @version $Id$
+ */
+public class RemixStressTest {
+    /**
+     * Header overridden per caller and per request
+     */
+    private static final String CALLER_HEADER = "X-Caller";
+
+    /**
+     * Header replaced on the shared client while requests are in flight
+     */
+    private static final String SHARED_HEADER = "X-Shared";
+
+    /**
+     * Parameters shared, read-only, by every caller
+     */
+    private static final Map<String,String> SHARED_PARAMS = new HashMap<String,String>();
+
+    static {
+        SHARED_PARAMS.put("show", "sku,name");
+        SHARED_PARAMS.put("pageSize", "1");
+    }
+
+    private final int threads;
+    private final int requests;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed    = new AtomicLong();
+
+    /**
+     * First failure observed, reported at the end
+     */
+    private final AtomicReference<String> firstFailure = new AtomicReference<String>();
+
+    public RemixStressTest(int threads, int requests) {
+        this.threads  = threads;
+        this.requests = requests;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads  = 0 < args.length ? Integer.parseInt(args[0]) : 300;
+        int requests = 1 < args.length ? Integer.parseInt(args[1]) : 200;
+        System.exit(new RemixStressTest(threads, requests).run() ? 0 : 1);
+    }
+
+    /**
+     * Runs the test.
+     * 
+     * @return Whether every check passed
+     * @throws InterruptedException Thrown if interrupted while waiting for the callers
+     */
+    public boolean run() throws InterruptedException {
+        ExecutorService handlers = Executors.newFixedThreadPool(16);
+        final Remix shared = Remix.builder("shared-key")
+            .transport(new InProcessTransport(RemixStressTest::echo, handlers))
+            .executor(handlers)
+            .coalescer(new RequestCoalescer())
+            .cache(new ResponseCache(16L << 20))
+            .header(SHARED_HEADER, "0")
+            .build();
+        final Map<String,String> sharedSnapshot = new HashMap<String,String>(SHARED_PARAMS);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done  = new CountDownLatch(threads);
+        for(int t = 0; t < threads; ++t) {
+            final int caller = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    call(shared, caller);
+                } catch (Throwable e) {
+                    fail("caller " + caller + " failed: " + e);
+                } finally {
+                    done.countDown();
+                }
+            }, "caller-" + t);
+            thread.start();
+        }
+
+        Thread mutator = new Thread(() -> {
+            for(int i = 1; 0 != done.getCount(); ++i) {
+                @SuppressWarnings("deprecation")
+                Remix ignored = shared.setHeader(SHARED_HEADER, String.valueOf(i));
+                Thread.yield();
+            }
+        }, "mutator");
+        mutator.setDaemon(true);
+
+        long started = System.nanoTime();
+        start.countDown();
+        mutator.start();
+        boolean finished = done.await(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - started;
+        handlers.shutdown();
+
+        if(!finished) {
+            fail("callers did not finish within 10 minutes");
+        }
+        if(!sharedSnapshot.equals(SHARED_PARAMS)) {
+            fail("shared params were modified: " + SHARED_PARAMS);
+        }
+        long expected = (long) threads * requests;
+        if(completed.get() != expected) {
+            fail("completed " + completed.get() + " of " + expected + " requests");
+        }
+        System.out.printf(
+            "%d threads x %d requests: %d completed, %d failed checks in %.1f s%n",
+            threads, requests, completed.get(), failed.get(), elapsed / 1e9
+        );
+        if(null != firstFailure.get()) {
+            System.out.println("First failure: " + firstFailure.get());
+        }
+        return 0 == failed.get() && finished;
+    }
+
+    /**
+     * Places one caller's requests, alternating blocking and asynchronous calls, and checks each.
+     * 
+     * @param  shared Client shared by every caller
+     * @param  caller Number of the caller
+     * @throws Exception Thrown if a request failed
+     */
+    private void call(Remix shared, int caller) throws Exception {
+        final String apiKey = "key-" + caller;
+        Remix client = shared.with(builder -> builder.apiKey(apiKey).header(CALLER_HEADER, "caller-" + caller));
+        for(int i = 0; i < requests; ++i) {
+            Map<String,String> params = new HashMap<String,String>();
+            params.put("caller", String.valueOf(caller));
+            params.put("request", String.valueOf(i));
+            Map<String,String> snapshot = new HashMap<String,String>(params);
+
+            // Every other request overrides the header again, per request
+            final String header = 0 == i % 2 ? "caller-" + caller : "caller-" + caller + "-request-" + i;
+            Remix requestClient = 0 == i % 2 ? client : client.with(builder -> builder.header(CALLER_HEADER, header));
+
+            List<CompletableFuture<ProductsResponse>> responses = new ArrayList<CompletableFuture<ProductsResponse>>();
+            if(0 == i % 3) {
+                responses.add(requestClient.getProductsAsync(params));
+            } else {
+                responses.add(CompletableFuture.completedFuture(requestClient.getProducts(params)));
+            }
+            responses.add(requestClient.getProductsAsync(Collections.<String>emptyList(), SHARED_PARAMS));
+
+            check(responses.get(0).get(), apiKey, header, "caller=" + caller + "&", "request=" + i + "&");
+
+            // Responses are cached by URL, which carries the API key but not the headers, so this one
+            // may have been fetched by any of the caller's earlier requests
+            check(responses.get(1).get(), apiKey, "caller-" + caller, "pageSize=1&", "show=sku,name");
+            if(!snapshot.equals(params)) {
+                fail("caller " + caller + " params were modified: " + params);
+            }
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks the request echoed by a response.
+     * 
+     * @param response Response to be checked
+     * @param apiKey   API key the request must have carried
+     * @param header   Caller header the request must have carried, or a prefix of it
+     * @param query    Query parameters the request must have carried
+     */
+    private void check(ProductsResponse response, String apiKey, String header, String... query) {
+        List<Product> products = response.list();
+        if(1 != products.size()) {
+            fail("expected one echoed product, got " + products.size());
+            return;
+        }
+        String echoed = products.get(0).getName();
+        if(!echoed.contains("apiKey=" + apiKey + "&") && !echoed.endsWith("apiKey=" + apiKey)) {
+            fail("expected API key " + apiKey + ", echoed " + echoed);
+        }
+        if(!echoed.startsWith(header + " ") && !echoed.startsWith(header + "-request-")) {
+            fail("expected header " + header + ", echoed " + echoed);
+        }
+        for(String parameter : query) {
+            if(!(echoed + "&").contains(parameter)) {
+                fail("expected query parameter " + parameter + ", echoed " + echoed);
+            }
+        }
+    }
+
+    /**
+     * Records a failed check.
+     * 
+     * @param message Description of the failure
+     */
+    private void fail(String message) {
+        failed.incrementAndGet();
+        firstFailure.compareAndSet(null, message);
+    }
+
+    /**
+     * Answers a request with a products document whose only product is named after the request's
+     * caller header and query string.
+     * 
+     * @param  request Request to be answered
+     * @return Echo response
+     */
+    private static TransportResponse echo(TransportRequest request) {
+        String name = request.getHeader(CALLER_HEADER) + " " + request.getUri().getRawQuery();
+        String document = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<products currentPage=\"1\" totalPages=\"1\" from=\"1\" to=\"1\" total=\"1\">"
+            + "<product><sku>1</sku><name>" + name.replace("&", "&amp;") + "</name></product></products>";
+        return new TransportResponse(
+            200, null, new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+}